@@ -1,5 +1,11 @@
 module backend {
     
-    //
+    requires java.net.http;
+
+    requires jdk.httpserver;
+
+    requires jdk.unsupported;
+
+    requires org.jsoup;
     
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+package org.catalyst.batch;
+
+import org.catalyst.io.CompressedInput;
+import org.catalyst.json.JSONParserPool;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/*
+
+Parses every matching file under a directory tree on a work-stealing pool and
+applies work(path, json) to each. Files are scheduled largest first, so one big
+file found last does not leave the other workers idle at the end of the batch.
+A file that cannot be read or parsed is reported as failed; the batch goes on.
+
+*/
+
+public final class BatchIngester {
+
+    public record FileResult<R>(Path path, long bytes, long nanos, R result, String failure) {
+
+        public boolean failed() {
+
+            return failure != null;
+        }
+
+    }
+
+    public record Summary<R>(List<FileResult<R>> results, long nanos) {
+
+        public long bytes() {
+
+            return results.stream().mapToLong(FileResult::bytes).sum();
+        }
+
+        public long failures() {
+
+            return results.stream().filter(FileResult::failed).count();
+        }
+
+    }
+
+    public static final Predicate<Path> JSON_FILES = path -> {
+
+        final String name = path.getFileName().toString();
+
+        return name.endsWith(".json") || name.endsWith(".json.gz");
+    };
+
+    private record Input(Path path, long bytes) { }
+
+    public static <R> Summary<R> run(final Path root,
+                                     final BiFunction<Path, Object, R> work,
+                                     final Consumer<? super FileResult<R>> listener) throws IOException {
+
+        return run(root, JSON_FILES, Runtime.getRuntime().availableProcessors(), work, listener);
+    }
+
+    /*
+
+    listener is called once per file as it completes, by one thread at a time, so
+    it can print without interleaving. The summary lists files in schedule order.
+
+    */
+
+    public static <R> Summary<R> run(final Path root,
+                                     final Predicate<Path> filter,
+                                     final int parallelism,
+                                     final BiFunction<Path, Object, R> work,
+                                     final Consumer<? super FileResult<R>> listener) throws IOException {
+
+        final long start = System.nanoTime();
+
+        final List<FileResult<R>> unreadable = new ArrayList<>();
+
+        final List<Input> inputs = walk(root, filter, unreadable);
+
+        inputs.sort(Comparator.comparingLong(Input::bytes).reversed());
+
+        final JSONParserPool parsers = new JSONParserPool(parallelism);
+
+        final Object listenerLock = new Object();
+
+        final Consumer<FileResult<R>> report = result -> {
+
+            synchronized (listenerLock) {
+
+                listener.accept(result);
+
+            }
+
+        };
+
+        unreadable.forEach(report);
+
+        final List<ForkJoinTask<FileResult<R>>> tasks = new ArrayList<>(inputs.size());
+
+        // asyncMode: submitted tasks are taken in FIFO order, i.e. largest first
+        final ForkJoinPool pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+
+        try {
+
+            for (final Input input : inputs) {
+
+                tasks.add(pool.submit(() -> {
+
+                    final FileResult<R> result = ingest(input, parsers, work);
+
+                    report.accept(result);
+
+                    return result;
+                }));
+
+            }
+
+            final List<FileResult<R>> results = new ArrayList<>(unreadable);
+
+            for (final ForkJoinTask<FileResult<R>> task : tasks) {
+
+                results.add(task.join());
+
+            }
+
+            return new Summary<>(results, (System.nanoTime() - start));
+
+        } finally {
+
+            pool.shutdownNow();
+
+        }
+
+    }
+
+    private static <R> List<Input> walk(final Path root,
+                                        final Predicate<Path> filter,
+                                        final List<FileResult<R>> unreadable) throws IOException {
+
+        final List<Input> inputs = new ArrayList<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path path, final BasicFileAttributes attributes) {
+
+                if (attributes.isRegularFile() && filter.test(path)) {
+
+                    inputs.add(new Input(path, attributes.size()));
+
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path path, final IOException exception) {
+
+                unreadable.add(new FileResult<>(path, 0, 0, null, exception.toString()));
+
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+
+        return inputs;
+    }
+
+    private static <R> FileResult<R> ingest(final Input input,
+                                            final JSONParserPool parsers,
+                                            final BiFunction<Path, Object, R> work) {
+
+        final long start = System.nanoTime();
+
+        // every worker is busy with a file of its own, so gzip input gets one inflater thread
+        try (final Reader reader = new InputStreamReader(CompressedInput.open(input.path(), 1),
+                StandardCharsets.UTF_8)) {
+
+            final R result = work.apply(input.path(), parsers.parse(reader));
+
+            return new FileResult<>(input.path(), input.bytes(), (System.nanoTime() - start), result, null);
+
+        } catch (final IOException | RuntimeException | StackOverflowError exception) {
+
+            return new FileResult<>(input.path(), input.bytes(), (System.nanoTime() - start), null,
+                    exception.toString());
+
+        }
+
+    }
+
+    private BatchIngester() { }
+
+}
\ No newline at end of file
@@ -0,0 +1,413 @@
+package org.catalyst.columnar;
+
+import org.catalyst.json.ByteFormat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+
+One column of a ColumnStore. The kind is fixed by the first non-null value; a
+later value of another kind turns the whole column into STRING. Strings are
+dictionary encoded, so codes[row] indexes dictionary() and equal values share
+one String. A number is turned into a string the same way whenever that happens
+(see text), so 1 and 1.0 get one code however they arrived.
+
+*/
+
+public final class Column {
+
+    public enum Kind {
+
+        STRING,
+
+        NUMBER,
+
+        BOOLEAN,
+
+        NULL
+
+    }
+
+    private static final int INITIAL_ROWS = 1024;
+
+    private final String name;
+
+    private Kind kind = Kind.NULL;
+
+    // bit set = row is null or missing
+    private long[] nulls = new long[INITIAL_ROWS >>> 6];
+
+    private int[] codes;
+
+    private double[] numbers;
+
+    private long[] booleans;
+
+    private List<String> dictionary;
+
+    private Map<String, Integer> lookup;
+
+    private int rows;
+
+    Column(final String name) {
+
+        this.name = name;
+
+    }
+
+    public String name() {
+
+        return name;
+    }
+
+    public Kind kind() {
+
+        return kind;
+    }
+
+    public int rows() {
+
+        return rows;
+    }
+
+    public boolean isNull(final int row) {
+
+        return (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    public int code(final int row) {
+
+        expect(Kind.STRING);
+
+        return codes[row];
+    }
+
+    public List<String> dictionary() {
+
+        return (dictionary == null) ? List.of() : dictionary;
+    }
+
+    public String string(final int row) {
+
+        return isNull(row) ? null : switch (kind) {
+
+            case STRING -> dictionary.get(codes[row]);
+
+            case NUMBER -> text(numbers[row]);
+
+            case BOOLEAN -> Boolean.toString(bool(row));
+
+            case NULL -> null;
+
+        };
+    }
+
+    public double number(final int row) {
+
+        expect(Kind.NUMBER);
+
+        return numbers[row];
+    }
+
+    public boolean bool(final int row) {
+
+        expect(Kind.BOOLEAN);
+
+        return (booleans[row >>> 6] & (1L << row)) != 0;
+    }
+
+    public Object value(final int row) {
+
+        if (isNull(row)) {
+
+            return null;
+
+        }
+
+        return switch (kind) {
+
+            case STRING -> dictionary.get(codes[row]);
+
+            case NUMBER -> numbers[row];
+
+            case BOOLEAN -> bool(row);
+
+            case NULL -> null;
+
+        };
+    }
+
+    public long memoryBytes() {
+
+        long bytes = ((long) nulls.length << 3);
+
+        if (codes != null) {
+
+            bytes += ((long) codes.length << 2);
+
+            for (final String string : dictionary) {
+
+                // header + array header + one byte per char for Latin-1 strings
+                bytes += (40 + string.length());
+
+            }
+
+        }
+
+        if (numbers != null) {
+
+            bytes += ((long) numbers.length << 3);
+
+        }
+
+        if (booleans != null) {
+
+            bytes += ((long) booleans.length << 3);
+
+        }
+
+        return bytes;
+    }
+
+    void appendString(final int row, final String value) {
+
+        if ((kind == Kind.NUMBER) || (kind == Kind.BOOLEAN)) {
+
+            toStrings();
+
+        } else if (kind == Kind.NULL) {
+
+            kind = Kind.STRING;
+
+            codes = new int[nulls.length << 6];
+
+            dictionary = new ArrayList<>();
+
+            lookup = new HashMap<>();
+
+        }
+
+        pad(row);
+
+        codes[row] = encode(value);
+
+        rows = (row + 1);
+
+    }
+
+    void appendNumber(final int row, final double value) {
+
+        if (kind == Kind.STRING || kind == Kind.BOOLEAN) {
+
+            appendString(row, text(value));
+
+            return;
+
+        }
+
+        if (kind == Kind.NULL) {
+
+            kind = Kind.NUMBER;
+
+            numbers = new double[nulls.length << 6];
+
+        }
+
+        pad(row);
+
+        numbers[row] = value;
+
+        rows = (row + 1);
+
+    }
+
+    void appendBoolean(final int row, final boolean value) {
+
+        if (kind == Kind.STRING || kind == Kind.NUMBER) {
+
+            appendString(row, Boolean.toString(value));
+
+            return;
+
+        }
+
+        if (kind == Kind.NULL) {
+
+            kind = Kind.BOOLEAN;
+
+            booleans = new long[nulls.length];
+
+        }
+
+        pad(row);
+
+        if (value) {
+
+            booleans[row >>> 6] |= (1L << row);
+
+        } else {
+
+            // the row's key may have come before
+            booleans[row >>> 6] &= ~(1L << row);
+
+        }
+
+        rows = (row + 1);
+
+    }
+
+    void appendNull(final int row) {
+
+        pad(row);
+
+        nulls[row >>> 6] |= (1L << row);
+
+        rows = (row + 1);
+
+    }
+
+    /*
+
+    Marks rows [rows, row) as missing and makes room for row itself, which is
+    not null (again, if its key came before with a null) unless appendNull says so.
+
+    */
+
+    void pad(final int row) {
+
+        ensure(row + 1);
+
+        for (int missing = rows; missing < row; missing++) {
+
+            nulls[missing >>> 6] |= (1L << missing);
+
+        }
+
+        nulls[row >>> 6] &= ~(1L << row);
+
+        if (rows < row) {
+
+            rows = row;
+
+        }
+
+    }
+
+    void finish(final int rowCount) {
+
+        pad(rowCount);
+
+        lookup = null;
+
+    }
+
+    private int encode(final String value) {
+
+        final Integer code = lookup.get(value);
+
+        if (code != null) {
+
+            return code;
+
+        }
+
+        final int next = dictionary.size();
+
+        dictionary.add(value);
+
+        lookup.put(value, next);
+
+        return next;
+    }
+
+    private void toStrings() {
+
+        final Kind previous = kind;
+
+        final int count = rows;
+
+        final double[] previousNumbers = numbers;
+
+        final long[] previousBooleans = booleans;
+
+        kind = Kind.STRING;
+
+        codes = new int[nulls.length << 6];
+
+        dictionary = new ArrayList<>();
+
+        lookup = new HashMap<>();
+
+        for (int row = 0; row < count; row++) {
+
+            if (isNull(row)) {
+
+                continue;
+
+            }
+
+            codes[row] = encode((previous == Kind.NUMBER)
+                    ? text(previousNumbers[row])
+                    : Boolean.toString((previousBooleans[row >>> 6] & (1L << row)) != 0));
+
+        }
+
+        numbers = null;
+
+        booleans = null;
+
+    }
+
+    // as JSONWriter writes it, without ".0" when integral
+    static String text(final double number) {
+
+        return ByteFormat.toString(number);
+    }
+
+    private void expect(final Kind expected) {
+
+        if (kind != expected) {
+
+            throw new IllegalStateException("column " + name + " is " + kind + ", not " + expected);
+
+        }
+
+    }
+
+    private void ensure(final int capacity) {
+
+        if (capacity <= (nulls.length << 6)) {
+
+            return;
+
+        }
+
+        final int words = Math.max((nulls.length * 2), ((capacity + 63) >>> 6));
+
+        nulls = Arrays.copyOf(nulls, words);
+
+        if (codes != null) {
+
+            codes = Arrays.copyOf(codes, (words << 6));
+
+        }
+
+        if (numbers != null) {
+
+            numbers = Arrays.copyOf(numbers, (words << 6));
+
+        }
+
+        if (booleans != null) {
+
+            booleans = Arrays.copyOf(booleans, words);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,350 @@
+package org.catalyst.columnar;
+
+import org.catalyst.json.JSONParser.Token;
+import org.catalyst.json.JSONTokenStream;
+
+import java.io.Reader;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+
+import static org.catalyst.json.JSONParser.Token.*;
+
+public final class ColumnStore {
+
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+
+    private int rows;
+
+    private ColumnStore() { }
+
+    /*
+
+    Grammar accepted (a top-level array of flat objects):
+
+    start   : LEFT_BRACKET [ row { COMMA row } ] RIGHT_BRACKET EOF_$ ;
+
+    row     : LEFT_CURLY_BRACKET [ cell { COMMA cell } ] RIGHT_CURLY_BRACKET ;
+
+    cell    : STRING COLON ( STRING | NUMBER | TRUE | FALSE | NULL ) ;
+
+    Rows are written straight into the columns as tokens arrive; no Map is built.
+
+    */
+
+    public static ColumnStore build(final Reader reader) {
+
+        final ColumnStore columnStore = new ColumnStore();
+
+        final JSONTokenStream tokens = new JSONTokenStream(reader);
+
+        tokens.next();
+
+        tokens.expect(LEFT_BRACKET);
+
+        if (tokens.next() != RIGHT_BRACKET) {
+
+            columnStore.row(tokens);
+
+            while (tokens.token() == COMMA) {
+
+                tokens.next();
+
+                columnStore.row(tokens);
+
+            }
+
+        }
+
+        tokens.expect(RIGHT_BRACKET);
+
+        tokens.next();
+
+        tokens.expect(EOF_$);
+
+        for (final Column column : columnStore.columns.values()) {
+
+            column.finish(columnStore.rows);
+
+        }
+
+        return columnStore;
+    }
+
+    public int rows() {
+
+        return rows;
+    }
+
+    public Collection<Column> columns() {
+
+        return columns.values();
+    }
+
+    public Column column(final String name) {
+
+        final Column column = columns.get(name);
+
+        if (column == null) {
+
+            throw new RuntimeException("no such column: " + name);
+
+        }
+
+        return column;
+    }
+
+    public long memoryBytes() {
+
+        return columns.values().stream().mapToLong(Column::memoryBytes).sum();
+    }
+
+    public BitSet all() {
+
+        final BitSet selection = new BitSet(rows);
+
+        selection.set(0, rows);
+
+        return selection;
+    }
+
+    public void scan(final BitSet selection, final IntConsumer consumer) {
+
+        for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+
+            consumer.accept(row);
+
+        }
+
+    }
+
+    /*
+
+    String predicates are evaluated once per dictionary entry rather than once per
+    row; the per-row work is a lookup of the row's code in the result.
+
+    */
+
+    public BitSet filter(final String name, final Predicate<String> predicate) {
+
+        final Column column = column(name);
+
+        final BitSet selection = new BitSet(rows);
+
+        if (column.kind() == Column.Kind.STRING) {
+
+            final BitSet matchingCodes = new BitSet();
+
+            for (int code = 0; code < column.dictionary().size(); code++) {
+
+                if (predicate.test(column.dictionary().get(code))) {
+
+                    matchingCodes.set(code);
+
+                }
+
+            }
+
+            for (int row = 0; row < rows; row++) {
+
+                if (!column.isNull(row) && matchingCodes.get(column.code(row))) {
+
+                    selection.set(row);
+
+                }
+
+            }
+
+        } else {
+
+            for (int row = 0; row < rows; row++) {
+
+                final String value = column.string(row);
+
+                if ((value != null) && predicate.test(value)) {
+
+                    selection.set(row);
+
+                }
+
+            }
+
+        }
+
+        return selection;
+    }
+
+    public BitSet filterNumbers(final String name, final DoublePredicate predicate) {
+
+        final Column column = column(name);
+
+        final BitSet selection = new BitSet(rows);
+
+        if (column.kind() != Column.Kind.NUMBER) {
+
+            return selection;
+
+        }
+
+        for (int row = 0; row < rows; row++) {
+
+            if (!column.isNull(row) && predicate.test(column.number(row))) {
+
+                selection.set(row);
+
+            }
+
+        }
+
+        return selection;
+    }
+
+    public Map<String, Long> countBy(final String name, final BitSet selection) {
+
+        return countBy(name, Function.identity(), selection);
+    }
+
+    /*
+
+    Groups the selected rows by key(value), e.g. the domain of a link. key is
+    applied once per distinct value.
+
+    */
+
+    public Map<String, Long> countBy(final String name,
+                                     final Function<String, String> key,
+                                     final BitSet selection) {
+
+        final Column column = column(name);
+
+        final Map<String, Long> counts = new HashMap<>();
+
+        if (column.kind() != Column.Kind.STRING) {
+
+            scan(selection, row -> counts.merge(key.apply(column.string(row)), 1L, Long::sum));
+
+            return counts;
+
+        }
+
+        final long[] perCode = new long[column.dictionary().size()];
+
+        scan(selection, row -> {
+
+            if (!column.isNull(row)) {
+
+                perCode[column.code(row)]++;
+
+            }
+
+        });
+
+        for (int code = 0; code < perCode.length; code++) {
+
+            if (perCode[code] > 0) {
+
+                counts.merge(key.apply(column.dictionary().get(code)), perCode[code], Long::sum);
+
+            }
+
+        }
+
+        return counts;
+    }
+
+    public Map<String, Double> sumBy(final String name, final String valueName, final BitSet selection) {
+
+        final Column column = column(name);
+
+        final Column values = column(valueName);
+
+        final Map<String, Double> sums = new HashMap<>();
+
+        if (values.kind() != Column.Kind.NUMBER) {
+
+            return sums;
+
+        }
+
+        scan(selection, row -> {
+
+            if (!values.isNull(row)) {
+
+                sums.merge(column.string(row), values.number(row), Double::sum);
+
+            }
+
+        });
+
+        return sums;
+    }
+
+    private void row(final JSONTokenStream tokens) {
+
+        tokens.expect(LEFT_CURLY_BRACKET);
+
+        if (tokens.next() == STRING) {
+
+            cell(tokens);
+
+            while (tokens.token() == COMMA) {
+
+                tokens.next();
+
+                cell(tokens);
+
+            }
+
+        }
+
+        tokens.expect(RIGHT_CURLY_BRACKET);
+
+        tokens.next();
+
+        rows++;
+
+    }
+
+    private void cell(final JSONTokenStream tokens) {
+
+        tokens.expect(STRING);
+
+        final String name = tokens.text();
+
+        tokens.next();
+
+        tokens.expect(COLON);
+
+        final Column column = columns.computeIfAbsent(name, Column::new);
+
+        final int row = rows;
+
+        final Token token = tokens.next();
+
+        switch (token) {
+
+            case STRING -> column.appendString(row, tokens.text());
+
+            case NUMBER -> column.appendNumber(row, Double.parseDouble(tokens.text()));
+
+            case TRUE -> column.appendBoolean(row, true);
+
+            case FALSE -> column.appendBoolean(row, false);
+
+            case NULL -> column.appendNull(row);
+
+            default -> throw tokens.error(String.format("expected a flat value for %s but found %s", name, token));
+
+        }
+
+        tokens.next();
+
+    }
+
+}
@@ -0,0 +1,85 @@
+package org.catalyst.dedup;
+
+/*
+
+A blocked Bloom filter: every probe for a key falls in the same 512-bit block (one
+cache line), so a lookup costs one memory miss instead of one per probe.
+
+*/
+
+final class BloomFilter {
+
+    private static final int BLOCK_LONGS = 8;
+
+    // re-spreads the hash so the probe bits do not overlap the block index bits
+    private static final long SPREAD = 0x9e3779b97f4a7c15L;
+
+    private final long[] bits;
+
+    private final int blockMask;
+
+    private final int probes;
+
+    BloomFilter(final long expected, final double falsePositiveRate) {
+
+        final double ln2 = Math.log(2);
+
+        final long wanted = (long) Math.ceil((-Math.max(expected, 1) * Math.log(falsePositiveRate)) / (ln2 * ln2));
+
+        // blocking costs a little accuracy; a quarter more bits wins it back
+        final long blocks = Math.max(1, ((wanted + (wanted >>> 2) + 511) >>> 9));
+
+        // round up to a power of two so picking a block is a mask rather than a modulo
+        final int blockCount = (int) Math.min(Long.highestOneBit((blocks << 1) - 1), (1 << 26));
+
+        bits = new long[blockCount * BLOCK_LONGS];
+
+        blockMask = (blockCount - 1);
+
+        probes = (int) Math.max(1, Math.min(6, Math.round(((double) bits.length * 64 / Math.max(expected, 1)) * ln2)));
+
+    }
+
+    boolean mightContain(final long hash) {
+
+        final int block = (((int) hash) & blockMask) * BLOCK_LONGS;
+
+        long probe = ((hash * SPREAD) >>> 10);
+
+        for (int i = 0; i < probes; i++, probe >>>= 9) {
+
+            final int bit = (int) (probe & 511);
+
+            if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0) {
+
+                return false;
+
+            }
+
+        }
+
+        return true;
+    }
+
+    void put(final long hash) {
+
+        final int block = (((int) hash) & blockMask) * BLOCK_LONGS;
+
+        long probe = ((hash * SPREAD) >>> 10);
+
+        for (int i = 0; i < probes; i++, probe >>>= 9) {
+
+            final int bit = (int) (probe & 511);
+
+            bits[block + (bit >>> 6)] |= (1L << bit);
+
+        }
+
+    }
+
+    long memoryBytes() {
+
+        return ((long) bits.length << 3);
+    }
+
+}
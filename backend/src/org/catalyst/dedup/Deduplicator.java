@@ -0,0 +1,169 @@
+package org.catalyst.dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+public final class Deduplicator implements Predicate<Object>, AutoCloseable {
+
+    public record Stats(long records,
+                        long duplicates,
+                        long unconfirmed,
+                        long exactKeys,
+                        long memoryBytes,
+                        boolean exact) { }
+
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private final Object keyField;
+
+    private final BloomFilter bloomFilter;
+
+    private final OffHeapKeySet keySet;
+
+    private long records;
+
+    private long duplicates;
+
+    private long unconfirmed;
+
+    private boolean exact = true;
+
+    private boolean closed;
+
+    public Deduplicator(final Object keyField, final long expectedRecords) {
+
+        this(keyField, expectedRecords, 0.01, DEFAULT_MAX_BYTES);
+
+    }
+
+    /*
+
+    Once the exact set reaches maxBytes, keys are only remembered by the Bloom
+    filter: from then on a filter hit that the set cannot confirm is counted as
+    unconfirmed and treated as a duplicate, and stats() reports exact == false.
+
+    */
+
+    public Deduplicator(final Object keyField,
+                        final long expectedRecords,
+                        final double falsePositiveRate,
+                        final long maxBytes) {
+
+        this.keyField = keyField;
+
+        this.bloomFilter = new BloomFilter(expectedRecords, falsePositiveRate);
+
+        this.keySet = new OffHeapKeySet(Math.max(0, (maxBytes - bloomFilter.memoryBytes())));
+
+    }
+
+    /*
+
+    Returns true the first time a record's key is seen. Records that are not
+    objects, or that have no value for the key field, always pass.
+
+    */
+
+    @Override
+    public synchronized boolean test(final Object json) {
+
+        if (closed) {
+
+            throw new IllegalStateException("closed");
+
+        }
+
+        records++;
+
+        if (!(json instanceof Map<?, ?> map)) {
+
+            return true;
+
+        }
+
+        final Object value = map.get(keyField);
+
+        if (value == null) {
+
+            return true;
+
+        }
+
+        final byte[] key = value.toString().getBytes(StandardCharsets.UTF_8);
+
+        final long hash = KeyHash.hash(key);
+
+        if (!bloomFilter.mightContain(hash)) {
+
+            bloomFilter.put(hash);
+
+            remember(hash, key);
+
+            return true;
+
+        }
+
+        if (keySet.contains(hash, key)) {
+
+            duplicates++;
+
+            return false;
+
+        }
+
+        if (!exact) {
+
+            unconfirmed++;
+
+            duplicates++;
+
+            return false;
+
+        }
+
+        remember(hash, key);
+
+        return true;
+    }
+
+    public Consumer<Object> filter(final Consumer<Object> consumer) {
+
+        return json -> {
+
+            if (test(json)) {
+
+                consumer.accept(json);
+
+            }
+
+        };
+    }
+
+    public synchronized Stats stats() {
+
+        return new Stats(records, duplicates, unconfirmed, keySet.size(),
+                (bloomFilter.memoryBytes() + keySet.memoryBytes()), exact);
+    }
+
+    @Override
+    public synchronized void close() {
+
+        closed = true;
+
+        keySet.clear();
+
+    }
+
+    private void remember(final long hash, final byte[] key) {
+
+        if (exact && !keySet.add(hash, key)) {
+
+            exact = false;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.catalyst.dedup;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+public final class KeyHash {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    /*
+
+    A word-at-a-time 64-bit hash: eight bytes are folded in per step and the
+    result goes through the murmur3 finalizer, so both halves are usable as
+    independent 32-bit hashes.
+
+    */
+
+    public static long hash(final byte[] bytes, final int offset, final int length) {
+
+        long hash = (length * MULTIPLIER);
+
+        int i = offset;
+
+        final int end = (offset + length);
+
+        for (; (i + 8) <= end; i += 8) {
+
+            hash = Long.rotateLeft((hash ^ ((long) LONGS.get(bytes, i) * MULTIPLIER)), 31) * MULTIPLIER;
+
+        }
+
+        long tail = 0;
+
+        for (int shift = 0; i < end; i++, shift += 8) {
+
+            tail |= (bytes[i] & 0xffL) << shift;
+
+        }
+
+        hash ^= (tail * MULTIPLIER);
+
+        return mix(hash);
+    }
+
+    public static long hash(final byte[] bytes) {
+
+        return hash(bytes, 0, bytes.length);
+    }
+
+    private static long mix(final long value) {
+
+        long h = value;
+
+        h ^= (h >>> 33);
+
+        h *= 0xff51afd7ed558ccdL;
+
+        h ^= (h >>> 33);
+
+        h *= 0xc4ceb9fe1a85ec53L;
+
+        h ^= (h >>> 33);
+
+        return h;
+    }
+
+    private KeyHash() { }
+
+}
@@ -0,0 +1,279 @@
+package org.catalyst.dedup;
+
+import org.catalyst.io.DirectBuffers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+
+An exact set of byte-string keys kept outside the Java heap. The table is open
+addressing with linear probing over 16-byte slots (hash, arena offset + 1); the
+keys themselves are appended to direct-buffer chunks as [int length][bytes].
+The first table takes at most a quarter of maxBytes; a budget too small for
+even MIN_CAPACITY slots gets no table, and every add() fails.
+
+Growing holds the old and the new table at once, so it is refused unless both
+fit in maxBytes next to the keys. Tables and chunks that are let go of are
+freed right away (see DirectBuffers), so the memory in use stays within the
+budget instead of waiting for the garbage collector.
+
+*/
+
+final class OffHeapKeySet {
+
+    private static final int SLOT = 16;
+
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final long maxBytes;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    private ByteBuffer table;
+
+    private long capacity;
+
+    private long size;
+
+    private long arenaBytes;
+
+    OffHeapKeySet(final long maxBytes) {
+
+        this.maxBytes = maxBytes;
+
+        capacity = INITIAL_CAPACITY;
+
+        while ((capacity > MIN_CAPACITY) && ((capacity * SLOT) > (maxBytes / 4))) {
+
+            capacity >>>= 1;
+
+        }
+
+        if ((capacity * SLOT) > maxBytes) {
+
+            capacity = 0;
+
+            return;
+
+        }
+
+        table = ByteBuffer.allocateDirect((int) (capacity * SLOT));
+
+    }
+
+    long size() {
+
+        return size;
+    }
+
+    long memoryBytes() {
+
+        return (capacity * SLOT) + arenaBytes;
+    }
+
+    boolean contains(final long hash, final byte[] key) {
+
+        if (table == null) {
+
+            return false;
+
+        }
+
+        long slot = (hash & (capacity - 1));
+
+        while (true) {
+
+            final int at = (int) (slot * SLOT);
+
+            final long offset = table.getLong(at + 8);
+
+            if (offset == 0) {
+
+                return false;
+
+            }
+
+            if ((table.getLong(at) == hash) && matches(offset - 1, key)) {
+
+                return true;
+
+            }
+
+            slot = ((slot + 1) & (capacity - 1));
+
+        }
+
+    }
+
+    /*
+
+    Returns false without inserting when the key would not fit in the budget.
+
+    */
+
+    boolean add(final long hash, final byte[] key) {
+
+        if (table == null) {
+
+            return false;
+
+        }
+
+        if (((size + 1) * 2) > capacity) {
+
+            if (!grow()) {
+
+                return false;
+
+            }
+
+        }
+
+        final long offset = append(key);
+
+        if (offset < 0) {
+
+            return false;
+
+        }
+
+        long slot = (hash & (capacity - 1));
+
+        while (table.getLong((int) (slot * SLOT) + 8) != 0) {
+
+            slot = ((slot + 1) & (capacity - 1));
+
+        }
+
+        table.putLong((int) (slot * SLOT), hash);
+
+        table.putLong((int) (slot * SLOT) + 8, offset + 1);
+
+        size++;
+
+        return true;
+    }
+
+    void clear() {
+
+        chunks.forEach(DirectBuffers::free);
+
+        chunks.clear();
+
+        DirectBuffers.free(table);
+
+        table = null;
+
+        capacity = 0;
+
+        size = 0;
+
+        arenaBytes = 0;
+
+    }
+
+    private boolean grow() {
+
+        final long newCapacity = (capacity * 2);
+
+        if (((newCapacity * SLOT) > Integer.MAX_VALUE)
+                || (((capacity * SLOT) + (newCapacity * SLOT) + arenaBytes) > maxBytes)) {
+
+            return false;
+
+        }
+
+        final ByteBuffer newTable = ByteBuffer.allocateDirect((int) (newCapacity * SLOT));
+
+        for (long slot = 0; slot < capacity; slot++) {
+
+            final int at = (int) (slot * SLOT);
+
+            final long offset = table.getLong(at + 8);
+
+            if (offset == 0) {
+
+                continue;
+
+            }
+
+            final long hash = table.getLong(at);
+
+            long target = (hash & (newCapacity - 1));
+
+            while (newTable.getLong((int) (target * SLOT) + 8) != 0) {
+
+                target = ((target + 1) & (newCapacity - 1));
+
+            }
+
+            newTable.putLong((int) (target * SLOT), hash);
+
+            newTable.putLong((int) (target * SLOT) + 8, offset);
+
+        }
+
+        DirectBuffers.free(table);
+
+        table = newTable;
+
+        capacity = newCapacity;
+
+        return true;
+    }
+
+    private long append(final byte[] key) {
+
+        final int needed = (4 + key.length);
+
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+
+        if ((chunk == null) || (chunk.remaining() < needed)) {
+
+            final int chunkSize = (int) Math.max(Math.min(CHUNK_SIZE, (maxBytes >>> 4)), needed);
+
+            if (((capacity * SLOT) + arenaBytes + chunkSize) > maxBytes) {
+
+                return -1;
+
+            }
+
+            chunk = ByteBuffer.allocateDirect(chunkSize);
+
+            chunks.add(chunk);
+
+            arenaBytes += chunkSize;
+
+        }
+
+        final long offset = (((long) (chunks.size() - 1) << 32) | chunk.position());
+
+        chunk.putInt(key.length);
+
+        chunk.put(key);
+
+        return offset;
+    }
+
+    private boolean matches(final long offset, final byte[] key) {
+
+        final ByteBuffer chunk = chunks.get((int) (offset >>> 32));
+
+        final int at = (int) offset;
+
+        if (chunk.getInt(at) != key.length) {
+
+            return false;
+
+        }
+
+        return (chunk.slice((at + 4), key.length).mismatch(ByteBuffer.wrap(key)) < 0);
+    }
+
+}
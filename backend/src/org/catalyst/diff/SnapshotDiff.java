@@ -0,0 +1,660 @@
+package org.catalyst.diff;
+
+import org.catalyst.io.CompressedInput;
+import org.catalyst.json.RecordReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*
+
+Compares two snapshots of the same records, e.g. yesterday's and today's scrape,
+keyed by one field, without holding either of them in memory. Each side is read
+a record at a time (see RecordReader) and sorted by key in runs of at most half
+of memoryBytes; a run that fills up is written to a temporary file. The runs of
+each side are then merged, and the two sides joined, in key order, so changes
+are reported in key order too. At most fanIn runs of a side are read at once;
+a side with more is first merged in passes, fanIn runs into one, so the read
+buffers stay within memoryBytes however large the snapshots are.
+
+Records are compared as parsed values, so key order and whitespace inside a
+record do not make it changed; records with identical bytes are not parsed at
+all. Records that are not objects or have no value for the key field are
+counted as unkeyed and skipped. A key that occurs more than once on a side is
+paired up with the other side's occurrences in file order.
+
+*/
+
+public final class SnapshotDiff {
+
+    public enum Change {
+
+        ADDED,
+
+        REMOVED,
+
+        CHANGED
+
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+
+        // before is null for ADDED records, after for REMOVED ones
+        void change(Change change, String key, Object before, Object after);
+
+    }
+
+    public record Stats(long added,
+                        long removed,
+                        long changed,
+                        long unchanged,
+                        long unkeyed,
+                        int spilledRuns) { }
+
+    private static final long DEFAULT_MEMORY_BYTES = 256L * 1024 * 1024;
+
+    // estimated heap cost of a buffered record besides its bytes
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final int MIN_BUFFER_SIZE = 8 * 1024;
+
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int MAX_FAN_IN = 64;
+
+    // both sides' runs at the smallest fan-in, with the smallest buffers, in half of the budget
+    private static final long MIN_MEMORY_BYTES = (2L * 2 * 2 * MIN_BUFFER_SIZE);
+
+    private static final Comparator<Entry> BY_KEY = (entry1, entry2) -> Arrays.compareUnsigned(entry1.key, entry2.key);
+
+    private final Object keyField;
+
+    private final long memoryBytes;
+
+    private final Path spillDirectory;
+
+    // runs of a side read at once
+    private final int fanIn;
+
+    // of each run read or written; fanIn of them per side take half of memoryBytes
+    private final int bufferSize;
+
+    private long added;
+
+    private long removed;
+
+    private long changed;
+
+    private long unchanged;
+
+    private long unkeyed;
+
+    private SnapshotDiff(final Object keyField, final long memoryBytes, final Path spillDirectory) {
+
+        this.keyField = keyField;
+
+        this.memoryBytes = memoryBytes;
+
+        this.spillDirectory = spillDirectory;
+
+        this.fanIn = (int) Math.min(MAX_FAN_IN, ((memoryBytes / 2) / (2L * MIN_BUFFER_SIZE)));
+
+        this.bufferSize = (int) Math.min(MAX_BUFFER_SIZE, ((memoryBytes / 2) / (2L * fanIn)));
+
+    }
+
+    public static Stats diff(final Path before,
+                             final Path after,
+                             final Object keyField,
+                             final Listener listener) throws IOException {
+
+        return diff(before, after, keyField, DEFAULT_MEMORY_BYTES, Path.of(System.getProperty("java.io.tmpdir")), listener);
+    }
+
+    public static Stats diff(final Path before,
+                             final Path after,
+                             final Object keyField,
+                             final long memoryBytes,
+                             final Path spillDirectory,
+                             final Listener listener) throws IOException {
+
+        if (memoryBytes < MIN_MEMORY_BYTES) {
+
+            throw new IllegalArgumentException("memoryBytes must be at least " + MIN_MEMORY_BYTES + ": " + memoryBytes);
+
+        }
+
+        final SnapshotDiff snapshotDiff = new SnapshotDiff(keyField, memoryBytes, spillDirectory);
+
+        try (final Side beforeSide = snapshotDiff.sort(before);
+             final Side afterSide = snapshotDiff.sort(after)) {
+
+            final int spilledRuns = (beforeSide.paths.size() + afterSide.paths.size());
+
+            // the merge passes and the join read from the half of the budget not held by an unspilled side
+            snapshotDiff.merge(beforeSide);
+
+            snapshotDiff.merge(afterSide);
+
+            beforeSide.open(snapshotDiff.bufferSize);
+
+            afterSide.open(snapshotDiff.bufferSize);
+
+            snapshotDiff.join(beforeSide, afterSide, listener);
+
+            return new Stats(snapshotDiff.added, snapshotDiff.removed, snapshotDiff.changed,
+                    snapshotDiff.unchanged, snapshotDiff.unkeyed, spilledRuns);
+
+        }
+
+    }
+
+    private Side sort(final Path path) throws IOException {
+
+        final Side side = new Side();
+
+        final long runBytes = (memoryBytes / 2);
+
+        final RecordReader recordReader = new RecordReader();
+
+        final RecordReader.Handler handler = (start, bytes, offset, length) -> {
+
+            // only objects have keys; the parser would not take a top-level scalar anyway
+            final byte[] key = (bytes[offset] == '{') ? key(RecordReader.parse(bytes, offset, length)) : null;
+
+            if (key == null) {
+
+                unkeyed++;
+
+                return;
+
+            }
+
+            side.entries.add(new Entry(key, Arrays.copyOfRange(bytes, offset, (offset + length))));
+
+            side.entryBytes += (key.length + length + ENTRY_OVERHEAD);
+
+            if (side.entryBytes >= runBytes) {
+
+                spill(side);
+
+            }
+
+        };
+
+        try (final ReadableByteChannel channel = Channels.newChannel(CompressedInput.open(path))) {
+
+            recordReader.reset(0);
+
+            recordReader.read(channel, handler);
+
+            recordReader.finish(handler);
+
+            if (!side.paths.isEmpty() && !side.entries.isEmpty()) {
+
+                // a side that spilled at all is merged from files only
+                spill(side);
+
+            }
+
+            side.entries.sort(BY_KEY);
+
+        } catch (final UncheckedIOException exception) {
+
+            side.close();
+
+            throw exception.getCause();
+
+        } catch (final IOException | RuntimeException exception) {
+
+            side.close();
+
+            throw exception;
+
+        }
+
+        return side;
+    }
+
+    private byte[] key(final Object record) {
+
+        if (!(record instanceof Map<?, ?> map)) {
+
+            return null;
+
+        }
+
+        final Object value = map.get(keyField);
+
+        return (value == null) ? null : value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void spill(final Side side) {
+
+        side.entries.sort(BY_KEY);
+
+        try {
+
+            // listed first so that Side.close() deletes it if writing fails
+            final Path path = Files.createTempFile(spillDirectory, "diff-run", ".bin");
+
+            side.paths.add(path);
+
+            side.counts.add(side.entries.size());
+
+            try (final DataOutputStream output = output(path)) {
+
+                for (final Entry entry : side.entries) {
+
+                    write(output, entry.key, entry.record);
+
+                }
+
+            }
+
+        } catch (final IOException exception) {
+
+            throw new UncheckedIOException(exception);
+
+        }
+
+        side.entries.clear();
+
+        side.entryBytes = 0;
+
+    }
+
+    /*
+
+    Merges the runs of side in passes until at most fanIn are left. Each pass
+    merges consecutive runs, so ties keep going to the earlier run.
+
+    */
+
+    private void merge(final Side side) throws IOException {
+
+        while (side.paths.size() > fanIn) {
+
+            final List<Path> paths = new ArrayList<>();
+
+            final List<Integer> counts = new ArrayList<>();
+
+            try {
+
+                for (int first = 0; first < side.paths.size(); first += fanIn) {
+
+                    final int last = Math.min((first + fanIn), side.paths.size());
+
+                    if ((last - first) == 1) {
+
+                        paths.add(side.paths.get(first));
+
+                        counts.add(side.counts.get(first));
+
+                        continue;
+
+                    }
+
+                    final Path path = Files.createTempFile(spillDirectory, "diff-run", ".bin");
+
+                    paths.add(path);
+
+                    int count = 0;
+
+                    // closing the group deletes its runs
+                    try (final Side group = new Side();
+                         final DataOutputStream output = output(path)) {
+
+                        group.paths.addAll(side.paths.subList(first, last));
+
+                        group.counts.addAll(side.counts.subList(first, last));
+
+                        group.open(bufferSize);
+
+                        while (group.advance()) {
+
+                            write(output, group.key, group.record);
+
+                            count++;
+
+                        }
+
+                    }
+
+                    counts.add(count);
+
+                }
+
+            } catch (final IOException | RuntimeException exception) {
+
+                for (final Path path : paths) {
+
+                    Files.deleteIfExists(path);
+
+                }
+
+                throw exception;
+
+            }
+
+            side.paths.clear();
+
+            side.paths.addAll(paths);
+
+            side.counts.clear();
+
+            side.counts.addAll(counts);
+
+        }
+
+    }
+
+    private DataOutputStream output(final Path path) throws IOException {
+
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), bufferSize));
+    }
+
+    private static void write(final DataOutputStream output, final byte[] key, final byte[] record) throws IOException {
+
+        output.writeInt(key.length);
+
+        output.write(key);
+
+        output.writeInt(record.length);
+
+        output.write(record);
+
+    }
+
+    private void join(final Cursor before, final Cursor after, final Listener listener) throws IOException {
+
+        boolean hasBefore = before.advance();
+
+        boolean hasAfter = after.advance();
+
+        while (hasBefore || hasAfter) {
+
+            final int order = !hasBefore ? 1 : !hasAfter ? -1 : Arrays.compareUnsigned(before.key, after.key);
+
+            if (order < 0) {
+
+                removed++;
+
+                listener.change(Change.REMOVED, key(before), parse(before), null);
+
+                hasBefore = before.advance();
+
+            } else if (order > 0) {
+
+                added++;
+
+                listener.change(Change.ADDED, key(after), null, parse(after));
+
+                hasAfter = after.advance();
+
+            } else {
+
+                if (Arrays.equals(before.record, after.record)) {
+
+                    unchanged++;
+
+                } else {
+
+                    final Object beforeRecord = parse(before);
+
+                    final Object afterRecord = parse(after);
+
+                    if (beforeRecord.equals(afterRecord)) {
+
+                        unchanged++;
+
+                    } else {
+
+                        changed++;
+
+                        listener.change(Change.CHANGED, key(before), beforeRecord, afterRecord);
+
+                    }
+
+                }
+
+                hasBefore = before.advance();
+
+                hasAfter = after.advance();
+
+            }
+
+        }
+
+    }
+
+    private static String key(final Cursor cursor) {
+
+        return new String(cursor.key, StandardCharsets.UTF_8);
+    }
+
+    private static Object parse(final Cursor cursor) {
+
+        return RecordReader.parse(cursor.record, 0, cursor.record.length);
+    }
+
+    private record Entry(byte[] key, byte[] record) { }
+
+    /*
+
+    A stream of (key, record) pairs in key order. advance() moves to the next pair
+    and returns false at the end.
+
+    */
+
+    private abstract static class Cursor implements Closeable {
+
+        protected byte[] key;
+
+        protected byte[] record;
+
+        // position among the runs of a side, for ties
+        protected int order;
+
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() throws IOException {
+
+        }
+
+    }
+
+    private static final class MemoryRun extends Cursor {
+
+        private final List<Entry> entries;
+
+        private int index;
+
+        private MemoryRun(final List<Entry> entries) {
+
+            this.entries = entries;
+
+        }
+
+        @Override
+        boolean advance() {
+
+            if (index == entries.size()) {
+
+                return false;
+
+            }
+
+            final Entry entry = entries.get(index++);
+
+            key = entry.key;
+
+            record = entry.record;
+
+            return true;
+        }
+
+    }
+
+    private static final class FileRun extends Cursor {
+
+        private final DataInputStream input;
+
+        private int remaining;
+
+        private FileRun(final Path path, final int count, final int bufferSize) throws IOException {
+
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), bufferSize));
+
+            this.remaining = count;
+
+        }
+
+        @Override
+        boolean advance() throws IOException {
+
+            if (remaining == 0) {
+
+                return false;
+
+            }
+
+            remaining--;
+
+            key = input.readNBytes(input.readInt());
+
+            record = input.readNBytes(input.readInt());
+
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            input.close();
+
+        }
+
+    }
+
+    /*
+
+    One snapshot: either its sorted entries in memory or its runs on disk, merged
+    with ties going to the earlier run so duplicate keys stay in file order.
+
+    */
+
+    private static final class Side extends Cursor {
+
+        private final List<Entry> entries = new ArrayList<>();
+
+        private long entryBytes;
+
+        private final List<Path> paths = new ArrayList<>();
+
+        private final List<Integer> counts = new ArrayList<>();
+
+        private final List<Cursor> runs = new ArrayList<>();
+
+        private final PriorityQueue<Cursor> queue = new PriorityQueue<>((cursor1, cursor2) -> {
+
+            final int order = Arrays.compareUnsigned(cursor1.key, cursor2.key);
+
+            return (order != 0) ? order : Integer.compare(cursor1.order, cursor2.order);
+
+        });
+
+        private Cursor current;
+
+        private void open(final int bufferSize) throws IOException {
+
+            if (paths.isEmpty()) {
+
+                runs.add(new MemoryRun(entries));
+
+            }
+
+            for (int i = 0; i < paths.size(); i++) {
+
+                runs.add(new FileRun(paths.get(i), counts.get(i), bufferSize));
+
+            }
+
+            for (int i = 0; i < runs.size(); i++) {
+
+                final Cursor run = runs.get(i);
+
+                run.order = i;
+
+                if (run.advance()) {
+
+                    queue.add(run);
+
+                }
+
+            }
+
+        }
+
+        @Override
+        boolean advance() throws IOException {
+
+            if ((current != null) && current.advance()) {
+
+                queue.add(current);
+
+            }
+
+            current = queue.poll();
+
+            if (current == null) {
+
+                return false;
+
+            }
+
+            key = current.key;
+
+            record = current.record;
+
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            for (final Cursor run : runs) {
+
+                run.close();
+
+            }
+
+            for (final Path path : paths) {
+
+                Files.deleteIfExists(path);
+
+            }
+
+        }
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,63 @@
+package org.catalyst.extract;
+
+import java.util.List;
+import java.util.Locale;
+
+/*
+
+A column of a TableExporter: the value at path in each record, e.g.
+["user", "name"] or ["tags", "0"] (a key of an object or an index of a list),
+put through normalizer first. A record without the path leaves the cell empty.
+
+*/
+
+public record ExportColumn(String name, List<String> path, Normalizer normalizer) {
+
+    @FunctionalInterface
+    public interface Normalizer {
+
+        // value is a String (or CharSequence), Double, Boolean, Map or List; never null
+        Object normalize(Object value);
+
+    }
+
+    public static final Normalizer AS_IS = value -> value;
+
+    // like Extractor prints values: on one line, trimmed
+    public static final Normalizer FLATTENED = value -> (value instanceof CharSequence text)
+            ? text.toString().replace("\n", "").trim()
+            : value;
+
+    public static final Normalizer LOWER_CASE = value -> (value instanceof CharSequence text)
+            ? text.toString().toLowerCase(Locale.ROOT)
+            : value;
+
+    public ExportColumn {
+
+        if (path.isEmpty()) {
+
+            throw new IllegalArgumentException("empty path for column " + name);
+
+        }
+
+        path = List.copyOf(path);
+
+    }
+
+    // a dotted path, e.g. "user.name"; named after it
+    public static ExportColumn of(final String path) {
+
+        return of(path, path, AS_IS);
+    }
+
+    public static ExportColumn of(final String name, final String path) {
+
+        return of(name, path, AS_IS);
+    }
+
+    public static ExportColumn of(final String name, final String path, final Normalizer normalizer) {
+
+        return new ExportColumn(name, List.of(path.split("\\.", -1)), normalizer);
+    }
+
+}
\ No newline at end of file
@@ -1,20 +1,20 @@
 package org.catalyst.extract;
 
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
 
 public final class Extractor {
     
-    private static final Pattern SANITIZER = Pattern.compile("\\\\n");
-    
     private static void use(final Object json,
-                            final int indentLevel) {
+                            final int indentLevel,
+                            final Consumer<String> out) {
         
-        final Consumer<Object> println = object -> System.out.println("    ".repeat(indentLevel) + SANITIZER
-                .matcher(object.toString())
-                .replaceAll(matchResult -> "")
+        // strings come decoded, so a \n in the page is a real line break here
+        final Consumer<Object> println = object -> out.accept("    ".repeat(indentLevel) + object
+                .toString()
+                .replace("\n", "")
                 .trim());
         
         if (json instanceof Map<?,?> map) {
@@ -23,13 +23,13 @@ public final class Extractor {
 
                 println.accept(object1);
                 
-                use(object2, indentLevel + 1);
+                use(object2, indentLevel + 1, out);
                 
             });
             
         } else if (json instanceof List<?> list) {
             
-            list.forEach(object -> use(object, indentLevel));
+            list.forEach(object -> use(object, indentLevel, out));
             
         } else {
             
@@ -41,7 +41,7 @@ public final class Extractor {
     
     private static void use(final Object json) {
         
-        use(json, 0);
+        use(json, 0, System.out::println);
         
     }
     
@@ -51,6 +51,26 @@ public final class Extractor {
         
     }
     
+    public static void extract(final Object json, final Consumer<String> out) {
+        
+        use(json, 0, out);
+        
+    }
+    
+    /*
+
+    The compiled counterpart of extract for flat output: the columns are
+    resolved once and every record after that becomes a row (see TableExporter).
+
+    */
+
+    public static TableExporter table(final List<ExportColumn> columns,
+                                      final TableExporter.Format format,
+                                      final OutputStream outputStream) {
+        
+        return new TableExporter(columns, format, outputStream);
+    }
+    
     private Extractor() { }
     
 }
\ No newline at end of file
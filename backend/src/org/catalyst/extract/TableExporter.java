@@ -0,0 +1,597 @@
+package org.catalyst.extract;
+
+import org.catalyst.json.ByteFormat;
+import org.catalyst.json.JSONWriter;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/*
+
+Writes records (as JSONParser returns them) as the rows of a CSV or TSV table,
+a cell per ExportColumn. The column paths are compiled once into a tree of
+steps, paths sharing a prefix sharing its steps, so a record costs one get()
+per step and nothing else: no path is split, matched or looked up again.
+
+CSV follows RFC 4180: a cell holding the delimiter, a quote or a line break is
+quoted, with quotes doubled, and rows end in CRLF. TSV cannot quote, so a tab,
+line break or backslash in a cell is written as \t, \n, \r or \\ instead.
+
+Numbers are written like JSONWriter writes them, a Map or List as its JSON, and
+null or a missing value as an empty cell.
+
+*/
+
+public final class TableExporter implements Flushable, Closeable {
+
+    public enum Format {
+
+        CSV((byte) ',', new byte[] { '\r', '\n' }),
+
+        TSV((byte) '\t', new byte[] { '\n' });
+
+        private final byte delimiter;
+
+        private final byte[] rowEnd;
+
+        Format(final byte delimiter, final byte[] rowEnd) {
+
+            this.delimiter = delimiter;
+
+            this.rowEnd = rowEnd;
+
+        }
+
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    // ASCII chars that are quoted in CSV or escaped in TSV, the delimiter of the other format aside
+    private static final boolean[] SPECIAL = new boolean[128];
+
+    static {
+
+        for (final char c : new char[] { '"', '\\', '\t', '\n', '\r' }) {
+
+            SPECIAL[c] = true;
+
+        }
+
+    }
+
+    /*
+
+    One key or index of the paths, reached from its parent's value. columns are
+    the columns whose path ends here.
+
+    */
+
+    private static final class Step {
+
+        private final String key;
+
+        // key as a list index, -1 if it is not one
+        private final int index;
+
+        private final List<Step> pending = new ArrayList<>();
+
+        private final List<Integer> pendingColumns = new ArrayList<>();
+
+        private Step[] children;
+
+        private int[] columns;
+
+        private Step(final String key) {
+
+            this.key = key;
+
+            this.index = index(key);
+
+        }
+
+        private Step child(final String childKey) {
+
+            for (final Step step : pending) {
+
+                if (step.key.equals(childKey)) {
+
+                    return step;
+
+                }
+
+            }
+
+            final Step step = new Step(childKey);
+
+            pending.add(step);
+
+            return step;
+        }
+
+        private void freeze() {
+
+            children = pending.toArray(new Step[0]);
+
+            columns = pendingColumns.stream().mapToInt(Integer::intValue).toArray();
+
+            for (final Step child : children) {
+
+                child.freeze();
+
+            }
+
+        }
+
+        private Object select(final Object value) {
+
+            if (value instanceof Map<?, ?> map) {
+
+                return map.get(key);
+
+            }
+
+            if ((index >= 0) && (value instanceof List<?> list)) {
+
+                return (index < list.size()) ? list.get(index) : null;
+
+            }
+
+            return null;
+        }
+
+        private static int index(final String key) {
+
+            if (key.isEmpty() || (key.length() > 9)) {
+
+                return -1;
+
+            }
+
+            int index = 0;
+
+            for (int i = 0; i < key.length(); i++) {
+
+                final char c = key.charAt(i);
+
+                if ((c < '0') || (c > '9')) {
+
+                    return -1;
+
+                }
+
+                index = ((index * 10) + (c - '0'));
+
+            }
+
+            return index;
+        }
+
+    }
+
+    private final ExportColumn[] columns;
+
+    private final Format format;
+
+    private final Step root = new Step("");
+
+    private final Object[] values;
+
+    private final JSONWriter jsonWriter = new JSONWriter();
+
+    private final OutputStream outputStream;
+
+    private byte[] buffer;
+
+    private int position;
+
+    private long rows;
+
+    public TableExporter(final List<ExportColumn> columns, final Format format, final OutputStream outputStream) {
+
+        this(columns, format, outputStream, DEFAULT_BUFFER_SIZE);
+
+    }
+
+    public TableExporter(final List<ExportColumn> columns,
+                         final Format format,
+                         final OutputStream outputStream,
+                         final int bufferSize) {
+
+        if (columns.isEmpty()) {
+
+            throw new IllegalArgumentException("no columns");
+
+        }
+
+        this.columns = columns.toArray(new ExportColumn[0]);
+
+        this.format = format;
+
+        this.outputStream = outputStream;
+
+        this.buffer = new byte[Math.max(bufferSize, 64)];
+
+        this.values = new Object[this.columns.length];
+
+        for (int i = 0; i < this.columns.length; i++) {
+
+            Step step = root;
+
+            for (final String key : this.columns[i].path()) {
+
+                step = step.child(key);
+
+            }
+
+            step.pendingColumns.add(i);
+
+        }
+
+        root.freeze();
+
+    }
+
+    // rows written so far, not counting the header
+    public long rows() {
+
+        return rows;
+    }
+
+    public TableExporter writeHeader() {
+
+        for (int i = 0; i < columns.length; i++) {
+
+            if (i > 0) {
+
+                byteOut(format.delimiter);
+
+            }
+
+            text(columns[i].name());
+
+        }
+
+        raw(format.rowEnd);
+
+        return this;
+    }
+
+    public TableExporter export(final Object record) {
+
+        Arrays.fill(values, null);
+
+        fill(root, record);
+
+        for (int i = 0; i < columns.length; i++) {
+
+            if (i > 0) {
+
+                byteOut(format.delimiter);
+
+            }
+
+            final Object value = values[i];
+
+            if (value != null) {
+
+                cell(columns[i].normalizer().normalize(value));
+
+            }
+
+        }
+
+        raw(format.rowEnd);
+
+        rows++;
+
+        return this;
+    }
+
+    @Override
+    public void flush() {
+
+        drain();
+
+        try {
+
+            outputStream.flush();
+
+        } catch (final IOException e) {
+
+            throw new UncheckedIOException(e);
+
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        flush();
+
+        outputStream.close();
+
+    }
+
+    private void fill(final Step step, final Object value) {
+
+        for (final int column : step.columns) {
+
+            values[column] = value;
+
+        }
+
+        for (final Step child : step.children) {
+
+            final Object next = child.select(value);
+
+            if (next != null) {
+
+                fill(child, next);
+
+            }
+
+        }
+
+    }
+
+    private void cell(final Object value) {
+
+        // the classes the parser returns first: a failed instanceof of an interface is slow
+        if (value instanceof String text) {
+
+            text(text);
+
+        } else if (value instanceof Double number) {
+
+            number(number);
+
+        } else if (value instanceof CharSequence text) {
+
+            text(text);
+
+        } else if (value instanceof Boolean bool) {
+
+            raw(bool ? TRUE : FALSE);
+
+        } else if ((value instanceof Long) || (value instanceof Integer)
+                || (value instanceof Short) || (value instanceof Byte)) {
+
+            digits(((Number) value).longValue());
+
+        } else if (value instanceof Number number) {
+
+            number(number.doubleValue());
+
+        } else if ((value instanceof Map<?, ?>) || (value instanceof List<?>)) {
+
+            text(new String(jsonWriter.reset(null).write(value).toByteArray(), StandardCharsets.UTF_8));
+
+        } else if (value != null) {
+
+            text(value.toString());
+
+        }
+
+    }
+
+    // NaN and infinities cannot come from JSON, but a normalizer may return them; they need no quotes either
+    private void number(final double number) {
+
+        ensure(ByteFormat.MAX_NUMBER_BYTES);
+
+        position = ByteFormat.number(number, buffer, position);
+
+    }
+
+    private void text(final CharSequence text) {
+
+        final int length = text.length();
+
+        final boolean csv = (format == Format.CSV);
+
+        final boolean quoted = csv && needsQuotes(text);
+
+        if (quoted) {
+
+            byteOut('"');
+
+        }
+
+        int i = 0;
+
+        while (i < length) {
+
+            // fast path: runs of ASCII that need no escaping are copied a byte per char
+            final int runEnd = Math.min(length, (i + (buffer.length - position)));
+
+            final byte[] run = buffer;
+
+            int at = position;
+
+            while (i < runEnd) {
+
+                final char c = text.charAt(i);
+
+                if ((c >= 0x80) || SPECIAL[c]) {
+
+                    break;
+
+                }
+
+                run[at++] = (byte) c;
+
+                i++;
+
+            }
+
+            position = at;
+
+            if (i == length) {
+
+                break;
+
+            }
+
+            final char c = text.charAt(i);
+
+            if ((c < 0x80) && !SPECIAL[c]) {
+
+                // the run stopped because the buffer was full
+                drain();
+
+                continue;
+
+            }
+
+            if (csv) {
+
+                if (c == '"') {
+
+                    byteOut('"');
+
+                }
+
+                i = character(text, i);
+
+            } else {
+
+                final byte escape = (c == '\t') ? (byte) 't' : (c == '\n') ? (byte) 'n'
+                        : (c == '\r') ? (byte) 'r' : (c == '\\') ? (byte) '\\' : 0;
+
+                if (escape != 0) {
+
+                    byteOut('\\');
+
+                    byteOut(escape);
+
+                } else {
+
+                    i = character(text, i);
+
+                }
+
+            }
+
+            i++;
+
+        }
+
+        if (quoted) {
+
+            byteOut('"');
+
+        }
+
+    }
+
+    private static boolean needsQuotes(final CharSequence text) {
+
+        for (int i = 0; i < text.length(); i++) {
+
+            final char c = text.charAt(i);
+
+            if ((c == ',') || (c == '"') || (c == '\n') || (c == '\r')) {
+
+                return true;
+
+            }
+
+        }
+
+        return false;
+    }
+
+    // writes the char at i as UTF-8, a lone surrogate as '?', and returns the index of its last char
+    private int character(final CharSequence text, final int i) {
+
+        ensure(4);
+
+        final int end = ByteFormat.character(text, i, text.length(), buffer, position);
+
+        if (end == position) {
+
+            buffer[position++] = '?';
+
+            return i;
+
+        }
+
+        final boolean pair = ((end - position) == 4);
+
+        position = end;
+
+        return pair ? (i + 1) : i;
+    }
+
+    private void digits(final long number) {
+
+        ensure(ByteFormat.MAX_NUMBER_BYTES);
+
+        position = ByteFormat.digits(number, buffer, position);
+
+    }
+
+    private void byteOut(final int b) {
+
+        ensure(1);
+
+        buffer[position++] = (byte) b;
+
+    }
+
+    private void raw(final byte[] bytes) {
+
+        ensure(bytes.length);
+
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+
+        position += bytes.length;
+
+    }
+
+    private void ensure(final int needed) {
+
+        if ((position + needed) > buffer.length) {
+
+            drain();
+
+        }
+
+    }
+
+    private void drain() {
+
+        if (position == 0) {
+
+            return;
+
+        }
+
+        try {
+
+            outputStream.write(buffer, 0, position);
+
+        } catch (final IOException e) {
+
+            throw new UncheckedIOException(e);
+
+        }
+
+        position = 0;
+
+    }
+
+}
\ No newline at end of file
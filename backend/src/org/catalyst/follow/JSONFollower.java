@@ -0,0 +1,630 @@
+package org.catalyst.follow;
+
+import org.catalyst.json.RecordReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+public final class JSONFollower implements Runnable, Closeable {
+
+    @FunctionalInterface
+    public interface ErrorSink {
+
+        // a record of file that does not parse: offset and length are its bytes in the file
+        void error(Path file, long offset, long length, String message);
+
+    }
+
+    // what the constructors without a sink report to
+    private static final ErrorSink STANDARD_ERROR = (file, offset, length, message) ->
+            System.err.println(file + " at " + offset + " (" + length + " bytes): " + message);
+
+    private static final long DEFAULT_POLL_MILLIS = 100;
+
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final Path path;
+
+    private final Consumer<Object> consumer;
+
+    private final ErrorSink errorSink;
+
+    private final boolean fromStart;
+
+    private final long pollMillis;
+
+    // by file key, so that a file renamed by rotation keeps its tail
+    private final Map<Object, Tail> tails = new HashMap<>();
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_SIZE);
+
+    private volatile boolean closed;
+
+    // created up front so that close() always sees it, or null to poll instead
+    private final WatchService watchService;
+
+    public JSONFollower(final Path path,
+                        final Consumer<Object> consumer) {
+
+        this(path, consumer, true, DEFAULT_POLL_MILLIS);
+
+    }
+
+    public JSONFollower(final Path path,
+                        final Consumer<Object> consumer,
+                        final boolean fromStart,
+                        final long pollMillis) {
+
+        this(path, consumer, STANDARD_ERROR, fromStart, pollMillis);
+
+    }
+
+    public JSONFollower(final Path path,
+                        final Consumer<Object> consumer,
+                        final ErrorSink errorSink,
+                        final boolean fromStart,
+                        final long pollMillis) {
+
+        this.path = path;
+
+        this.consumer = consumer;
+
+        this.errorSink = errorSink;
+
+        this.fromStart = fromStart;
+
+        this.pollMillis = pollMillis;
+
+        this.watchService = watch(Files.isDirectory(path) ? path : path.toAbsolutePath().getParent());
+
+    }
+
+    /*
+
+    Follows path on a thread of its own, started by the first subscriber. The
+    follower stops once the publisher is closed or every subscriber has
+    cancelled, and the publisher is closed once the follower stops.
+
+    */
+
+    public static SubmissionPublisher<Object> publisher(final Path path) {
+
+        return new FollowingPublisher(path);
+    }
+
+    /*
+
+    Follows until closed. A record that does not parse goes to the error sink
+    and following goes on with the next one. run() closes the follower on the
+    way out, also when it fails, so a follower runs once.
+
+    */
+
+    @Override
+    public void run() {
+
+        if (closed) {
+
+            return;
+
+        }
+
+        try {
+
+            refresh(!fromStart);
+
+            while (!closed) {
+
+                await();
+
+                refresh(false);
+
+            }
+
+        } catch (final IOException e) {
+
+            if (!closed) {
+
+                throw new UncheckedIOException(e);
+
+            }
+
+        } finally {
+
+            closeTails();
+
+            closeUnchecked();
+
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        closed = true;
+
+        if (watchService != null) {
+
+            watchService.close();
+
+        }
+
+    }
+
+    private static WatchService watch(final Path directory) {
+
+        WatchService watchService = null;
+
+        try {
+
+            watchService = directory.getFileSystem().newWatchService();
+
+            directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+
+            return watchService;
+
+        } catch (final IOException | UnsupportedOperationException e) {
+
+            if (watchService != null) {
+
+                try {
+
+                    watchService.close();
+
+                } catch (final IOException closeException) {
+
+                    // nothing to do: it is polled either way
+
+                }
+
+            }
+
+            // await() polls instead
+            return null;
+
+        }
+    }
+
+    private void closeUnchecked() {
+
+        try {
+
+            close();
+
+        } catch (final IOException e) {
+
+            throw new UncheckedIOException(e);
+
+        }
+
+    }
+
+    private void await() throws IOException {
+
+        if (watchService == null) {
+
+            sleep();
+
+            return;
+
+        }
+
+        try {
+
+            final WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+
+            if (key != null) {
+
+                key.pollEvents();
+
+                key.reset();
+
+            }
+
+        } catch (final ClosedWatchServiceException e) {
+
+            closed = true;
+
+        } catch (final InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            closed = true;
+
+        }
+
+    }
+
+    private void sleep() {
+
+        try {
+
+            Thread.sleep(pollMillis);
+
+        } catch (final InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            closed = true;
+
+        }
+
+    }
+
+    /*
+
+    Reads what was appended to each file since the last refresh. A file that
+    is gone, or rotated away in single-file mode, is read to its end through
+    the channel still open on it before its tail is closed, and before a file
+    now under its name is read from the start.
+
+    */
+
+    private void refresh(final boolean skip) throws IOException {
+
+        final Map<Object, Path> files = new HashMap<>();
+
+        if (Files.isDirectory(path)) {
+
+            try (final Stream<Path> list = Files.list(path)) {
+
+                for (final Path file : list.filter(Files::isRegularFile).toList()) {
+
+                    addFile(files, file);
+
+                }
+
+            }
+
+        } else {
+
+            addFile(files, path);
+
+        }
+
+        final Iterator<Map.Entry<Object, Tail>> iterator = tails.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+
+            final Map.Entry<Object, Tail> entry = iterator.next();
+
+            final Tail tail = entry.getValue();
+
+            final Path file = files.remove(entry.getKey());
+
+            if (file != null) {
+
+                // the same file, maybe under a new name
+                tail.path = file;
+
+            }
+
+            read(tail, skip);
+
+            if (file == null) {
+
+                tail.close();
+
+                iterator.remove();
+
+            }
+
+        }
+
+        // the files left have no tail yet
+        for (final Map.Entry<Object, Path> entry : files.entrySet()) {
+
+            final Tail tail;
+
+            try {
+
+                tail = new Tail(FileChannel.open(entry.getValue(), StandardOpenOption.READ), entry.getValue());
+
+            } catch (final NoSuchFileException e) {
+
+                // deleted since it was listed
+                continue;
+
+            }
+
+            tails.put(entry.getKey(), tail);
+
+            read(tail, skip);
+
+        }
+
+    }
+
+    // keyed by its file key, or by its path where the file system has none
+    private static void addFile(final Map<Object, Path> files, final Path file) throws IOException {
+
+        if (!Files.isRegularFile(file)) {
+
+            return;
+
+        }
+
+        final Object fileKey;
+
+        try {
+
+            fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+
+        } catch (final NoSuchFileException e) {
+
+            return;
+
+        }
+
+        files.put((fileKey != null) ? fileKey : file, file);
+
+    }
+
+    private void read(final Tail tail, final boolean skip) throws IOException {
+
+        tail.read(readBuffer, skip ? null : (start, bytes, offset, length) -> emit(tail.path, start, bytes, offset, length));
+
+    }
+
+    private void emit(final Path file, final long start, final byte[] bytes, final int offset, final int length) {
+
+        final Object record;
+
+        try {
+
+            record = RecordReader.parse(bytes, offset, length);
+
+        } catch (final RuntimeException e) {
+
+            // its brackets balance, so the scanner is past it already and the next record is intact
+            errorSink.error(file, start, length, e.getMessage());
+
+            return;
+
+        }
+
+        consumer.accept(record);
+
+    }
+
+    private void closeTails() {
+
+        tails.values().forEach(Tail::close);
+
+        tails.clear();
+
+    }
+
+    private static final class FollowingPublisher extends SubmissionPublisher<Object> {
+
+        private final JSONFollower follower;
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private final AtomicInteger subscribers = new AtomicInteger();
+
+        private FollowingPublisher(final Path path) {
+
+            this.follower = new JSONFollower(path, this::forward);
+
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super Object> subscriber) {
+
+            subscribers.incrementAndGet();
+
+            super.subscribe(new Flow.Subscriber<Object>() {
+
+                @Override
+                public void onSubscribe(final Flow.Subscription subscription) {
+
+                    subscriber.onSubscribe(new Flow.Subscription() {
+
+                        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+                        @Override
+                        public void request(final long n) {
+
+                            subscription.request(n);
+
+                        }
+
+                        @Override
+                        public void cancel() {
+
+                            subscription.cancel();
+
+                            if (cancelled.compareAndSet(false, true) && (subscribers.decrementAndGet() == 0)) {
+
+                                follower.closeUnchecked();
+
+                            }
+
+                        }
+
+                    });
+
+                }
+
+                @Override
+                public void onNext(final Object item) {
+
+                    subscriber.onNext(item);
+
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+
+                    subscriber.onError(throwable);
+
+                }
+
+                @Override
+                public void onComplete() {
+
+                    subscriber.onComplete();
+
+                }
+
+            });
+
+            if (started.compareAndSet(false, true)) {
+
+                final Thread thread = new Thread(() -> {
+
+                    try {
+
+                        follower.run();
+
+                        close();
+
+                    } catch (final RuntimeException e) {
+
+                        closeExceptionally(e);
+
+                    }
+
+                }, "json-follower");
+
+                thread.setDaemon(true);
+
+                thread.start();
+
+            }
+
+        }
+
+        @Override
+        public void close() {
+
+            follower.closeUnchecked();
+
+            super.close();
+
+        }
+
+        @Override
+        public void closeExceptionally(final Throwable error) {
+
+            follower.closeUnchecked();
+
+            super.closeExceptionally(error);
+
+        }
+
+        private void forward(final Object record) {
+
+            if (isClosed()) {
+
+                follower.closeUnchecked();
+
+                return;
+
+            }
+
+            submit(record);
+
+        }
+
+    }
+
+    private static final class Tail {
+
+        private final FileChannel channel;
+
+        private final RecordReader recordReader = new RecordReader();
+
+        // where the file was last seen, for error reports
+        private Path path;
+
+        private Tail(final FileChannel channel, final Path path) {
+
+            this.channel = channel;
+
+            this.path = path;
+
+        }
+
+        private void read(final ByteBuffer buffer, final RecordReader.Handler handler) throws IOException {
+
+            if (channel.size() < recordReader.position()) {
+
+                // truncated: start over from the beginning of the file
+
+                recordReader.reset(0);
+
+            }
+
+            channel.position(recordReader.position());
+
+            if (handler != null) {
+
+                recordReader.read(channel, handler);
+
+                return;
+
+            }
+
+            while (true) {
+
+                buffer.clear();
+
+                final int read = channel.read(buffer);
+
+                if (read <= 0) {
+
+                    break;
+
+                }
+
+                recordReader.skip(buffer.array(), 0, read);
+
+            }
+
+        }
+
+        private void close() {
+
+            try {
+
+                channel.close();
+
+            } catch (final IOException e) {
+
+                throw new UncheckedIOException(e);
+
+            }
+
+        }
+
+    }
+
+}
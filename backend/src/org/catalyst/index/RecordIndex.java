@@ -0,0 +1,440 @@
+package org.catalyst.index;
+
+import org.catalyst.dedup.KeyHash;
+import org.catalyst.io.DirectBuffers;
+import org.catalyst.json.RecordReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public final class RecordIndex implements Closeable {
+
+    /*
+
+    File layout (little endian):
+
+    header : MAGIC sourceSize sourceModified keyHash capacity count   (8 bytes each)
+    slots  : capacity x [hash, offset + 1, length, unused]             (8 bytes each)
+
+    Slots are open addressing with linear probing at a load factor of at most one
+    half. An empty slot has offset 0. The table is mapped in fixed-size segments
+    because a single mapping cannot exceed 2 GB.
+
+    */
+
+    private static final long MAGIC = 0x3130584449544143L; // "CATIDX01"
+
+    private static final int HEADER = 48;
+
+    private static final int SLOT = 32;
+
+    private static final int SEGMENT_SHIFT = 30;
+
+    private static final long SEGMENT_SIZE = (1L << SEGMENT_SHIFT);
+
+    private final Path source;
+
+    private final Path indexPath;
+
+    private final Object keyField;
+
+    private FileChannel sourceChannel;
+
+    private MappedByteBuffer[] segments;
+
+    private long capacity;
+
+    private long count;
+
+    private long sourceSize;
+
+    private long sourceModified;
+
+    private RecordIndex(final Path source, final Path indexPath, final Object keyField) {
+
+        this.source = source;
+
+        this.indexPath = indexPath;
+
+        this.keyField = keyField;
+
+    }
+
+    public static RecordIndex open(final Path source, final Object keyField) throws IOException {
+
+        return open(source, keyField, source.resolveSibling(source.getFileName() + "." + keyField + ".idx"));
+    }
+
+    public static RecordIndex open(final Path source,
+                                   final Object keyField,
+                                   final Path indexPath) throws IOException {
+
+        final RecordIndex recordIndex = new RecordIndex(source, indexPath, keyField);
+
+        recordIndex.load();
+
+        return recordIndex;
+    }
+
+    public long size() {
+
+        return count;
+    }
+
+    public Object lookup(final String key) throws IOException {
+
+        final List<Object> records = lookup(key, 1);
+
+        return records.isEmpty() ? null : records.get(0);
+    }
+
+    public List<Object> lookupAll(final String key) throws IOException {
+
+        return lookup(key, Integer.MAX_VALUE);
+    }
+
+    /*
+
+    Unmaps the index right away (see DirectBuffers) rather than once the
+    mappings are collected, so the file can be rebuilt or deleted, on Windows
+    too, and rebuilds do not pile up address space. Lookups must not run
+    concurrently with close().
+
+    */
+
+    @Override
+    public void close() throws IOException {
+
+        unmap(segments);
+
+        segments = null;
+
+        if (sourceChannel != null) {
+
+            sourceChannel.close();
+
+        }
+
+    }
+
+    private List<Object> lookup(final String key, final int limit) throws IOException {
+
+        if (isStale()) {
+
+            load();
+
+        }
+
+        final long hash = KeyHash.hash(key.getBytes(StandardCharsets.UTF_8));
+
+        final List<Object> records = new ArrayList<>();
+
+        long slot = (hash & (capacity - 1));
+
+        while (records.size() < limit) {
+
+            final long offset = slotLong(slot, 8);
+
+            if (offset == 0) {
+
+                break;
+
+            }
+
+            if (slotLong(slot, 0) == hash) {
+
+                // the hash only narrows it down: confirm on the parsed record
+                final Object record = read(offset - 1, (int) slotLong(slot, 16));
+
+                if ((record instanceof Map<?, ?> map) && key.equals(String.valueOf(map.get(keyField)))) {
+
+                    records.add(record);
+
+                }
+
+            }
+
+            slot = ((slot + 1) & (capacity - 1));
+
+        }
+
+        return records;
+    }
+
+    private Object read(final long offset, final int length) throws IOException {
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+
+            if (sourceChannel.read(buffer, (offset + buffer.position())) < 0) {
+
+                throw new RuntimeException("index out of date: " + source + " ends before offset " + offset);
+
+            }
+
+        }
+
+        return RecordReader.parse(buffer.array(), 0, length);
+    }
+
+    private boolean isStale() throws IOException {
+
+        return (Files.size(source) != sourceSize)
+                || (Files.getLastModifiedTime(source).toMillis() != sourceModified);
+    }
+
+    private void load() throws IOException {
+
+        close();
+
+        sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+
+        sourceSize = Files.size(source);
+
+        sourceModified = Files.getLastModifiedTime(source).toMillis();
+
+        if (!map()) {
+
+            build();
+
+            if (!map()) {
+
+                throw new RuntimeException("could not load index " + indexPath);
+
+            }
+
+        }
+
+    }
+
+    private boolean map() throws IOException {
+
+        if (!Files.isRegularFile(indexPath) || (Files.size(indexPath) < HEADER)) {
+
+            return false;
+
+        }
+
+        try (final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+
+            channel.read(header, 0);
+
+            if ((header.getLong(0) != MAGIC)
+                    || (header.getLong(8) != sourceSize)
+                    || (header.getLong(16) != sourceModified)
+                    || (header.getLong(24) != keyHash())) {
+
+                return false;
+
+            }
+
+            capacity = header.getLong(32);
+
+            count = header.getLong(40);
+
+            final long tableSize = (capacity * SLOT);
+
+            if (channel.size() != (HEADER + tableSize)) {
+
+                return false;
+
+            }
+
+            segments = map(channel, FileChannel.MapMode.READ_ONLY, tableSize);
+
+        }
+
+        return true;
+    }
+
+    private static MappedByteBuffer[] map(final FileChannel channel,
+                                          final FileChannel.MapMode mode,
+                                          final long tableSize) throws IOException {
+
+        final MappedByteBuffer[] table = new MappedByteBuffer[(int) ((tableSize + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+
+        for (int i = 0; i < table.length; i++) {
+
+            final long start = ((long) i << SEGMENT_SHIFT);
+
+            table[i] = channel.map(mode, (HEADER + start), Math.min(SEGMENT_SIZE, (tableSize - start)));
+
+            table[i].order(ByteOrder.LITTLE_ENDIAN);
+
+        }
+
+        return table;
+    }
+
+    private static void unmap(final MappedByteBuffer[] table) {
+
+        if (table != null) {
+
+            for (final MappedByteBuffer segment : table) {
+
+                DirectBuffers.free(segment);
+
+            }
+
+        }
+
+    }
+
+    private long slotLong(final long slot, final int field) {
+
+        return slotLong(segments, slot, field);
+    }
+
+    private static long slotLong(final MappedByteBuffer[] table, final long slot, final int field) {
+
+        final long at = ((slot * SLOT) + field);
+
+        return table[(int) (at >>> SEGMENT_SHIFT)].getLong((int) (at & (SEGMENT_SIZE - 1)));
+    }
+
+    private static void putSlotLong(final MappedByteBuffer[] table,
+                                    final long slot,
+                                    final int field,
+                                    final long value) {
+
+        final long at = ((slot * SLOT) + field);
+
+        table[(int) (at >>> SEGMENT_SHIFT)].putLong((int) (at & (SEGMENT_SIZE - 1)), value);
+
+    }
+
+    private long keyHash() {
+
+        return KeyHash.hash(String.valueOf(keyField).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void build() throws IOException {
+
+        final Entries entries = new Entries();
+
+        final RecordReader recordReader = new RecordReader();
+
+        final RecordReader.Handler handler = (start, bytes, offset, length) -> {
+
+            if (RecordReader.parse(bytes, offset, length) instanceof Map<?, ?> map) {
+
+                final Object value = map.get(keyField);
+
+                if (value != null) {
+
+                    entries.add(KeyHash.hash(value.toString().getBytes(StandardCharsets.UTF_8)), start, length);
+
+                }
+
+            }
+
+        };
+
+        recordReader.reset(0);
+
+        sourceChannel.position(0);
+
+        recordReader.read(sourceChannel, handler);
+
+        recordReader.finish(handler);
+
+        final long tableCapacity = Long.highestOneBit(Math.max(16, (entries.size * 2)) - 1) << 1;
+
+        final Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+
+        try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            final ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+
+            header.putLong(MAGIC).putLong(sourceSize).putLong(sourceModified)
+                    .putLong(keyHash()).putLong(tableCapacity).putLong(entries.size).flip();
+
+            channel.write(header, 0);
+
+            final MappedByteBuffer[] table = map(channel, FileChannel.MapMode.READ_WRITE, (tableCapacity * SLOT));
+
+            for (int i = 0; i < entries.size; i++) {
+
+                long slot = (entries.hashes[i] & (tableCapacity - 1));
+
+                while (slotLong(table, slot, 8) != 0) {
+
+                    slot = ((slot + 1) & (tableCapacity - 1));
+
+                }
+
+                putSlotLong(table, slot, 0, entries.hashes[i]);
+
+                putSlotLong(table, slot, 8, (entries.offsets[i] + 1));
+
+                putSlotLong(table, slot, 16, entries.lengths[i]);
+
+            }
+
+            for (final MappedByteBuffer segment : table) {
+
+                segment.force();
+
+            }
+
+            // before the move, which a mapping would block on Windows
+            unmap(table);
+
+        }
+
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    private static final class Entries {
+
+        private long[] hashes = new long[1024];
+
+        private long[] offsets = new long[1024];
+
+        private int[] lengths = new int[1024];
+
+        private int size;
+
+        private void add(final long hash, final long offset, final int length) {
+
+            if (size == hashes.length) {
+
+                hashes = Arrays.copyOf(hashes, (size * 2));
+
+                offsets = Arrays.copyOf(offsets, (size * 2));
+
+                lengths = Arrays.copyOf(lengths, (size * 2));
+
+            }
+
+            hashes[size] = hash;
+
+            offsets[size] = offset;
+
+            lengths[size] = length;
+
+            size++;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,646 @@
+package org.catalyst.ingest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.catalyst.io.CompressedInput;
+import org.catalyst.json.JSONWriter;
+import org.catalyst.json.RecordReader;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+
+An embeddable HTTP endpoint that takes batches of records: each POST to /ingest
+has a body of records (see RecordScanner), gzip compressed or not, which is
+parsed one record at a time as it arrives and handed to the sink. A request is
+answered with {"records": n} once its last record has been handed over, or with
+an error and the number of records handed over before it. GET /stats returns the
+counters as JSON.
+
+Every request runs on a virtual thread, and the sink is called by many of them
+at once. Two limits keep a slow sink or a large batch from piling up work:
+
+- a request body larger than maxRequestBytes (after inflating) is refused with
+  413, up front when its Content-Length says so;
+- at most maxInFlightRecords records are inside sink calls at a time. A request
+  waits for one to finish before handing over its next record and meanwhile
+  reads no more of its body, so TCP pushes back on the client. One that waits
+  longer than acquireTimeoutMillis is answered with 503 and Retry-After.
+
+A body that cannot be read, e.g. gzip cut off or corrupt, is answered with 400
+like a malformed record. Both count as failed in /stats, and so does a request
+whose client is gone by the time it is answered.
+
+*/
+
+public final class IngestServer implements Closeable {
+
+    public record Stats(long requests,
+                        long records,
+                        long bytes,
+                        long rejected,
+                        long failed,
+                        int inFlightRecords,
+                        long latencyNanos,
+                        long maxLatencyNanos,
+                        long uptimeNanos) {
+
+        public double recordsPerSecond() {
+
+            return (uptimeNanos == 0) ? 0 : ((records * 1e9) / uptimeNanos);
+        }
+
+        public double bytesPerSecond() {
+
+            return (uptimeNanos == 0) ? 0 : ((bytes * 1e9) / uptimeNanos);
+        }
+
+        // over answered requests, rejected and failed ones included
+        public double meanLatencyMillis() {
+
+            return (requests == 0) ? 0 : ((latencyNanos / 1e6) / requests);
+        }
+
+    }
+
+    private static final long DEFAULT_MAX_REQUEST_BYTES = 64L * 1024 * 1024;
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_RECORDS = 1024;
+
+    private static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 10_000;
+
+    private static final long MAX_DISCARD_BYTES = 16L * 1024 * 1024;
+
+    private static final int DISCARD_SIZE = 8 * 1024;
+
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private static final int STOP_DELAY_SECONDS = 1;
+
+    // counted for a request whose client went away before it was answered, as nginx logs it; never sent
+    private static final int CLIENT_CLOSED = 499;
+
+    private final InetSocketAddress address;
+
+    private final Consumer<Object> sink;
+
+    private long maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+
+    private int maxInFlightRecords = DEFAULT_MAX_IN_FLIGHT_RECORDS;
+
+    private long acquireTimeoutMillis = DEFAULT_ACQUIRE_TIMEOUT_MILLIS;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder records = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder latencyNanos = new LongAdder();
+
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    private Semaphore inFlight;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private long startNanos;
+
+    // a port of 0 picks a free one; see port()
+    public IngestServer(final InetSocketAddress address, final Consumer<Object> sink) {
+
+        this.address = address;
+
+        this.sink = sink;
+
+    }
+
+    public IngestServer maxRequestBytes(final long maxRequestBytes) {
+
+        if (maxRequestBytes <= 0) {
+
+            throw new IllegalArgumentException("maxRequestBytes must be positive: " + maxRequestBytes);
+
+        }
+
+        this.maxRequestBytes = maxRequestBytes;
+
+        return this;
+    }
+
+    public IngestServer maxInFlightRecords(final int maxInFlightRecords) {
+
+        if (maxInFlightRecords <= 0) {
+
+            throw new IllegalArgumentException("maxInFlightRecords must be positive: " + maxInFlightRecords);
+
+        }
+
+        this.maxInFlightRecords = maxInFlightRecords;
+
+        return this;
+    }
+
+    public IngestServer acquireTimeoutMillis(final long acquireTimeoutMillis) {
+
+        if (acquireTimeoutMillis < 0) {
+
+            throw new IllegalArgumentException("acquireTimeoutMillis must not be negative: " + acquireTimeoutMillis);
+
+        }
+
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+
+        return this;
+    }
+
+    public IngestServer start() throws IOException {
+
+        if (server != null) {
+
+            throw new IllegalStateException("already started");
+
+        }
+
+        inFlight = new Semaphore(maxInFlightRecords);
+
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        server = HttpServer.create(address, 0);
+
+        server.setExecutor(executor);
+
+        server.createContext("/ingest", this::ingest);
+
+        server.createContext("/stats", this::stats);
+
+        startNanos = System.nanoTime();
+
+        server.start();
+
+        return this;
+    }
+
+    public int port() {
+
+        return server.getAddress().getPort();
+    }
+
+    public Stats stats() {
+
+        return new Stats(requests.sum(), records.sum(), bytes.sum(), rejected.sum(), failed.sum(),
+                (maxInFlightRecords - inFlight.availablePermits()), latencyNanos.sum(), maxLatencyNanos.get(),
+                (System.nanoTime() - startNanos));
+    }
+
+    // waits up to a second for requests being answered
+    @Override
+    public void close() {
+
+        if (server == null) {
+
+            return;
+
+        }
+
+        server.stop(STOP_DELAY_SECONDS);
+
+        executor.close();
+
+        server = null;
+
+    }
+
+    private void ingest(final HttpExchange exchange) throws IOException {
+
+        final long start = System.nanoTime();
+
+        final long[] handedOver = new long[1];
+
+        int status = 200;
+
+        String error = null;
+
+        try {
+
+            if (!exchange.getRequestMethod().equals("POST")) {
+
+                exchange.getResponseHeaders().set("Allow", "POST");
+
+                status = 405;
+
+                error = "method not allowed";
+
+            } else {
+
+                read(exchange, handedOver);
+
+            }
+
+        } catch (final TooLarge e) {
+
+            status = 413;
+
+            error = e.getMessage();
+
+        } catch (final Overloaded e) {
+
+            status = 503;
+
+            error = e.getMessage();
+
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+
+        } catch (final SinkFailure e) {
+
+            status = 500;
+
+            error = "sink failed: " + e.getCause();
+
+        } catch (final RuntimeException e) {
+
+            // a malformed record or body
+            status = 400;
+
+            error = e.getMessage();
+
+        } catch (final IOException e) {
+
+            // a truncated or corrupt gzip body, or the client went away while sending it
+            status = 400;
+
+            error = "unreadable body: " + e.getMessage();
+
+        }
+
+        if (status != 200) {
+
+            discardBody(exchange);
+
+        }
+
+        try (exchange) {
+
+            respond(exchange, status, error, handedOver[0]);
+
+        } catch (final IOException e) {
+
+            // nobody left to answer
+            status = CLIENT_CLOSED;
+
+        } finally {
+
+            final long nanos = (System.nanoTime() - start);
+
+            requests.increment();
+
+            records.add(handedOver[0]);
+
+            latencyNanos.add(nanos);
+
+            maxLatencyNanos.accumulate(nanos);
+
+            if ((status == 413) || (status == 503)) {
+
+                rejected.increment();
+
+            } else if (status != 200) {
+
+                failed.increment();
+
+            }
+
+        }
+
+    }
+
+    private void read(final HttpExchange exchange, final long[] handedOver) throws IOException {
+
+        final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+
+        if ((contentLength != null) && (Long.parseLong(contentLength.trim()) > maxRequestBytes)) {
+
+            throw new TooLarge("request larger than " + maxRequestBytes + " bytes");
+
+        }
+
+        // the body itself stays open for discardBody
+        final InputStream body = new FilterInputStream(exchange.getRequestBody()) {
+
+            @Override
+            public void close() { }
+
+        };
+
+        final LimitedInput limitedInput = new LimitedInput(CompressedInput.open(body), maxRequestBytes);
+
+        try (final ReadableByteChannel channel = Channels.newChannel(limitedInput)) {
+
+            final RecordReader recordReader = new RecordReader();
+
+            final RecordReader.Handler handler = (recordStart, recordBytes, offset, length) -> {
+
+                hand(record(recordBytes, offset, length));
+
+                handedOver[0]++;
+
+            };
+
+            recordReader.read(channel, handler);
+
+            recordReader.finish(handler);
+
+            if (recordReader.scanner().inRecord()) {
+
+                throw new RuntimeException("record not closed at the end of the request");
+
+            }
+
+        } finally {
+
+            bytes.add(limitedInput.read);
+
+        }
+
+    }
+
+    private void stats(final HttpExchange exchange) throws IOException {
+
+        try (exchange) {
+
+            final Stats stats = stats();
+
+            final JSONWriter jsonWriter = new JSONWriter()
+                    .writeStartObject()
+                    .writeField("requests", stats.requests())
+                    .writeField("records", stats.records())
+                    .writeField("bytes", stats.bytes())
+                    .writeField("rejected", stats.rejected())
+                    .writeField("failed", stats.failed())
+                    .writeField("inFlightRecords", stats.inFlightRecords())
+                    .writeField("recordsPerSecond", stats.recordsPerSecond())
+                    .writeField("bytesPerSecond", stats.bytesPerSecond())
+                    .writeField("meanLatencyMillis", stats.meanLatencyMillis())
+                    .writeField("maxLatencyMillis", (stats.maxLatencyNanos() / 1e6))
+                    .writeEndObject();
+
+            send(exchange, 200, jsonWriter.toByteArray());
+
+        }
+
+    }
+
+    private void hand(final Object record) {
+
+        try {
+
+            if (!inFlight.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+
+                throw new Overloaded("sink busy for over " + acquireTimeoutMillis + " ms");
+
+            }
+
+        } catch (final InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            throw new Overloaded("shutting down");
+
+        }
+
+        try {
+
+            sink.accept(record);
+
+        } catch (final RuntimeException e) {
+
+            throw new SinkFailure(e);
+
+        } finally {
+
+            inFlight.release();
+
+        }
+
+    }
+
+    /*
+
+    A client that is still sending when the connection is closed gets a reset
+    instead of the response, so the rest of a refused body is read and dropped
+    first, up to MAX_DISCARD_BYTES. Past that the connection is closed anyway.
+
+    */
+
+    private static void discardBody(final HttpExchange exchange) {
+
+        try {
+
+            final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+
+            final boolean tooLong = (contentLength != null)
+                    && (Long.parseLong(contentLength.trim()) > MAX_DISCARD_BYTES);
+
+            final InputStream body = exchange.getRequestBody();
+
+            // read, not skip(): the body's skip() goes past its end into the connection
+            final byte[] discarded = new byte[DISCARD_SIZE];
+
+            long left = MAX_DISCARD_BYTES;
+
+            while (!tooLong && (left > 0)) {
+
+                final int read = body.read(discarded, 0, (int) Math.min(left, discarded.length));
+
+                if (read < 0) {
+
+                    return;
+
+                }
+
+                left -= read;
+
+            }
+
+        } catch (final IOException | RuntimeException e) {
+
+            // the connection is closed after the response in any case
+
+        }
+
+        exchange.getResponseHeaders().set("Connection", "close");
+
+    }
+
+    // the parser only takes containers, so a scalar record is parsed as the element of one
+    private static Object record(final byte[] bytes, final int offset, final int length) {
+
+        if ((bytes[offset] == '{') || (bytes[offset] == '[')) {
+
+            return RecordReader.parse(bytes, offset, length);
+
+        }
+
+        final byte[] wrapped = new byte[length + 2];
+
+        wrapped[0] = '[';
+
+        System.arraycopy(bytes, offset, wrapped, 1, length);
+
+        wrapped[length + 1] = ']';
+
+        return ((List<?>) RecordReader.parse(wrapped, 0, wrapped.length)).get(0);
+    }
+
+    private static void respond(final HttpExchange exchange,
+                                final int status,
+                                final String error,
+                                final long records) throws IOException {
+
+        final JSONWriter jsonWriter = new JSONWriter().writeStartObject();
+
+        if (error != null) {
+
+            jsonWriter.writeField("error", error);
+
+        }
+
+        send(exchange, status, jsonWriter.writeField("records", records).writeEndObject().toByteArray());
+
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+
+            outputStream.write(body);
+
+        }
+
+    }
+
+    /*
+
+    The body as read so far may not exceed limit bytes. Thrown as an IOException
+    so it passes through RecordReader.read; TooLarge is told apart by type.
+
+    */
+
+    private static final class LimitedInput extends FilterInputStream {
+
+        private final long limit;
+
+        private long read;
+
+        private LimitedInput(final InputStream inputStream, final long limit) {
+
+            super(inputStream);
+
+            this.limit = limit;
+
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            final int b = super.read();
+
+            if (b >= 0) {
+
+                count(1);
+
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+
+            final int n = super.read(bytes, offset, length);
+
+            if (n > 0) {
+
+                count(n);
+
+            }
+
+            return n;
+        }
+
+        private void count(final long n) throws TooLarge {
+
+            read += n;
+
+            if (read > limit) {
+
+                throw new TooLarge("request larger than " + limit + " bytes");
+
+            }
+
+        }
+
+    }
+
+    private static final class TooLarge extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private TooLarge(final String message) {
+
+            super(message);
+
+        }
+
+    }
+
+    private static final class Overloaded extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private Overloaded(final String message) {
+
+            super(message);
+
+        }
+
+    }
+
+    private static final class SinkFailure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private SinkFailure(final RuntimeException cause) {
+
+            super(cause);
+
+        }
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,819 @@
+package org.catalyst.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/*
+
+Opens JSON input that may be gzip compressed, detected by its magic bytes. Gzip
+input is inflated on other threads into a ring of reusable buffers which the
+returned stream hands to the lexer, so inflating and lexing overlap.
+
+A gzip file may hold several members back to back (pigz, concatenated logs). For
+files, members are located by scanning for header bytes and inflated in parallel,
+a bounded number ahead of the reader. A header match inside compressed data is
+harmless: only the member that starts where the previous one ended is ever read,
+and its CRC and length are checked.
+
+*/
+
+public final class CompressedInput {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // buffers queued per member; bounds memory to parallelism * RING * CHUNK_SIZE
+    private static final int RING = 16;
+
+    private static final int MAGIC_1 = 0x1f;
+
+    private static final int MAGIC_2 = 0x8b;
+
+    private static final int DEFLATE = 8;
+
+    public static Reader reader(final Path path) throws IOException {
+
+        return new InputStreamReader(open(path), StandardCharsets.UTF_8);
+    }
+
+    public static InputStream open(final Path path) throws IOException {
+
+        return open(path, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static InputStream open(final Path path, final int parallelism) throws IOException {
+
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        final ByteBuffer magic = ByteBuffer.allocate(2);
+
+        channel.read(magic, 0);
+
+        if ((magic.position() < 2) || ((magic.get(0) & 0xff) != MAGIC_1) || ((magic.get(1) & 0xff) != MAGIC_2)) {
+
+            channel.close();
+
+            return new BufferedInputStream(Files.newInputStream(path), CHUNK_SIZE);
+
+        }
+
+        return new MemberPipeline(channel, Math.max(1, parallelism));
+    }
+
+    public static InputStream open(final InputStream inputStream) throws IOException {
+
+        final BufferedInputStream buffered = new BufferedInputStream(inputStream, CHUNK_SIZE);
+
+        buffered.mark(2);
+
+        final int first = buffered.read();
+
+        final int second = buffered.read();
+
+        buffered.reset();
+
+        if ((first != MAGIC_1) || (second != MAGIC_2)) {
+
+            return buffered;
+
+        }
+
+        return new StreamPipeline(buffered);
+    }
+
+    /*
+
+    Shared by every open file, created on first use. Cached rather than fixed: a
+    member waiting for the reader to make room holds its thread, so a fixed pool
+    could be filled by members no reader is reading yet. Each file bounds its
+    own members by its parallelism.
+
+    */
+
+    private static final class Inflaters {
+
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+
+            final Thread thread = new Thread(runnable, "gzip-inflater");
+
+            thread.setDaemon(true);
+
+            return thread;
+
+        });
+
+    }
+
+    private static ExecutorService executor() {
+
+        return Inflaters.EXECUTOR;
+    }
+
+    private record Chunk(byte[] bytes, int length, long end, IOException error) {
+
+        private static Chunk end(final long end) {
+
+            return new Chunk(null, 0, end, null);
+        }
+
+        private static Chunk error(final IOException error) {
+
+            return new Chunk(null, 0, -1, error);
+        }
+
+    }
+
+    private abstract static class Pipeline extends InputStream {
+
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(RING * 4);
+
+        private Chunk current;
+
+        private int position;
+
+        private boolean finished;
+
+        abstract BlockingQueue<Chunk> head() throws IOException;
+
+        // returns false at the end of the input
+        abstract boolean advance(long end) throws IOException;
+
+        byte[] buffer() {
+
+            final byte[] buffer = free.poll();
+
+            return (buffer != null) ? buffer : new byte[CHUNK_SIZE];
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            final byte[] one = new byte[1];
+
+            return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xff);
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+
+            if (length == 0) {
+
+                return 0;
+
+            }
+
+            while ((current == null) || (position == current.length())) {
+
+                if (finished) {
+
+                    return -1;
+
+                }
+
+                if (current != null) {
+
+                    free.offer(current.bytes());
+
+                    current = null;
+
+                }
+
+                final Chunk chunk = take(head());
+
+                if (chunk.error() != null) {
+
+                    throw chunk.error();
+
+                }
+
+                if (chunk.bytes() == null) {
+
+                    finished = !advance(chunk.end());
+
+                    continue;
+
+                }
+
+                current = chunk;
+
+                position = 0;
+
+            }
+
+            final int count = Math.min(length, (current.length() - position));
+
+            System.arraycopy(current.bytes(), position, bytes, offset, count);
+
+            position += count;
+
+            return count;
+        }
+
+        private static Chunk take(final BlockingQueue<Chunk> queue) throws IOException {
+
+            try {
+
+                return queue.take();
+
+            } catch (final InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+                throw new IOException("interrupted while waiting for input", e);
+
+            }
+
+        }
+
+    }
+
+    private static final class StreamPipeline extends Pipeline {
+
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(RING);
+
+        private final Thread producer;
+
+        private StreamPipeline(final InputStream inputStream) {
+
+            producer = new Thread(() -> pump(inputStream), "gzip-inflater");
+
+            producer.setDaemon(true);
+
+            producer.start();
+
+        }
+
+        @Override
+        BlockingQueue<Chunk> head() {
+
+            return queue;
+        }
+
+        @Override
+        boolean advance(final long end) {
+
+            return false;
+        }
+
+        @Override
+        public void close() {
+
+            producer.interrupt();
+
+        }
+
+        private void pump(final InputStream inputStream) {
+
+            try (final InputStream gzip = new GZIPInputStream(inputStream, CHUNK_SIZE)) {
+
+                while (true) {
+
+                    final byte[] buffer = buffer();
+
+                    final int read = gzip.readNBytes(buffer, 0, buffer.length);
+
+                    if (read > 0) {
+
+                        queue.put(new Chunk(buffer, read, -1, null));
+
+                    }
+
+                    if (read < buffer.length) {
+
+                        break;
+
+                    }
+
+                }
+
+                queue.put(Chunk.end(-1));
+
+            } catch (final IOException e) {
+
+                queue.offer(Chunk.error(e));
+
+            } catch (final InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+            }
+
+        }
+
+    }
+
+    /*
+
+    Member 0 is inflated as soon as the file is opened. A scanner task looks for
+    the headers of later members meanwhile and starts up to parallelism - 1 of
+    them ahead; the reader only ever waits on the member it is reading. Members
+    the reader reaches before the scanner does are started by the reader.
+
+    */
+
+    private static final class MemberPipeline extends Pipeline {
+
+        private final FileChannel channel;
+
+        private final long size;
+
+        private final Semaphore slots;
+
+        // candidates started ahead, by offset; guarded by itself
+        private final TreeMap<Long, Member> members = new TreeMap<>();
+
+        private final Future<?> scanner;
+
+        // the offset of the member being read; candidates up to it are of no use any more
+        private volatile long floor;
+
+        private volatile boolean closed;
+
+        private Member head;
+
+        private MemberPipeline(final FileChannel channel, final int parallelism) throws IOException {
+
+            this.channel = channel;
+
+            this.size = channel.size();
+
+            this.slots = new Semaphore(parallelism - 1);
+
+            head = start(0);
+
+            scanner = (parallelism > 1) ? executor().submit(this::scan) : null;
+
+        }
+
+        @Override
+        BlockingQueue<Chunk> head() {
+
+            return head.queue;
+        }
+
+        @Override
+        boolean advance(final long end) throws IOException {
+
+            floor = end;
+
+            final Member next;
+
+            synchronized (members) {
+
+                // candidates before the end of the real member were false matches
+                final Map<Long, Member> skipped = members.headMap(end);
+
+                skipped.values().forEach(this::cancel);
+
+                skipped.clear();
+
+                next = members.remove(end);
+
+                if (next != null) {
+
+                    slots.release();
+
+                }
+
+            }
+
+            if ((end >= size) || !isHeader(end)) {
+
+                // trailing padding after the last member is ignored, as GZIPInputStream does
+                if (next != null) {
+
+                    next.cancel();
+
+                }
+
+                return false;
+
+            }
+
+            head = (next != null) ? next : start(end);
+
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            closed = true;
+
+            if (scanner != null) {
+
+                scanner.cancel(false);
+
+            }
+
+            head.cancel();
+
+            synchronized (members) {
+
+                members.values().forEach(Member::cancel);
+
+                members.clear();
+
+            }
+
+            channel.close();
+
+        }
+
+        // runs on the executor until the end of the file, or until closed
+        private void scan() {
+
+            final ByteBuffer scanBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+            long scanned = 1;
+
+            try {
+
+                while (!closed && (scanned < size)) {
+
+                    if (!slots.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+
+                        continue;
+
+                    }
+
+                    scanned = Math.max(scanned, (floor + 1));
+
+                    final long candidate = nextCandidate(scanBuffer, scanned);
+
+                    if (candidate < 0) {
+
+                        slots.release();
+
+                        break;
+
+                    }
+
+                    scanned = (candidate + 1);
+
+                    synchronized (members) {
+
+                        if (closed || (candidate <= floor)) {
+
+                            slots.release();
+
+                        } else {
+
+                            members.put(candidate, start(candidate));
+
+                        }
+
+                    }
+
+                }
+
+            } catch (final IOException e) {
+
+                // no more speculation: the reader starts the members it reaches itself
+
+            } catch (final InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+            }
+
+        }
+
+        private long nextCandidate(final ByteBuffer scanBuffer, final long from) throws IOException {
+
+            long scanned = from;
+
+            while (!closed && (scanned < size)) {
+
+                scanBuffer.clear();
+
+                final int read = channel.read(scanBuffer, scanned);
+
+                if (read < 4) {
+
+                    break;
+
+                }
+
+                for (int i = 0; i <= (read - 4); i++) {
+
+                    if (((scanBuffer.get(i) & 0xff) == MAGIC_1) && isHeader(scanBuffer, i)) {
+
+                        return (scanned + i);
+
+                    }
+
+                }
+
+                scanned += (read - 3);
+
+            }
+
+            return -1;
+        }
+
+        private void cancel(final Member member) {
+
+            member.cancel();
+
+            slots.release();
+
+        }
+
+        private boolean isHeader(final long at) throws IOException {
+
+            final ByteBuffer header = ByteBuffer.allocate(4);
+
+            channel.read(header, at);
+
+            return (header.position() == 4) && isHeader(header, 0);
+        }
+
+        private static boolean isHeader(final ByteBuffer buffer, final int at) {
+
+            return ((buffer.get(at) & 0xff) == MAGIC_1)
+                    && ((buffer.get(at + 1) & 0xff) == MAGIC_2)
+                    && (buffer.get(at + 2) == DEFLATE)
+                    && ((buffer.get(at + 3) & 0xe0) == 0);
+        }
+
+        private Member start(final long offset) {
+
+            final Member member = new Member();
+
+            member.future = executor().submit(() -> member.inflate(this, offset));
+
+            return member;
+        }
+
+    }
+
+    private static final class Member {
+
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(RING);
+
+        private volatile boolean cancelled;
+
+        private Future<?> future;
+
+        /*
+
+        Not an interrupt: an interrupted read closes the FileChannel that every
+        member shares.
+
+        */
+
+        private void cancel() {
+
+            cancelled = true;
+
+            future.cancel(false);
+
+        }
+
+        private boolean put(final Chunk chunk) throws InterruptedException {
+
+            while (!queue.offer(chunk, 10, TimeUnit.MILLISECONDS)) {
+
+                if (cancelled) {
+
+                    return false;
+
+                }
+
+            }
+
+            return !cancelled;
+        }
+
+        private void inflate(final MemberPipeline pipeline, final long offset) {
+
+            final Inflater inflater = new Inflater(true);
+
+            try {
+
+                final Input input = new Input(pipeline.channel, offset);
+
+                input.skipHeader();
+
+                final CRC32 crc = new CRC32();
+
+                long total = 0;
+
+                byte[] buffer = pipeline.buffer();
+
+                while (!inflater.finished()) {
+
+                    if (inflater.needsInput()) {
+
+                        input.feed(inflater);
+
+                    }
+
+                    final int length = inflater.inflate(buffer);
+
+                    if (length > 0) {
+
+                        crc.update(buffer, 0, length);
+
+                        total += length;
+
+                        if (!put(new Chunk(buffer, length, -1, null))) {
+
+                            return;
+
+                        }
+
+                        buffer = pipeline.buffer();
+
+                    } else if (inflater.needsDictionary()) {
+
+                        throw new IOException("gzip member at " + offset + " needs a preset dictionary");
+
+                    }
+
+                }
+
+                final long trailer = input.consumed(inflater.getRemaining());
+
+                final ByteBuffer check = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+                pipeline.channel.read(check, trailer);
+
+                if ((check.position() < 8) || ((check.getInt(0) & 0xffffffffL) != crc.getValue())
+                        || ((check.getInt(4) & 0xffffffffL) != (total & 0xffffffffL))) {
+
+                    throw new IOException("corrupt gzip member at offset " + offset);
+
+                }
+
+                put(Chunk.end(trailer + 8));
+
+            } catch (final IOException e) {
+
+                queue.offer(Chunk.error(e));
+
+            } catch (final DataFormatException e) {
+
+                queue.offer(Chunk.error(new IOException("corrupt gzip member at offset " + offset, e)));
+
+            } catch (final InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+            } finally {
+
+                inflater.end();
+
+            }
+
+        }
+
+    }
+
+    private static final class Input {
+
+        private static final int FHCRC = 2;
+
+        private static final int FEXTRA = 4;
+
+        private static final int FNAME = 8;
+
+        private static final int FCOMMENT = 16;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        private long position;
+
+        private Input(final FileChannel channel, final long position) {
+
+            this.channel = channel;
+
+            this.position = position;
+
+            buffer.limit(0);
+
+        }
+
+        private void skipHeader() throws IOException {
+
+            skip(3);
+
+            final int flags = next();
+
+            skip(6);
+
+            if ((flags & FEXTRA) != 0) {
+
+                skip(next() | (next() << 8));
+
+            }
+
+            if ((flags & FNAME) != 0) {
+
+                while (next() != 0) { }
+
+            }
+
+            if ((flags & FCOMMENT) != 0) {
+
+                while (next() != 0) { }
+
+            }
+
+            if ((flags & FHCRC) != 0) {
+
+                skip(2);
+
+            }
+
+        }
+
+        private void feed(final Inflater inflater) throws IOException {
+
+            if (!buffer.hasRemaining()) {
+
+                fill();
+
+            }
+
+            inflater.setInput(buffer.array(), buffer.position(), buffer.remaining());
+
+            buffer.position(buffer.limit());
+
+        }
+
+        // file offset just past the last byte the inflater actually used
+        private long consumed(final int unused) {
+
+            return (position - buffer.remaining() - unused);
+        }
+
+        private int next() throws IOException {
+
+            if (!buffer.hasRemaining()) {
+
+                fill();
+
+            }
+
+            return (buffer.get() & 0xff);
+        }
+
+        private void skip(final int count) throws IOException {
+
+            for (int i = 0; i < count; i++) {
+
+                next();
+
+            }
+
+        }
+
+        private void fill() throws IOException {
+
+            buffer.clear();
+
+            final int read = channel.read(buffer, position);
+
+            if (read <= 0) {
+
+                throw new IOException("unexpected end of gzip input");
+
+            }
+
+            position += read;
+
+            buffer.flip();
+
+        }
+
+    }
+
+    private CompressedInput() { }
+
+}
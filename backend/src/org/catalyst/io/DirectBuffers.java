@@ -0,0 +1,82 @@
+package org.catalyst.io;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/*
+
+Hands the memory of a direct or mapped buffer back to the OS right away, rather
+than once the buffer is collected, through sun.misc.Unsafe.invokeCleaner
+(module-info requires jdk.unsupported). Where that is missing free() does
+nothing and returns false: the buffer is then freed by the garbage collector,
+as it would have been anyway.
+
+The buffer must not be used after it is freed, nor any view of it; free() is
+only ever called on a buffer as allocated or mapped, not on a slice.
+
+*/
+
+public final class DirectBuffers {
+
+    // null if Unsafe is missing
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    static {
+
+        Object unsafe = null;
+
+        Method invokeCleaner = null;
+
+        try {
+
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+
+            theUnsafe.setAccessible(true);
+
+            unsafe = theUnsafe.get(null);
+
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+        } catch (final ReflectiveOperationException | RuntimeException exception) {
+
+            unsafe = null;
+
+            invokeCleaner = null;
+
+        }
+
+        UNSAFE = unsafe;
+
+        INVOKE_CLEANER = invokeCleaner;
+
+    }
+
+    public static boolean free(final ByteBuffer buffer) {
+
+        if ((INVOKE_CLEANER == null) || (buffer == null) || !buffer.isDirect()) {
+
+            return false;
+
+        }
+
+        try {
+
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+
+            return true;
+
+        } catch (final ReflectiveOperationException exception) {
+
+            throw new RuntimeException(exception);
+
+        }
+    }
+
+    private DirectBuffers() { }
+
+}
\ No newline at end of file
@@ -0,0 +1,259 @@
+package org.catalyst.json;
+
+/*
+
+Writes chars as UTF-8 and numbers as decimal text straight into a byte array,
+for the writers that keep their own buffer (JSONWriter, OffHeapArena and
+TableExporter). The caller makes room first: at most 4 bytes per character(),
+3 per char for encode(), MAX_NUMBER_BYTES for a number.
+
+*/
+
+public final class ByteFormat {
+
+    // the longest Long.MIN_VALUE or Double.toString() can be
+    public static final int MAX_NUMBER_BYTES = 24;
+
+    // largest magnitude below which every integral double is written exactly as a long
+    private static final double INTEGRAL_LIMIT = 1e15;
+
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    // the digits of 0 to 99
+    private static final byte[] DIGIT_TENS = new byte[100];
+
+    private static final byte[] DIGIT_ONES = new byte[100];
+
+    static {
+
+        for (int i = 0; i < 100; i++) {
+
+            DIGIT_TENS[i] = (byte) ('0' + (i / 10));
+
+            DIGIT_ONES[i] = (byte) ('0' + (i % 10));
+
+        }
+
+    }
+
+    /*
+
+    Writes the char at i of text, or the surrogate pair starting there and
+    ending before to, and returns where it ends: 4 bytes on exactly when a pair
+    was written. A lone surrogate has no UTF-8 form; nothing is written and at
+    is returned, so the caller can write it its own way.
+
+    */
+
+    public static int character(final CharSequence text, final int i, final int to, final byte[] bytes, final int at) {
+
+        final char c = text.charAt(i);
+
+        if (c < 0x80) {
+
+            bytes[at] = (byte) c;
+
+            return (at + 1);
+
+        }
+
+        if (c < 0x800) {
+
+            bytes[at] = (byte) (0xc0 | (c >> 6));
+
+            bytes[at + 1] = (byte) (0x80 | (c & 0x3f));
+
+            return (at + 2);
+
+        }
+
+        if (!Character.isSurrogate(c)) {
+
+            bytes[at] = (byte) (0xe0 | (c >> 12));
+
+            bytes[at + 1] = (byte) (0x80 | ((c >> 6) & 0x3f));
+
+            bytes[at + 2] = (byte) (0x80 | (c & 0x3f));
+
+            return (at + 3);
+
+        }
+
+        if (!Character.isHighSurrogate(c) || ((i + 1) >= to) || !Character.isLowSurrogate(text.charAt(i + 1))) {
+
+            return at;
+
+        }
+
+        final int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+
+        bytes[at] = (byte) (0xf0 | (codePoint >> 18));
+
+        bytes[at + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+
+        bytes[at + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+
+        bytes[at + 3] = (byte) (0x80 | (codePoint & 0x3f));
+
+        return (at + 4);
+    }
+
+    /*
+
+    Writes chars [from, to) of text and returns where they end. Unpaired
+    surrogates become '?', as String.getBytes(UTF_8) does; a pair split by to
+    is two of them, so callers writing in pieces keep pairs in one.
+
+    */
+
+    public static int encode(final CharSequence text, final int from, final int to, final byte[] bytes, final int at) {
+
+        int i = from;
+
+        int end = at;
+
+        // fast path: ASCII
+        while ((i < to) && (text.charAt(i) < 0x80)) {
+
+            bytes[end++] = (byte) text.charAt(i++);
+
+        }
+
+        while (i < to) {
+
+            final int next = character(text, i, to, bytes, end);
+
+            if (next == end) {
+
+                bytes[end++] = '?';
+
+                i++;
+
+            } else {
+
+                i += ((next - end) == 4) ? 2 : 1;
+
+                end = next;
+
+            }
+
+        }
+
+        return end;
+    }
+
+    // whether number is written as a long: integral, below INTEGRAL_LIMIT and not -0.0
+    public static boolean isIntegral(final double number) {
+
+        return (number == Math.rint(number)) && (Math.abs(number) < INTEGRAL_LIMIT)
+                && !((number == 0) && (Double.doubleToRawLongBits(number) != 0));
+    }
+
+    // number as JSONWriter writes it: a long if isIntegral, Double.toString() otherwise
+    public static int number(final double number, final byte[] bytes, final int at) {
+
+        if (isIntegral(number)) {
+
+            return digits((long) number, bytes, at);
+
+        }
+
+        final String text = Double.toString(number);
+
+        for (int i = 0; i < text.length(); i++) {
+
+            bytes[at + i] = (byte) text.charAt(i);
+
+        }
+
+        return (at + text.length());
+    }
+
+    public static String toString(final double number) {
+
+        return isIntegral(number) ? Long.toString((long) number) : Double.toString(number);
+    }
+
+    public static int digits(final long number, final byte[] bytes, final int at) {
+
+        if (number == Long.MIN_VALUE) {
+
+            System.arraycopy(MIN_LONG, 0, bytes, at, MIN_LONG.length);
+
+            return (at + MIN_LONG.length);
+
+        }
+
+        int start = at;
+
+        long value = number;
+
+        if (value < 0) {
+
+            bytes[start++] = '-';
+
+            value = -value;
+
+        }
+
+        int count = 1;
+
+        for (long limit = 10; (count < 19) && (value >= limit); limit *= 10) {
+
+            count++;
+
+        }
+
+        final int end = (start + count);
+
+        int i = end;
+
+        // two digits per division, and in int arithmetic once the value fits, as ids mostly do
+        while (value > Integer.MAX_VALUE) {
+
+            final long quotient = (value / 100);
+
+            final int pair = (int) (value - (quotient * 100));
+
+            bytes[--i] = DIGIT_ONES[pair];
+
+            bytes[--i] = DIGIT_TENS[pair];
+
+            value = quotient;
+
+        }
+
+        int small = (int) value;
+
+        while (small >= 100) {
+
+            final int quotient = (small / 100);
+
+            final int pair = (small - (quotient * 100));
+
+            bytes[--i] = DIGIT_ONES[pair];
+
+            bytes[--i] = DIGIT_TENS[pair];
+
+            small = quotient;
+
+        }
+
+        if (small >= 10) {
+
+            bytes[--i] = DIGIT_ONES[small];
+
+            bytes[--i] = DIGIT_TENS[small];
+
+        } else {
+
+            bytes[--i] = (byte) ('0' + small);
+
+        }
+
+        return end;
+    }
+
+    private ByteFormat() { }
+
+}
\ No newline at end of file
@@ -0,0 +1,304 @@
+package org.catalyst.json;
+
+import org.catalyst.io.CompressedInput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+
+Reads the records of a file (see RecordScanner) like RecordReader.read, and every
+intervalBytes saves a checkpoint to a small sidecar file. A checkpoint holds the
+offset just after the last record handled, the depth of the container the
+records are in, the line and column there and the number of records so far. A
+read that finds a checkpoint for the same file (same size and modification time)
+continues from it instead of from the start: a plain file is seeked, a gzip one
+is inflated up to the offset without being scanned. A run that died hands over
+at most intervalBytes of records a second time. The sidecar is deleted once the
+file has been read to the end.
+
+A checkpoint is saved only after the handler has returned for every record
+before it, so records are handed over at least once.
+
+*/
+
+public final class CheckpointedReader {
+
+    public record Checkpoint(long offset, int depth, int line, int column, long records) { }
+
+    /*
+
+    Sidecar layout (little endian, 8 bytes each):
+
+    MAGIC sourceSize sourceModified offset depth line column records
+
+    */
+
+    private static final long MAGIC = 0x3130504B43544143L; // "CATCKP01"
+
+    private static final int SIZE = 64;
+
+    private static final long DEFAULT_INTERVAL_BYTES = 64L * 1024 * 1024;
+
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final Path source;
+
+    private final Path checkpointPath;
+
+    private final long intervalBytes;
+
+    private final RecordReader recordReader = new RecordReader();
+
+    private final LineCounter lineCounter = new LineCounter();
+
+    private final byte[] chunk = new byte[READ_SIZE];
+
+    private long chunkStart;
+
+    // bytes up to here have been counted by lineCounter
+    private long counted;
+
+    private long checkpointed;
+
+    private long records;
+
+    private int recordLine;
+
+    private int recordColumn;
+
+    private long sourceSize;
+
+    private long sourceModified;
+
+    private Checkpoint resumedFrom;
+
+    public CheckpointedReader(final Path source) {
+
+        this(source, DEFAULT_INTERVAL_BYTES);
+
+    }
+
+    public CheckpointedReader(final Path source, final long intervalBytes) {
+
+        this(source, source.resolveSibling(source.getFileName() + ".checkpoint"), intervalBytes);
+
+    }
+
+    public CheckpointedReader(final Path source, final Path checkpointPath, final long intervalBytes) {
+
+        if (intervalBytes <= 0) {
+
+            throw new IllegalArgumentException("intervalBytes must be positive: " + intervalBytes);
+
+        }
+
+        this.source = source;
+
+        this.checkpointPath = checkpointPath;
+
+        this.intervalBytes = intervalBytes;
+
+    }
+
+    // the checkpoint the last read() continued from, null if it started at the beginning
+    public Checkpoint resumedFrom() {
+
+        return resumedFrom;
+    }
+
+    // of the record being handled, counting from 1
+    public int line() {
+
+        return (recordLine + 1);
+    }
+
+    public int column() {
+
+        return (recordColumn + 1);
+    }
+
+    // returns the number of records handled by this call
+    public long read(final RecordReader.Handler handler) throws IOException {
+
+        sourceSize = Files.size(source);
+
+        sourceModified = Files.getLastModifiedTime(source).toMillis();
+
+        resumedFrom = load();
+
+        final Checkpoint from = (resumedFrom != null) ? resumedFrom : new Checkpoint(0, 0, 0, 0, 0);
+
+        recordReader.reset(from.offset());
+
+        if (resumedFrom != null) {
+
+            recordReader.scanner().resume(from.offset(), from.depth());
+
+        }
+
+        lineCounter.reset(from.line(), from.column());
+
+        counted = from.offset();
+
+        checkpointed = from.offset();
+
+        records = from.records();
+
+        final RecordReader.Handler counting = (start, bytes, offset, length) -> {
+
+            countTo(start);
+
+            recordLine = lineCounter.line();
+
+            recordColumn = lineCounter.column();
+
+            lineCounter.count(bytes, offset, (offset + length));
+
+            counted = (start + length);
+
+            handler.record(start, bytes, offset, length);
+
+            records++;
+
+            if ((counted - checkpointed) >= intervalBytes) {
+
+                save();
+
+            }
+
+        };
+
+        try (final InputStream input = CompressedInput.open(source)) {
+
+            input.skipNBytes(from.offset());
+
+            while (true) {
+
+                final int read = input.read(chunk, 0, chunk.length);
+
+                if (read < 0) {
+
+                    break;
+
+                }
+
+                chunkStart = recordReader.position();
+
+                recordReader.feed(chunk, 0, read, counting);
+
+                // the bytes of an open record are counted when it is handed over
+                final RecordScanner scanner = recordReader.scanner();
+
+                countTo(scanner.inRecord() ? scanner.recordStart() : scanner.position());
+
+            }
+
+            recordReader.finish(counting);
+
+        } catch (final UncheckedIOException exception) {
+
+            throw exception.getCause();
+
+        }
+
+        Files.deleteIfExists(checkpointPath);
+
+        return (records - from.records());
+    }
+
+    /*
+
+    Counts the bytes of the current chunk up to position. Bytes before the chunk
+    have been counted already unless they belong to an open record, and those
+    are counted from the record's own bytes.
+
+    */
+
+    private void countTo(final long position) {
+
+        if (position > counted) {
+
+            lineCounter.count(chunk, (int) (counted - chunkStart), (int) (position - chunkStart));
+
+            counted = position;
+
+        }
+
+    }
+
+    private Checkpoint load() throws IOException {
+
+        if (!Files.isRegularFile(checkpointPath)) {
+
+            return null;
+
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpointPath)).order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((buffer.capacity() != SIZE) || (buffer.getLong(0) != MAGIC)) {
+
+            throw new RuntimeException("not a checkpoint: " + checkpointPath);
+
+        }
+
+        if ((buffer.getLong(8) != sourceSize) || (buffer.getLong(16) != sourceModified)) {
+
+            // continuing into a file that changed would skip or repeat records
+            throw new RuntimeException("checkpoint " + checkpointPath + " is of another version of "
+                    + source + "; delete it to read from the start");
+
+        }
+
+        return new Checkpoint(buffer.getLong(24), (int) buffer.getLong(32), (int) buffer.getLong(40),
+                (int) buffer.getLong(48), buffer.getLong(56));
+    }
+
+    // written next to the sidecar and moved over it, so a crash leaves the old one or the new one
+    private void save() {
+
+        final ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putLong(MAGIC).putLong(sourceSize).putLong(sourceModified).putLong(counted)
+                .putLong(recordReader.scanner().depth()).putLong(lineCounter.line())
+                .putLong(lineCounter.column()).putLong(records).flip();
+
+        final Path temporary = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+
+        try {
+
+            try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+                while (buffer.hasRemaining()) {
+
+                    channel.write(buffer);
+
+                }
+
+                channel.force(true);
+
+            }
+
+            Files.move(temporary, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (final IOException exception) {
+
+            throw new UncheckedIOException(exception);
+
+        }
+
+        checkpointed = counted;
+
+    }
+
+}
\ No newline at end of file
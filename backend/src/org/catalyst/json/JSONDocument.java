@@ -0,0 +1,345 @@
+package org.catalyst.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+
+A parsed document kept outside the Java heap (see JSONParser.parseOffHeap()).
+Nodes are addressed by long handles rather than objects, so navigating the
+tree allocates nothing except the Strings asked for. The memory is freed by
+close(); handles must not be used after that. Not thread-safe.
+
+A handle is (payload << 3 | tag). Null, booleans and integers up to 2^52 are
+held in the handle itself; for the other kinds the payload is an arena address:
+
+    NUMBER  [double]
+    STRING  [int byte length][UTF-8 bytes]
+    LIST    [int size][size handles]
+    OBJECT  [int size][size (key STRING handle, value handle) pairs]
+
+*/
+
+public final class JSONDocument implements AutoCloseable {
+
+    public enum Kind {
+
+        NULL,
+
+        BOOLEAN,
+
+        NUMBER,
+
+        STRING,
+
+        LIST,
+
+        OBJECT,
+
+        // the kind of MISSING, which no node has
+        MISSING
+
+    }
+
+    // returned by get(object, key) for a missing key; its tag bits would read as OBJECT's
+    public static final long MISSING = -1;
+
+    static final long NULL_TAG = 0;
+
+    static final long FALSE_TAG = 1;
+
+    static final long TRUE_TAG = 2;
+
+    static final long INTEGER_TAG = 3;
+
+    static final long NUMBER_TAG = 4;
+
+    static final long STRING_TAG = 5;
+
+    static final long LIST_TAG = 6;
+
+    static final long OBJECT_TAG = 7;
+
+    static final long MAX_INTEGER = (1L << 52);
+
+    private final OffHeapArena arena;
+
+    private final long root;
+
+    JSONDocument(final OffHeapArena arena, final long root) {
+
+        this.arena = arena;
+
+        this.root = root;
+
+    }
+
+    public long root() {
+
+        return root;
+    }
+
+    public Kind kind(final long node) {
+
+        if (node == MISSING) {
+
+            return Kind.MISSING;
+
+        }
+
+        return switch ((int) (node & 7)) {
+
+            case (int) NULL_TAG -> Kind.NULL;
+
+            case (int) FALSE_TAG, (int) TRUE_TAG -> Kind.BOOLEAN;
+
+            case (int) INTEGER_TAG, (int) NUMBER_TAG -> Kind.NUMBER;
+
+            case (int) STRING_TAG -> Kind.STRING;
+
+            case (int) LIST_TAG -> Kind.LIST;
+
+            default -> Kind.OBJECT;
+
+        };
+    }
+
+    public boolean isNull(final long node) {
+
+        return (node & 7) == NULL_TAG;
+    }
+
+    public boolean bool(final long node) {
+
+        expect(node, Kind.BOOLEAN);
+
+        return (node & 7) == TRUE_TAG;
+    }
+
+    public double number(final long node) {
+
+        if ((node & 7) == INTEGER_TAG) {
+
+            return (double) (node >> 3);
+
+        }
+
+        expect(node, Kind.NUMBER);
+
+        final long address = (node >>> 3);
+
+        return arena.chunk(address).getDouble((int) address);
+    }
+
+    public String string(final long node) {
+
+        expect(node, Kind.STRING);
+
+        final long address = (node >>> 3);
+
+        final ByteBuffer chunk = arena.chunk(address);
+
+        final int length = chunk.getInt((int) address);
+
+        final byte[] bytes = new byte[length];
+
+        chunk.get(((int) address + 4), bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+
+    Number of elements of a list or entries of an object.
+
+    */
+
+    public int size(final long node) {
+
+        final Kind kind = kind(node);
+
+        if ((kind != Kind.LIST) && (kind != Kind.OBJECT)) {
+
+            throw new RuntimeException("expected a list or an object but found " + kind);
+
+        }
+
+        final long address = (node >>> 3);
+
+        return arena.chunk(address).getInt((int) address);
+    }
+
+    public long get(final long list, final int index) {
+
+        expect(list, Kind.LIST);
+
+        return handle(list, index, 1, 0);
+    }
+
+    public String key(final long object, final int index) {
+
+        expect(object, Kind.OBJECT);
+
+        return string(handle(object, index, 2, 0));
+    }
+
+    public long value(final long object, final int index) {
+
+        expect(object, Kind.OBJECT);
+
+        return handle(object, index, 2, 1);
+    }
+
+    /*
+
+    Keys are compared as UTF-8 bytes, without decoding them. As with the HashMap
+    JSONParser.parse() builds, the last of duplicate keys wins.
+
+    */
+
+    public long get(final long object, final String key) {
+
+        expect(object, Kind.OBJECT);
+
+        final byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+
+        for (int index = (size(object) - 1); index >= 0; index--) {
+
+            if (keyEquals(handle(object, index, 2, 0), wanted)) {
+
+                return handle(object, index, 2, 1);
+
+            }
+
+        }
+
+        return MISSING;
+    }
+
+    /*
+
+    Copies a node onto the heap as JSONParser.parse() would have returned it,
+    lone surrogates in strings aside (see JSONParser.parseOffHeap()).
+
+    */
+
+    public Object toObject(final long node) {
+
+        return switch (kind(node)) {
+
+            case MISSING -> throw new RuntimeException("no such node: MISSING");
+
+            case NULL -> null;
+
+            case BOOLEAN -> bool(node);
+
+            case NUMBER -> number(node);
+
+            case STRING -> string(node);
+
+            case LIST -> {
+
+                final int size = size(node);
+
+                final List<Object> objects = new ArrayList<>(size);
+
+                for (int index = 0; index < size; index++) {
+
+                    objects.add(toObject(get(node, index)));
+
+                }
+
+                yield objects;
+
+            }
+
+            case OBJECT -> {
+
+                final int size = size(node);
+
+                final Map<Object, Object> objectMap = new HashMap<>();
+
+                for (int index = 0; index < size; index++) {
+
+                    objectMap.put(key(node, index), toObject(value(node, index)));
+
+                }
+
+                yield objectMap;
+
+            }
+
+        };
+    }
+
+    public long memoryBytes() {
+
+        return arena.memoryBytes();
+    }
+
+    @Override
+    public void close() {
+
+        arena.close();
+
+    }
+
+    private void expect(final long node, final Kind kind) {
+
+        if (kind(node) != kind) {
+
+            throw new RuntimeException(String.format("expected %s but found %s", kind, kind(node)));
+
+        }
+
+    }
+
+    private long handle(final long container, final int index, final int width, final int field) {
+
+        final long address = (container >>> 3);
+
+        final ByteBuffer chunk = arena.chunk(address);
+
+        final int size = chunk.getInt((int) address);
+
+        if ((index < 0) || (index >= size)) {
+
+            throw new IndexOutOfBoundsException(index);
+
+        }
+
+        return chunk.getLong((int) address + 4 + (((index * width) + field) << 3));
+    }
+
+    private boolean keyEquals(final long key, final byte[] wanted) {
+
+        final long address = (key >>> 3);
+
+        final ByteBuffer chunk = arena.chunk(address);
+
+        final int at = (int) address;
+
+        if (chunk.getInt(at) != wanted.length) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < wanted.length; i++) {
+
+            if (chunk.get(at + 4 + i) != wanted[i]) {
+
+                return false;
+
+            }
+
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,677 @@
+package org.catalyst.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.catalyst.json.JSONParser.Token.*;
+
+/*
+
+A parser that is handed UTF-8 bytes as they arrive, e.g. from a socket or an
+AsynchronousFileChannel, instead of pulling them from a Reader. feed() takes
+what is there and returns at once, so no thread waits on input and a few
+threads can serve any number of streams, one JSONFeedParser each. All state is
+kept in the object: the bytes of a token cut off at the end of a chunk are
+carried over to the next one, and the open containers are kept on a stack of
+frames instead of the call stack.
+
+A stream may hold several documents in a row. feed() returns COMPLETE as soon
+as one is done, with the buffer positioned just after it, and value() returns
+it; otherwise it consumes the whole buffer and returns NEED_MORE_INPUT:
+
+    while (buffer.hasRemaining()) {
+
+        if (feedParser.feed(buffer) == JSONFeedParser.Status.COMPLETE) {
+
+            handle(feedParser.value());
+
+        }
+
+    }
+
+finish() marks the end of the input. Values and error messages are those of
+JSONParser.parse(); the only difference is that what follows a document starts
+the next one rather than being an error. Not thread-safe.
+
+*/
+
+public final class JSONFeedParser {
+
+    public enum Status {
+
+        NEED_MORE_INPUT,
+
+        COMPLETE
+
+    }
+
+    private final JSONGrammar grammar = new JSONGrammar();
+
+    private final LineCounter lineCounter = new LineCounter();
+
+    // the start of a token cut off by the end of the last chunk
+    private byte[] carry = new byte[1024];
+
+    private int carried;
+
+    // for a carried string: how far it was searched for its closing quote
+    private int stringScanned;
+
+    private boolean stringEscapes;
+
+    private Frame[] frames = new Frame[16];
+
+    private int depth;
+
+    private Object value;
+
+    private boolean complete;
+
+    private long documents;
+
+    private RuntimeException failure;
+
+    // where the current scan started, for counting lines up to an error
+    private int scanFrom;
+
+    public JSONFeedParser reset() {
+
+        grammar.reset();
+
+        lineCounter.reset();
+
+        carried = 0;
+
+        stringScanned = 0;
+
+        stringEscapes = false;
+
+        Arrays.fill(frames, 0, depth, null);
+
+        depth = 0;
+
+        value = null;
+
+        complete = false;
+
+        documents = 0;
+
+        failure = null;
+
+        return this;
+    }
+
+    public Status feed(final ByteBuffer input) {
+
+        if (failure != null) {
+
+            throw failure;
+
+        }
+
+        if (complete) {
+
+            // the next document
+            complete = false;
+
+            value = null;
+
+            grammar.reset();
+
+        }
+
+        final int length = input.remaining();
+
+        final byte[] bytes;
+
+        final int from;
+
+        if ((carried == 0) && input.hasArray()) {
+
+            bytes = input.array();
+
+            from = (input.arrayOffset() + input.position());
+
+        } else {
+
+            if ((carried + length) > carry.length) {
+
+                carry = Arrays.copyOf(carry, Math.max((carried + length), (carry.length * 2)));
+
+            }
+
+            input.get(input.position(), carry, carried, length);
+
+            bytes = carry;
+
+            from = 0;
+
+        }
+
+        // where input.position() is in bytes
+        final int start = ((bytes == carry) ? carried : from);
+
+        final int to = (start + length);
+
+        final int end = scan(bytes, from, to, false);
+
+        lineCounter.count(bytes, from, end);
+
+        if (complete) {
+
+            input.position(input.position() + (end - start));
+
+            carried = 0;
+
+            return Status.COMPLETE;
+
+        }
+
+        input.position(input.limit());
+
+        // a token still open since the carry began is already in place: copying it again on every chunk is quadratic
+        if ((bytes != carry) || (end > 0)) {
+
+            if ((to - end) > carry.length) {
+
+                carry = new byte[Math.max((to - end), (carry.length * 2))];
+
+            }
+
+            System.arraycopy(bytes, end, carry, 0, (to - end));
+
+        }
+
+        carried = (to - end);
+
+        return Status.NEED_MORE_INPUT;
+    }
+
+    /*
+
+    The end of the input: a token that was waiting for more is finished, and it
+    is an error if a document is still open or there never was one.
+
+    */
+
+    public void finish() {
+
+        if (failure != null) {
+
+            throw failure;
+
+        }
+
+        if (complete) {
+
+            return;
+
+        }
+
+        final int end = scan(carry, 0, carried, true);
+
+        lineCounter.count(carry, 0, end);
+
+        carried = 0;
+
+        if (complete || (!grammar.started() && (documents > 0))) {
+
+            return;
+
+        }
+
+        scanFrom = end;
+
+        token(EOF_$, null, carry, end, end);
+
+    }
+
+    // the document feed() last returned COMPLETE for
+    public Object value() {
+
+        return value;
+    }
+
+    private int scan(final byte[] bytes, final int from, final int to, final boolean last) {
+
+        scanFrom = from;
+
+        int i = from;
+
+        while ((i < to) && !complete) {
+
+            final int b = bytes[i];
+
+            switch (b) {
+
+                case ' ', '\t', '\n', '\r', 0x0b, 0x0c -> i++;
+
+                case '{' -> token(LEFT_CURLY_BRACKET, null, bytes, i, ++i);
+
+                case '}' -> token(RIGHT_CURLY_BRACKET, null, bytes, i, ++i);
+
+                case '[' -> token(LEFT_BRACKET, null, bytes, i, ++i);
+
+                case ']' -> token(RIGHT_BRACKET, null, bytes, i, ++i);
+
+                case ':' -> token(COLON, null, bytes, i, ++i);
+
+                case ',' -> token(COMMA, null, bytes, i, ++i);
+
+                default -> {
+
+                    final int end = (b == '"') ? string(bytes, i, to, last)
+                            : ((b == 't') || (b == 'f') || (b == 'n')) ? literal(bytes, i, to, last)
+                            : ((b == '-') || ((b >= '0') && (b <= '9'))) ? number(bytes, i, to, last)
+                            : other(bytes, i, to, last);
+
+                    if (end < 0) {
+
+                        return i;
+
+                    }
+
+                    i = end;
+
+                }
+
+            }
+
+        }
+
+        return i;
+    }
+
+    /*
+
+    Each of these lexes the token at bytes[i] and returns the index after it, or
+    -1 when it may go on past to and so has to wait for more input.
+
+    */
+
+    private int string(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        int j = (i + Math.max(1, stringScanned));
+
+        boolean escapes = stringEscapes;
+
+        while (true) {
+
+            j = JSONValidator.quoteOrBackslash(bytes, j, to);
+
+            if (j == to) {
+
+                break;
+
+            }
+
+            if (bytes[j] == '"') {
+
+                stringScanned = 0;
+
+                stringEscapes = false;
+
+                token(STRING, decode(bytes, (i + 1), j, escapes), bytes, i, (j + 1));
+
+                return (j + 1);
+
+            }
+
+            final int length = StringDecoder.escape(bytes, j, to);
+
+            if (length == 0) {
+
+                break;
+
+            }
+
+            if (length < 0) {
+
+                throw unexpected(bytes, j, (j - length));
+
+            }
+
+            escapes = true;
+
+            j += length;
+
+        }
+
+        if (last) {
+
+            // unterminated: the quote on its own is the unexpected token, as in JSONLexer
+            throw unexpected(bytes, i, (i + 1));
+
+        }
+
+        stringScanned = (j - i);
+
+        stringEscapes = escapes;
+
+        return -1;
+    }
+
+    private int literal(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        final byte b = bytes[i];
+
+        final String text = (b == 't') ? "true" : (b == 'f') ? "false" : "null";
+
+        int j = 1;
+
+        while ((j < text.length()) && ((i + j) < to) && (bytes[i + j] == text.charAt(j))) {
+
+            j++;
+
+        }
+
+        if (j == text.length()) {
+
+            final JSONParser.Token token = (b == 't') ? TRUE : (b == 'f') ? FALSE : NULL;
+
+            token(token, (b == 'n') ? null : (b == 't'), bytes, i, (i + j));
+
+            return (i + j);
+
+        }
+
+        if (((i + j) == to) && !last) {
+
+            return -1;
+
+        }
+
+        throw unexpected(bytes, i, (i + 1));
+    }
+
+    // as in JSONValidator: an optional part that is not complete is not part of the number
+    private int number(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        final int digits = (bytes[i] == '-') ? (i + 1) : i;
+
+        int j = JSONValidator.digits(bytes, digits, to);
+
+        if ((j == to) && !last) {
+
+            return -1;
+
+        }
+
+        if (j == digits) {
+
+            // a lone "-"
+            throw unexpected(bytes, i, (i + 1));
+
+        }
+
+        if ((j < to) && (bytes[j] == '.')) {
+
+            final int fraction = JSONValidator.digits(bytes, (j + 1), to);
+
+            if ((fraction == to) && !last) {
+
+                return -1;
+
+            }
+
+            if (fraction > (j + 1)) {
+
+                j = fraction;
+
+            }
+
+        }
+
+        if ((j < to) && ((bytes[j] == 'e') || (bytes[j] == 'E'))) {
+
+            int k = (j + 1);
+
+            if ((k < to) && ((bytes[k] == '+') || (bytes[k] == '-'))) {
+
+                k++;
+
+            }
+
+            final int exponent = JSONValidator.digits(bytes, k, to);
+
+            if ((exponent == to) && !last) {
+
+                return -1;
+
+            }
+
+            if (exponent > k) {
+
+                j = exponent;
+
+            }
+
+        }
+
+        token(NUMBER, number(bytes, i, j), bytes, i, j);
+
+        return j;
+    }
+
+    private int other(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        final int lead = (bytes[i] & 0xff);
+
+        final int length = (lead >= 0xf0) ? 4 : (lead >= 0xe0) ? 3 : (lead >= 0xc0) ? 2 : 1;
+
+        if (((i + length) > to) && !last) {
+
+            return -1;
+
+        }
+
+        if (((i + length) <= to) && JSONValidator.isLineSeparator(bytes, i, length)) {
+
+            return (i + length);
+
+        }
+
+        throw unexpected(bytes, i, Math.min((i + length), to));
+    }
+
+    private static String decode(final byte[] bytes, final int from, final int to, final boolean escapes) {
+
+        final String text = new String(bytes, from, (to - from), StandardCharsets.UTF_8);
+
+        if (!escapes) {
+
+            return text;
+
+        }
+
+        final char[] chars = text.toCharArray();
+
+        return new String(chars, 0, StringDecoder.decode(chars, 0, chars.length, chars, 0));
+    }
+
+    // JSONParser.number() on bytes
+    private static double number(final byte[] bytes, final int from, final int to) {
+
+        if ((to - from) <= 17) {
+
+            final boolean negative = (bytes[from] == '-');
+
+            long digits = 0;
+
+            int count = 0;
+
+            int fraction = -1;
+
+            for (int i = (negative ? (from + 1) : from); i < to; i++) {
+
+                final byte c = bytes[i];
+
+                if (c == '.') {
+
+                    fraction = 0;
+
+                    continue;
+
+                }
+
+                if ((c < '0') || (c > '9')) {
+
+                    // an exponent
+                    count = Integer.MAX_VALUE;
+
+                    break;
+
+                }
+
+                digits = ((digits * 10) + (c - '0'));
+
+                count++;
+
+                if (fraction >= 0) {
+
+                    fraction++;
+
+                }
+
+            }
+
+            if (count <= 15) {
+
+                final double value = (fraction > 0) ? (digits / JSONParser.POWERS_OF_TEN[fraction]) : digits;
+
+                return negative ? -value : value;
+
+            }
+
+        }
+
+        return Double.parseDouble(new String(bytes, from, (to - from), StandardCharsets.ISO_8859_1));
+    }
+
+    private void token(final JSONParser.Token token,
+                       final Object scalar,
+                       final byte[] bytes,
+                       final int start,
+                       final int end) {
+
+        switch (grammar.accept(token)) {
+
+            case JSONGrammar.ERROR -> throw error(String.format("expected %s but found %s",
+                    grammar.expected(), new String(bytes, start, (end - start), StandardCharsets.UTF_8)), bytes, start);
+
+            case JSONGrammar.VALUE -> frames[depth - 1].add(scalar);
+
+            case JSONGrammar.KEY -> frames[depth - 1].key = (String) scalar;
+
+            case JSONGrammar.OPEN_LIST -> push().list = new ArrayList<>();
+
+            case JSONGrammar.OPEN_OBJECT -> push().map = new HashMap<>();
+
+            case JSONGrammar.CLOSE -> {
+
+                final Frame frame = frames[--depth];
+
+                final Object container = (frame.map != null) ? frame.map : frame.list;
+
+                frame.clear();
+
+                if (depth > 0) {
+
+                    frames[depth - 1].add(container);
+
+                } else {
+
+                    value = container;
+
+                    complete = true;
+
+                    documents++;
+
+                }
+
+            }
+
+            default -> { }
+
+        }
+
+    }
+
+    private Frame push() {
+
+        if (depth == frames.length) {
+
+            frames = Arrays.copyOf(frames, (depth * 2));
+
+        }
+
+        if (frames[depth] == null) {
+
+            frames[depth] = new Frame();
+
+        }
+
+        return frames[depth++];
+    }
+
+    private RuntimeException unexpected(final byte[] bytes, final int start, final int end) {
+
+        return error("unexpected token: " + new String(bytes, start, (end - start), StandardCharsets.UTF_8), bytes, start);
+    }
+
+    private RuntimeException error(final String message, final byte[] bytes, final int start) {
+
+        lineCounter.count(bytes, scanFrom, start);
+
+        failure = new RuntimeException(String.format("%s [line %d, column %d]",
+                message, (lineCounter.line() + 1), (lineCounter.column() + 1)));
+
+        return failure;
+    }
+
+    /*
+
+    An open container. Frames are kept for reuse once closed.
+
+    */
+
+    private static final class Frame {
+
+        private List<Object> list;
+
+        private Map<Object, Object> map;
+
+        private String key;
+
+        private void add(final Object value) {
+
+            if (map != null) {
+
+                map.put(key, value);
+
+            } else {
+
+                list.add(value);
+
+            }
+
+        }
+
+        private void clear() {
+
+            list = null;
+
+            map = null;
+
+            key = null;
+
+        }
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,327 @@
+package org.catalyst.json;
+
+import java.util.Arrays;
+
+import static org.catalyst.json.JSONParser.Token.*;
+
+/*
+
+The grammar of JSONParser, one token at a time, for the byte-level readers
+(JSONValidator, JSONFeedParser) that cannot run the recursive descent parser.
+The open containers are kept in a bit stack, so nothing is allocated per token.
+accept() says what the token did, for callers that build values; a failure
+names the token the parser would have been matching at that point.
+
+*/
+
+final class JSONGrammar {
+
+    // what accept() did with a token
+    static final int ERROR = 0;
+
+    static final int VALUE = 1;
+
+    static final int KEY = 2;
+
+    static final int OPEN_LIST = 3;
+
+    static final int OPEN_OBJECT = 4;
+
+    static final int CLOSE = 5;
+
+    static final int PUNCTUATION = 6;
+
+    static final int END = 7;
+
+    // states, named after the token that is expected next
+    private static final int START = 0;
+
+    private static final int LIST_FIRST = 1;
+
+    private static final int LIST_NEXT = 2;
+
+    private static final int LIST_VALUE = 3;
+
+    private static final int OBJECT_FIRST = 4;
+
+    private static final int OBJECT_KEY = 5;
+
+    private static final int OBJECT_COLON = 6;
+
+    private static final int OBJECT_VALUE = 7;
+
+    private static final int OBJECT_NEXT = 8;
+
+    private static final int DONE = 9;
+
+    private int state;
+
+    // bit set = the container at that depth is an object
+    private long[] containers = new long[1];
+
+    private int depth;
+
+    private String expected;
+
+    void reset() {
+
+        state = START;
+
+        depth = 0;
+
+        expected = null;
+
+    }
+
+    int depth() {
+
+        return depth;
+    }
+
+    // whether a whole document has been accepted
+    boolean complete() {
+
+        return (state == DONE);
+    }
+
+    boolean started() {
+
+        return (state != START);
+    }
+
+    // the token that was expected when accept() returned ERROR
+    String expected() {
+
+        return expected;
+    }
+
+    int accept(final JSONParser.Token token) {
+
+        switch (state) {
+
+            case START -> {
+
+                if (token == LEFT_BRACKET) {
+
+                    return open(false);
+
+                }
+
+                if (token == LEFT_CURLY_BRACKET) {
+
+                    return open(true);
+
+                }
+
+                return fail(LEFT_CURLY_BRACKET.toString());
+
+            }
+
+            case LIST_FIRST -> {
+
+                if (token == RIGHT_BRACKET) {
+
+                    return close();
+
+                }
+
+                return value(token, RIGHT_BRACKET);
+
+            }
+
+            case LIST_NEXT -> {
+
+                if (token == COMMA) {
+
+                    state = LIST_VALUE;
+
+                    return PUNCTUATION;
+
+                }
+
+                if (token == RIGHT_BRACKET) {
+
+                    return close();
+
+                }
+
+                return fail(RIGHT_BRACKET.toString());
+
+            }
+
+            case LIST_VALUE, OBJECT_VALUE -> {
+
+                return value(token, LEFT_BRACKET);
+
+            }
+
+            case OBJECT_FIRST -> {
+
+                if (token == STRING) {
+
+                    state = OBJECT_COLON;
+
+                    return KEY;
+
+                }
+
+                if (token == RIGHT_CURLY_BRACKET) {
+
+                    return close();
+
+                }
+
+                return fail(RIGHT_CURLY_BRACKET.toString());
+
+            }
+
+            case OBJECT_KEY -> {
+
+                if (token == STRING) {
+
+                    state = OBJECT_COLON;
+
+                    return KEY;
+
+                }
+
+                return fail(STRING.toString());
+
+            }
+
+            case OBJECT_COLON -> {
+
+                if (token == COLON) {
+
+                    state = OBJECT_VALUE;
+
+                    return PUNCTUATION;
+
+                }
+
+                return fail(COLON.toString());
+
+            }
+
+            case OBJECT_NEXT -> {
+
+                if (token == COMMA) {
+
+                    state = OBJECT_KEY;
+
+                    return PUNCTUATION;
+
+                }
+
+                if (token == RIGHT_CURLY_BRACKET) {
+
+                    return close();
+
+                }
+
+                return fail(RIGHT_CURLY_BRACKET.toString());
+
+            }
+
+            default -> {
+
+                return (token == EOF_$) ? END : fail("EOF");
+
+            }
+
+        }
+
+    }
+
+    private int value(final JSONParser.Token token, final JSONParser.Token otherwise) {
+
+        switch (token) {
+
+            case TRUE, FALSE, NULL, NUMBER, STRING -> {
+
+                afterValue();
+
+                return VALUE;
+
+            }
+
+            case LEFT_BRACKET -> {
+
+                return open(false);
+
+            }
+
+            case LEFT_CURLY_BRACKET -> {
+
+                return open(true);
+
+            }
+
+            default -> {
+
+                return fail(otherwise.toString());
+
+            }
+
+        }
+
+    }
+
+    private int open(final boolean object) {
+
+        if ((depth >>> 6) == containers.length) {
+
+            containers = Arrays.copyOf(containers, (containers.length * 2));
+
+        }
+
+        if (object) {
+
+            containers[depth >>> 6] |= (1L << depth);
+
+        } else {
+
+            containers[depth >>> 6] &= ~(1L << depth);
+
+        }
+
+        depth++;
+
+        state = object ? OBJECT_FIRST : LIST_FIRST;
+
+        return object ? OPEN_OBJECT : OPEN_LIST;
+    }
+
+    private int close() {
+
+        depth--;
+
+        afterValue();
+
+        return CLOSE;
+    }
+
+    private void afterValue() {
+
+        if (depth == 0) {
+
+            state = DONE;
+
+        } else {
+
+            final int parent = (depth - 1);
+
+            state = ((containers[parent >>> 6] & (1L << parent)) != 0) ? OBJECT_NEXT : LIST_NEXT;
+
+        }
+
+    }
+
+    private int fail(final String token) {
+
+        expected = token;
+
+        return ERROR;
+    }
+
+}
\ No newline at end of file
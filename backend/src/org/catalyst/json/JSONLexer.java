@@ -2,6 +2,11 @@
 
 package org.catalyst.json;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Arrays;
+
 import static org.catalyst.json.JSONParser.Token.*;
 
 
@@ -35,11 +40,11 @@ final class JSONLexer {
    * Translates characters to character classes
    */
   private static final String ZZ_CMAP_PACKED = 
-    "\11\0\1\24\1\25\2\24\1\26\22\0\1\24\1\0\1\23\11\0"+
-    "\1\6\1\0\1\21\1\0\12\20\1\5\12\0\1\22\25\0\1\3"+
-    "\1\0\1\4\3\0\1\14\3\0\1\12\1\13\5\0\1\15\1\0"+
-    "\1\17\3\0\1\10\1\16\1\7\1\11\5\0\1\1\1\0\1\2"+
-    "\7\0\1\24\u1fa2\0\2\24\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\udfe6\0";
+    "\11\0\1\26\1\27\2\26\1\30\22\0\1\26\1\0\1\25\10\0"+
+    "\1\24\1\6\1\20\1\22\1\0\12\21\1\5\12\0\1\23\25\0"+
+    "\1\3\1\0\1\4\3\0\1\14\3\0\1\12\1\13\5\0\1\15"+
+    "\1\0\1\17\3\0\1\10\1\16\1\7\1\11\5\0\1\1\1\0"+
+    "\1\2\7\0\1\26\u1fa2\0\2\26\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\uffff\0\udfe6\0";
 
   /** 
    * Translates characters to character classes
@@ -53,8 +58,8 @@ final class JSONLexer {
 
   private static final String ZZ_ACTION_PACKED_0 =
     "\1\0\1\1\1\2\1\3\1\4\1\5\1\6\1\7"+
-    "\3\1\1\10\1\1\2\11\6\0\1\12\3\0\2\10"+
-    "\1\13\1\0\1\14\1\15";
+    "\4\1\1\10\1\11\2\12\11\0\2\10\1\13\1\0"+
+    "\1\14\1\15";
 
   private static int [] zzUnpackAction() {
     int [] result = new int[31];
@@ -82,10 +87,10 @@ final class JSONLexer {
   private static final int [] ZZ_ROWMAP = zzUnpackRowMap();
 
   private static final String ZZ_ROWMAP_PACKED_0 =
-    "\0\0\0\27\0\27\0\27\0\27\0\27\0\27\0\27"+
-    "\0\56\0\105\0\134\0\163\0\212\0\27\0\241\0\270"+
-    "\0\317\0\346\0\375\0\u0114\0\212\0\27\0\u012b\0\u0142"+
-    "\0\u0159\0\375\0\u0170\0\27\0\u0187\0\27\0\27";
+    "\0\0\0\31\0\31\0\31\0\31\0\31\0\31\0\31"+
+    "\0\62\0\113\0\144\0\175\0\226\0\31\0\31\0\257"+
+    "\0\310\0\341\0\372\0\u0113\0\u012c\0\u0145\0\u015e\0\u0177"+
+    "\0\u0190\0\u0190\0\u01a9\0\31\0\u01c2\0\31\0\31";
 
   private static int [] zzUnpackRowMap() {
     int [] result = new int[31];
@@ -112,16 +117,16 @@ final class JSONLexer {
 
   private static final String ZZ_TRANS_PACKED_0 =
     "\1\2\1\3\1\4\1\5\1\6\1\7\1\10\1\11"+
-    "\3\2\1\12\3\2\1\13\1\14\2\2\1\15\2\16"+
-    "\1\17\37\0\1\20\32\0\1\21\23\0\1\22\27\0"+
-    "\1\23\5\0\1\14\1\24\1\23\4\0\23\25\1\26"+
-    "\3\25\25\0\1\16\12\0\1\27\32\0\1\30\26\0"+
-    "\1\31\31\0\1\32\26\0\1\33\20\0\1\34\32\0"+
-    "\1\35\25\0\1\36\23\0\1\23\5\0\1\33\1\0"+
-    "\1\23\16\0\1\37\14\0";
+    "\3\2\1\12\3\2\1\13\1\14\1\15\3\2\1\16"+
+    "\2\17\1\20\41\0\1\21\34\0\1\22\25\0\1\23"+
+    "\40\0\1\15\21\0\1\24\6\0\1\15\1\25\1\24"+
+    "\34\0\1\17\12\0\1\26\34\0\1\27\30\0\1\30"+
+    "\33\0\1\31\1\32\2\0\1\31\25\0\1\33\21\0"+
+    "\1\34\34\0\1\35\27\0\1\36\34\0\1\32\21\0"+
+    "\1\24\6\0\1\33\1\0\1\24\17\0\1\37\16\0";
 
   private static int [] zzUnpackTrans() {
-    int [] result = new int[414];
+    int [] result = new int[475];
     int offset = 0;
     offset = zzUnpackTrans(ZZ_TRANS_PACKED_0, offset, result);
     return result;
@@ -159,8 +164,8 @@ final class JSONLexer {
   private static final int [] ZZ_ATTRIBUTE = zzUnpackAttribute();
 
   private static final String ZZ_ATTRIBUTE_PACKED_0 =
-    "\1\0\7\11\5\1\1\11\1\1\6\0\1\11\3\0"+
-    "\2\1\1\11\1\0\2\11";
+    "\1\0\7\11\5\1\2\11\1\1\11\0\2\1\1\11"+
+    "\1\0\2\11";
 
   private static int [] zzUnpackAttribute() {
     int [] result = new int[31];
@@ -240,14 +245,388 @@ final class JSONLexer {
 
   /* user code: */
 
+    /*
+
+    Only the offset of a token is known (%line and %column would update a line and
+    column for every character matched). Lines and columns are looked up in the
+    LineIndex the input is read through, so create lexers with of() and point them
+    at new input with reset().
+
+    */
+
+    private final LineIndex lineIndex = new LineIndex();
+
+    static JSONLexer of(final Reader reader) {
+
+        final JSONLexer jsonLexer = new JSONLexer(null);
+
+        jsonLexer.reset(reader);
+
+        return jsonLexer;
+    }
+
+    void reset(final Reader reader) {
+
+        yyreset(lineIndex.reset(reader));
+
+        spilled = null;
+
+    }
+
+    public long offset() {
+
+        if (spilled != null) {
+
+            return spilledOffset;
+
+        }
+
+        return offset(zzStartRead);
+    }
+
+    private long offset(final int at) {
+
+        return (lineIndex.delivered() - (zzEndRead + zzFinalHighSurrogate) + at);
+    }
+
     public int line() {
 
-        return (yyline + 1);
+        return (spilled != null) ? spilledLine : (lineIndex.line(offset()) + 1);
     }
 
     public int column() {
 
-        return (yycolumn + 1);
+        return (spilled != null) ? spilledColumn : (lineIndex.column(offset()) + 1);
+    }
+
+    /*
+
+    Strings are scanned by hand rather than by a rule, so that one longer than
+    spillThreshold chars can be written out (see SpilledString) while it is read,
+    instead of zzBuffer doubling until the whole token fits. Escapes are checked
+    as they are passed; a string without any is copied straight out of zzBuffer,
+    the others are decoded into the reused decoded buffer (see StringDecoder).
+
+    */
+
+    private int spillThreshold = Integer.MAX_VALUE;
+
+    private Path spillDirectory;
+
+    // the current token, if it is a spilled string, with its position
+    private SpilledString spilled;
+
+    private long spilledOffset;
+
+    private int spilledLine;
+
+    private int spilledColumn;
+
+    // whether the current string token has escapes
+    private boolean escapes;
+
+    private char[] decoded = new char[64];
+
+    void spillStrings(final int threshold, final Path directory) {
+
+        spillThreshold = threshold;
+
+        spillDirectory = directory;
+
+    }
+
+    JSONParser.Token nextToken() throws IOException {
+
+        spilled = null;
+
+        return yylex();
+    }
+
+    SpilledString spilled() {
+
+        return spilled;
+    }
+
+    private JSONParser.Token string() throws IOException {
+
+        // zzStartRead is at the opening quote, zzMarkedPos just after it
+        int at = zzMarkedPos;
+
+        escapes = false;
+
+        while (true) {
+
+            at = plain(at);
+
+            if (at < zzEndRead) {
+
+                if (zzBuffer[at] == '"') {
+
+                    zzMarkedPos = (at + 1);
+
+                    return closeString(at);
+
+                }
+
+                final int length = escape(at);
+
+                if (length > 0) {
+
+                    escapes = true;
+
+                    at += length;
+
+                    continue;
+
+                }
+
+            }
+
+            if ((spilled != null) || ((at - zzStartRead - 1) > spillThreshold)) {
+
+                spill(at);
+
+            }
+
+            // zzRefill() grows the buffer when zzCurrentPos is at its end
+            zzMarkedPos = at;
+
+            zzCurrentPos = zzEndRead;
+
+            final int shift = zzStartRead;
+
+            if (zzRefill()) {
+
+                // unterminated: the quote on its own is the unexpected token, as with [^]
+                final String position = String.format(" [line %d, column %d]", line(), column());
+
+                if (spilled != null) {
+
+                    spilled.close();
+
+                }
+
+                throw new RuntimeException("unexpected token: \"" + position);
+
+            }
+
+            at -= shift;
+
+        }
+
+    }
+
+    private int plain(final int from) {
+
+        final char[] buffer = zzBuffer;
+
+        final int end = zzEndRead;
+
+        int at = from;
+
+        while ((at < end) && (buffer[at] != '"') && (buffer[at] != '\\')) {
+
+            at++;
+
+        }
+
+        return at;
+    }
+
+    /*
+
+    Length of the escape at zzBuffer[at], or 0 if the buffer ends before it does.
+    A bad escape is an unexpected token of its own: the backslash and the next
+    character, which for a u is all of it even when a later hex digit is wrong.
+
+    */
+
+    private int escape(final int at) throws IOException {
+
+        if ((at + 1) == zzEndRead) {
+
+            return 0;
+
+        }
+
+        final char c = zzBuffer[at + 1];
+
+        if (c == 'u') {
+
+            for (int i = (at + 2); i < (at + 6); i++) {
+
+                if (i == zzEndRead) {
+
+                    return 0;
+
+                }
+
+                if (StringDecoder.hex(zzBuffer[i]) < 0) {
+
+                    throw badEscape(at, 2);
+
+                }
+
+            }
+
+            return 6;
+
+        }
+
+        if (StringDecoder.isShortEscape(c)) {
+
+            return 2;
+
+        }
+
+        if (!Character.isHighSurrogate(c)) {
+
+            throw badEscape(at, 2);
+
+        }
+
+        if ((at + 2) == zzEndRead) {
+
+            return 0;
+
+        }
+
+        throw badEscape(at, Character.isLowSurrogate(zzBuffer[at + 2]) ? 3 : 2);
+    }
+
+    private RuntimeException badEscape(final int at, final int length) throws IOException {
+
+        final long offset = offset(at);
+
+        final String position = String.format(" [line %d, column %d]",
+                (lineIndex.line(offset) + 1), (lineIndex.column(offset) + 1));
+
+        if (spilled != null) {
+
+            spilled.close();
+
+        }
+
+        return new RuntimeException("unexpected token: " + new String(zzBuffer, at, length) + position);
+    }
+
+    // decodes zzBuffer[from, to) into decoded and returns the decoded length
+    private int decode(final int from, final int to) {
+
+        if (decoded.length < (to - from)) {
+
+            decoded = new char[Math.max((to - from), (decoded.length * 2))];
+
+        }
+
+        return StringDecoder.decode(zzBuffer, from, to, decoded, 0);
+    }
+
+    private void spill(final int at) throws IOException {
+
+        int from = zzStartRead;
+
+        if (spilled == null) {
+
+            spilledOffset = offset();
+
+            spilledLine = line();
+
+            spilledColumn = column();
+
+            spilled = SpilledString.create(spillDirectory);
+
+            from++;
+
+        }
+
+        if (escapes) {
+
+            final int length = decode(from, at);
+
+            spilled.write(decoded, 0, length);
+
+        } else {
+
+            spilled.write(zzBuffer, from, (at - from));
+
+        }
+
+        // the written part can be dropped at the next refill
+        zzStartRead = at;
+
+    }
+
+    private JSONParser.Token closeString(final int quote) throws IOException {
+
+        if ((spilled == null) && ((quote - zzStartRead - 1) <= spillThreshold)) {
+
+            return JSONParser.Token.STRING;
+
+        }
+
+        final boolean streamed = (spilled != null);
+
+        final int start = zzStartRead;
+
+        spill(quote);
+
+        spilled.finish();
+
+        if (!streamed) {
+
+            // the whole token is still in the buffer
+            zzStartRead = start;
+
+        }
+
+        return JSONParser.Token.STRING;
+    }
+
+    public String unquoted() {
+
+        if (escapes) {
+
+            final int length = decode((zzStartRead + 1), (zzMarkedPos - 1));
+
+            return new String(decoded, 0, length);
+
+        }
+
+        return new String(zzBuffer, (zzStartRead + 1), (zzMarkedPos - zzStartRead - 2));
+    }
+
+    // whether the current string token is chars once unquoted, without making a String of it
+    boolean unquotedEquals(final char[] chars) {
+
+        if (spilled != null) {
+
+            return false;
+
+        }
+
+        if (escapes) {
+
+            final int length = decode((zzStartRead + 1), (zzMarkedPos - 1));
+
+            return Arrays.equals(decoded, 0, length, chars, 0, chars.length);
+
+        }
+
+        return Arrays.equals(zzBuffer, (zzStartRead + 1), (zzMarkedPos - 1), chars, 0, chars.length);
+    }
+
+    long unquoted(final OffHeapArena arena) {
+
+        if (escapes) {
+
+            final int length = decode((zzStartRead + 1), (zzMarkedPos - 1));
+
+            return arena.string(decoded, 0, length);
+
+        }
+
+        return arena.string(zzBuffer, (zzStartRead + 1), (zzMarkedPos - zzStartRead - 2));
     }
 
 
@@ -272,7 +651,7 @@ final class JSONLexer {
     char [] map = new char[0x110000];
     int i = 0;  /* index in packed string  */
     int j = 0;  /* index in unpacked array */
-    while (i < 122) {
+    while (i < 124) {
       int  count = packed.charAt(i++);
       char value = packed.charAt(i++);
       do map[j++] = value; while (--count > 0);
@@ -500,62 +879,6 @@ final class JSONLexer {
     while (true) {
       zzMarkedPosL = zzMarkedPos;
 
-      boolean zzR = false;
-      int zzCh;
-      int zzCharCount;
-      for (zzCurrentPosL = zzStartRead  ;
-           zzCurrentPosL < zzMarkedPosL ;
-           zzCurrentPosL += zzCharCount ) {
-        zzCh = Character.codePointAt(zzBufferL, zzCurrentPosL, zzMarkedPosL);
-        zzCharCount = Character.charCount(zzCh);
-        switch (zzCh) {
-        case '\u000B':  // fall through
-        case '\u000C':  // fall through
-        case '\u0085':  // fall through
-        case '\u2028':  // fall through
-        case '\u2029':
-          yyline++;
-          yycolumn = 0;
-          zzR = false;
-          break;
-        case '\r':
-          yyline++;
-          yycolumn = 0;
-          zzR = true;
-          break;
-        case '\n':
-          if (zzR)
-            zzR = false;
-          else {
-            yyline++;
-            yycolumn = 0;
-          }
-          break;
-        default:
-          zzR = false;
-          yycolumn += zzCharCount;
-        }
-      }
-
-      if (zzR) {
-        // peek one character ahead if it is \n (if we have counted one line too much)
-        boolean zzPeek;
-        if (zzMarkedPosL < zzEndReadL)
-          zzPeek = zzBufferL[zzMarkedPosL] == '\n';
-        else if (zzAtEOF)
-          zzPeek = false;
-        else {
-          boolean eof = zzRefill();
-          zzEndReadL = zzEndRead;
-          zzMarkedPosL = zzMarkedPos;
-          zzBufferL = zzBuffer;
-          if (eof) 
-            zzPeek = false;
-          else 
-            zzPeek = zzBufferL[zzMarkedPosL] == '\n';
-        }
-        if (zzPeek) yyline--;
-      }
       zzAction = -1;
 
       zzCurrentPosL = zzCurrentPos = zzStartRead = zzMarkedPosL;
@@ -666,12 +989,12 @@ final class JSONLexer {
             // fall through
           case 21: break;
           case 9: 
-            { /* WHITESPACE IGNORED */
+            { return string();
             } 
             // fall through
           case 22: break;
           case 10: 
-            { return STRING;
+            { /* WHITESPACE IGNORED */
             } 
             // fall through
           case 23: break;
@@ -2,11 +2,15 @@ package org.catalyst.json;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.catalyst.json.JSONDocument.*;
 import static org.catalyst.json.JSONParser.Token.*;
 
 public final class JSONParser {
@@ -59,19 +63,120 @@ public final class JSONParser {
 
     }
 
+    static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
     private final JSONLexer jsonLexer;
 
+    private final ReusableReader reusableReader = new ReusableReader();
+
+    // handles of the unfinished containers' children, for parseOffHeap()
+    private long[] handles = new long[64];
+
+    private int handleCount;
+
+    // values spilled during the current parse()
+    private final List<SpilledString> spills = new ArrayList<>();
+
+    // objects a RecordShape samples before it is used, 0 = none
+    private int shapeSamples;
+
     public JSONParser(final Reader reader) {
 
-        jsonLexer = new JSONLexer(reader);
+        jsonLexer = JSONLexer.of(reader);
 
     }
 
+    public JSONParser() {
+
+        this(null);
+
+    }
+
+    /*
+
+    Points the parser at new input, keeping the lexer and its buffer. Parsing a
+    small document after a reset allocates only the result.
+
+    */
+
+    public JSONParser reset(final Reader reader) {
+
+        jsonLexer.reset(reader);
+
+        lookAheadToken = null;
+
+        return this;
+    }
+
+    public JSONParser reset(final String json) {
+
+        return reset(reusableReader.reset(json));
+    }
+
+    public JSONParser reset(final byte[] json) {
+
+        return reset(json, 0, json.length);
+    }
+
+    public JSONParser reset(final byte[] json, final int offset, final int length) {
+
+        return reset(reusableReader.reset(json, offset, length));
+    }
+
+    /*
+
+    Strings longer than threshold chars are not held in the lexer's buffer but
+    written to a temporary file in directory as they are read, so memory stays
+    bounded however long one value is. parse() returns such values as
+    SpilledString instead of String; the caller closes them. Keys are always
+    Strings. A syntax error at a spilled value quotes its first 64 chars,
+    unescaped, and "..." rather than all of its source text, which is gone.
+
+    */
+
+    public JSONParser spillStrings(final int threshold, final Path directory) {
+
+        jsonLexer.spillStrings(threshold, directory);
+
+        return this;
+    }
+
+    /*
+
+    Lists of objects that all have the same keys in the same order, e.g. millions
+    of records, are parsed faster once the first samples objects of a list have
+    agreed on them (see RecordShape). The result is the same; an object that
+    differs is parsed the generic way. 0 turns it off again.
+
+    */
+
+    public JSONParser learnShapes(final int samples) {
+
+        if (samples < 0) {
+
+            throw new IllegalArgumentException("samples must not be negative: " + samples);
+
+        }
+
+        shapeSamples = samples;
+
+        return this;
+    }
+
+    // the offset in chars of the token being parsed, e.g. the one parse() failed at
+    long offset() {
+
+        return jsonLexer.offset();
+    }
+
     private Token next() {
 
         try {
 
-            return jsonLexer.yylex();
+            return jsonLexer.nextToken();
 
         } catch (final IOException e) {
 
@@ -85,17 +190,75 @@ public final class JSONParser {
 
     public Object parse() {
 
-        lookAheadToken = next();
+        try {
+
+            lookAheadToken = next();
+
+            final Object json = start();
+
+            if (lookAheadToken != EOF_$) {
 
-        final Object json = start();
+                throw syntaxException("EOF");
 
-        if (lookAheadToken != EOF_$) {
+            }
 
-            throw syntaxException("EOF");
+            return json;
+
+        } catch (final RuntimeException exception) {
+
+            // the strings spilled so far belong to a tree nobody will see
+            spills.forEach(JSONParser::close);
+
+            throw exception;
+
+        } finally {
+
+            spills.clear();
 
         }
-        
-        return json;
+
+    }
+
+    /*
+
+    Same grammar and errors as parse(), but the tree goes to memory outside the
+    heap, so a large document does not become millions of live objects for the
+    garbage collector to trace. The returned document must be closed.
+
+    Strings are stored as UTF-8, which has no form for a lone surrogate (an
+    unpaired half of a pair, e.g. from an escape), so one reads back as '?'
+    where parse() keeps it.
+
+    */
+
+    public JSONDocument parseOffHeap() {
+
+        final OffHeapArena arena = new OffHeapArena();
+
+        try {
+
+            lookAheadToken = next();
+
+            handleCount = 0;
+
+            final long root = (lookAheadToken == LEFT_BRACKET) ? offHeapList(arena) : offHeapObject(arena);
+
+            if (lookAheadToken != EOF_$) {
+
+                throw syntaxException("EOF");
+
+            }
+
+            return new JSONDocument(arena, root);
+
+        } catch (final RuntimeException | StackOverflowError exception) {
+
+            arena.close();
+
+            throw exception;
+
+        }
+
     }
 
     private RuntimeException syntaxException(final Token token) {
@@ -105,7 +268,13 @@ public final class JSONParser {
 
     private RuntimeException syntaxException(final String expected) {
 
-        return semanticException(String.format("expected %s but found %s", expected, jsonLexer.yytext()));
+        final SpilledString spilled = jsonLexer.spilled();
+
+        final String found = (spilled == null)
+                ? jsonLexer.yytext()
+                : ("\"" + spilled.subSequence(0, Math.min(spilled.length(), 64)) + "...\"");
+
+        return semanticException(String.format("expected %s but found %s", expected, found));
     }
 
     private RuntimeException semanticException(final String message) {
@@ -126,51 +295,71 @@ public final class JSONParser {
 
     }
 
-    private String getMatch(final Token token) {
+    private String getString() {
 
-        if (lookAheadToken != token) {
+        if (lookAheadToken != STRING) {
 
-            throw syntaxException(token);
+            throw syntaxException(STRING);
 
         }
 
-        final String text = jsonLexer.yytext();
+        final SpilledString spilled = jsonLexer.spilled();
+
+        final String text = (spilled == null) ? jsonLexer.unquoted() : spilled.toString();
+
+        if (spilled != null) {
+
+            close(spilled);
+
+        }
 
         lookAheadToken = next();
 
         return text;
     }
-    
-    private boolean didMatch(final Token token) {
-        
-        if (lookAheadToken == token) {
 
-            lookAheadToken = next();
-            
-            return true;
-            
+    private Object stringValue() {
+
+        final SpilledString spilled = jsonLexer.spilled();
+
+        if (spilled == null) {
+
+            return getString();
+
         }
-        
-        return false;
+
+        spills.add(spilled);
+
+        lookAheadToken = next();
+
+        return spilled;
     }
-    
-    private record Result(String text, boolean matched) { }
 
-    private static final Result NO = new Result(null, false);
+    private static void close(final SpilledString spilled) {
 
-    private Result tryMatch(final Token token) {
+        try {
 
-        if (lookAheadToken != token) {
+            spilled.close();
+
+        } catch (final IOException e) {
 
-            return NO;
+            throw new RuntimeException(e);
 
         }
 
-        final String text = jsonLexer.yytext();
+    }
+    
+    private boolean didMatch(final Token token) {
+        
+        if (lookAheadToken == token) {
 
-        lookAheadToken = next();
+            lookAheadToken = next();
+            
+            return true;
+            
+        }
         
-        return new Result(text, true);
+        return false;
     }
     
     /*
@@ -232,48 +421,58 @@ public final class JSONParser {
     }
     
     private List<Object> list() {
+
+        return list((shapeSamples > 0) ? new RecordShape(shapeSamples) : null);
+    }
+
+    // shape is that of the list's objects, null when shapes are off
+    private List<Object> list(final RecordShape shape) {
         
         match(LEFT_BRACKET);
 
         final List<Object> objects = new ArrayList<>();
         
-        listValues(objects);
+        listValues(objects, shape);
         
         match(RIGHT_BRACKET);
         
         return objects;
     }
     
-    private void listValues(final List<Object> objects) {
-        
-        if ((lookAheadToken == TRUE)
+    private boolean startsValue() {
+
+        return (lookAheadToken == TRUE)
                 || (lookAheadToken == FALSE)
                 || (lookAheadToken == NULL)
                 || (lookAheadToken == NUMBER)
                 || (lookAheadToken == STRING)
                 || (lookAheadToken == LEFT_BRACKET)
-                || (lookAheadToken == LEFT_CURLY_BRACKET)) {
+                || (lookAheadToken == LEFT_CURLY_BRACKET);
+    }
+
+    private void listValues(final List<Object> objects, final RecordShape shape) {
+        
+        if (startsValue()) {
             
-            final Object object = entryValue();
+            final Object object = shapedValue(shape);
             
             objects.add(object);
             
-            remainingListValues(objects);
+            remainingListValues(objects, shape);
             
         }
         
     }
 
-    private void remainingListValues(final List<Object> objects) {
+    // remainingListValues is right recursive; it is a loop so long lists cannot overflow the stack
+    private void remainingListValues(final List<Object> objects, final RecordShape shape) {
 
-        if (didMatch(COMMA)) {
+        while (didMatch(COMMA)) {
             
-            final Object object = entryValue();
+            final Object object = shapedValue(shape);
             
             objects.add(object);
             
-            remainingListValues(objects);
-            
         }
         
     }
@@ -294,21 +493,19 @@ public final class JSONParser {
             
         }
         
-        Result result = tryMatch(NUMBER);
-        
-        if (result.matched()) {
+        if (lookAheadToken == NUMBER) {
+            
+            final double number = number();
+
+            lookAheadToken = next();
             
-            return Double.parseDouble(result.text());
+            return number;
             
         }
         
-        result = tryMatch(STRING);
-        
-        if (result.matched()) {
-            
-            final String text = result.text();
+        if (lookAheadToken == STRING) {
             
-            return text.substring(1, (text.length() - 1));
+            return stringValue();
 
         }
 
@@ -322,6 +519,125 @@ public final class JSONParser {
         
     }
 
+    // an entryValue at a place a shape covers: its objects are sampled or matched against the shape
+    private Object shapedValue(final RecordShape shape) {
+
+        if (shape == null) {
+
+            return entryValue();
+
+        }
+
+        if (lookAheadToken == LEFT_BRACKET) {
+
+            return list(shape.elements());
+
+        }
+
+        if (lookAheadToken != LEFT_CURLY_BRACKET) {
+
+            return entryValue();
+
+        }
+
+        if (shape.learning()) {
+
+            return sampledObject(shape);
+
+        }
+
+        return (shape.keys() != null) ? shapedObject(shape) : object();
+    }
+
+    private Map<Object, Object> sampledObject(final RecordShape shape) {
+
+        match(LEFT_CURLY_BRACKET);
+
+        final Map<Object, Object> objectMap = new HashMap<>();
+
+        final List<String> keys = new ArrayList<>();
+
+        if (lookAheadToken == STRING) {
+
+            keys.add(entry(objectMap));
+
+            while (didMatch(COMMA)) {
+
+                keys.add(entry(objectMap));
+
+            }
+
+        }
+
+        match(RIGHT_CURLY_BRACKET);
+
+        shape.sample(keys, objectMap.size());
+
+        return objectMap;
+    }
+
+    /*
+
+    Each key is compared with the shape's next one where it lies in the lexer's
+    buffer, and the shape's String is put in the map instead of a new one. From
+    the first key that differs the rest of the object is parsed the generic way,
+    so errors are the same as object()'s.
+
+    */
+
+    private Map<Object, Object> shapedObject(final RecordShape shape) {
+
+        match(LEFT_CURLY_BRACKET);
+
+        final String[] keys = shape.keys();
+
+        // sized as object()'s, so the map iterates in the same order
+        final Map<Object, Object> objectMap = new HashMap<>();
+
+        for (int i = 0; i < keys.length; i++) {
+
+            if ((i > 0) && !didMatch(COMMA)) {
+
+                // fewer keys than the shape
+                break;
+
+            }
+
+            if ((lookAheadToken != STRING) || !jsonLexer.unquotedEquals(shape.chars(i))) {
+
+                if (i == 0) {
+
+                    entries(objectMap);
+
+                } else {
+
+                    entry(objectMap);
+
+                    moreEntries(objectMap);
+
+                }
+
+                match(RIGHT_CURLY_BRACKET);
+
+                return objectMap;
+
+            }
+
+            lookAheadToken = next();
+
+            match(COLON);
+
+            objectMap.put(keys[i], shapedValue(shape.child(i)));
+
+        }
+
+        moreEntries(objectMap);
+
+        match(RIGHT_CURLY_BRACKET);
+
+        return objectMap;
+    }
+
     private Map<Object, Object> object() {
 
         match(LEFT_CURLY_BRACKET);
@@ -347,23 +663,20 @@ public final class JSONParser {
 
     }
 
+    // moreEntries is right recursive as well
     private void moreEntries(final Map<Object, Object> objectMap) {
 
-        if (didMatch(COMMA)) {
+        while (didMatch(COMMA)) {
 
             entry(objectMap);
 
-            moreEntries(objectMap);
-
         }
 
     }
 
-    private void entry(final Map<Object, Object> objectMap) {
+    private String entry(final Map<Object, Object> objectMap) {
 
-        final String entry = getMatch(STRING);
-        
-        final String entryString = entry.substring(1, (entry.length() - 1));
+        final String entryString = getString();
         
         match(COLON);
 
@@ -371,6 +684,250 @@ public final class JSONParser {
         
         objectMap.put(entryString, value);
         
+        return entryString;
     }
     
+    /*
+
+    Numbers of up to 15 digits without an exponent are converted here: the digits
+    and the power of ten are both exact doubles, so one division rounds the same
+    way Double.parseDouble does, without making a String of the token.
+
+    */
+
+    private double number() {
+
+        final int length = jsonLexer.yylength();
+
+        if (length <= 17) {
+
+            final boolean negative = (jsonLexer.yycharat(0) == '-');
+
+            long digits = 0;
+
+            int count = 0;
+
+            int fraction = -1;
+
+            for (int i = (negative ? 1 : 0); i < length; i++) {
+
+                final char c = jsonLexer.yycharat(i);
+
+                if (c == '.') {
+
+                    fraction = 0;
+
+                    continue;
+
+                }
+
+                if ((c < '0') || (c > '9')) {
+
+                    // an exponent
+                    count = Integer.MAX_VALUE;
+
+                    break;
+
+                }
+
+                digits = ((digits * 10) + (c - '0'));
+
+                count++;
+
+                if (fraction >= 0) {
+
+                    fraction++;
+
+                }
+
+            }
+
+            if (count <= 15) {
+
+                final double value = (fraction > 0) ? (digits / POWERS_OF_TEN[fraction]) : digits;
+
+                return negative ? -value : value;
+
+            }
+
+        }
+
+        return Double.parseDouble(jsonLexer.yytext());
+    }
+
+    private long offHeapValue(final OffHeapArena arena) {
+
+        if (didMatch(TRUE)) {
+
+            return TRUE_TAG;
+
+        } else if (didMatch(FALSE)) {
+
+            return FALSE_TAG;
+
+        } else if (didMatch(NULL)) {
+
+            return NULL_TAG;
+
+        }
+
+        if (lookAheadToken == NUMBER) {
+
+            final long handle = offHeapNumber(arena, number());
+
+            lookAheadToken = next();
+
+            return handle;
+
+        }
+
+        if (lookAheadToken == STRING) {
+
+            return offHeapString(arena);
+
+        }
+
+        if (lookAheadToken == LEFT_CURLY_BRACKET) {
+
+            return offHeapObject(arena);
+
+        }
+
+        return offHeapList(arena);
+    }
+
+    private long offHeapList(final OffHeapArena arena) {
+
+        match(LEFT_BRACKET);
+
+        final int first = handleCount;
+
+        if (startsValue()) {
+
+            push(offHeapValue(arena));
+
+            while (didMatch(COMMA)) {
+
+                push(offHeapValue(arena));
+
+            }
+
+        }
+
+        match(RIGHT_BRACKET);
+
+        return container(arena, first, 1, LIST_TAG);
+    }
+
+    private long offHeapObject(final OffHeapArena arena) {
+
+        match(LEFT_CURLY_BRACKET);
+
+        final int first = handleCount;
+
+        if (lookAheadToken == STRING) {
+
+            offHeapEntry(arena);
+
+            while (didMatch(COMMA)) {
+
+                offHeapEntry(arena);
+
+            }
+
+        }
+
+        match(RIGHT_CURLY_BRACKET);
+
+        return container(arena, first, 2, OBJECT_TAG);
+    }
+
+    private void offHeapEntry(final OffHeapArena arena) {
+
+        if (lookAheadToken != STRING) {
+
+            throw syntaxException(STRING);
+
+        }
+
+        push(offHeapString(arena));
+
+        match(COLON);
+
+        push(offHeapValue(arena));
+
+    }
+
+    private long offHeapString(final OffHeapArena arena) {
+
+        final SpilledString spilled = jsonLexer.spilled();
+
+        final long address = (spilled == null) ? jsonLexer.unquoted(arena) : arena.string(spilled);
+
+        if (spilled != null) {
+
+            close(spilled);
+
+        }
+
+        lookAheadToken = next();
+
+        return ((address << 3) | STRING_TAG);
+    }
+
+    private static long offHeapNumber(final OffHeapArena arena, final double number) {
+
+        if ((number == (long) number) && (Math.abs(number) < MAX_INTEGER)
+                && (Double.doubleToRawLongBits(number) != NEGATIVE_ZERO)) {
+
+            return (((long) number << 3) | INTEGER_TAG);
+
+        }
+
+        final long address = arena.allocate(8);
+
+        arena.chunk(address).putDouble((int) address, number);
+
+        return ((address << 3) | NUMBER_TAG);
+    }
+
+    private void push(final long handle) {
+
+        if (handleCount == handles.length) {
+
+            handles = Arrays.copyOf(handles, (handleCount * 2));
+
+        }
+
+        handles[handleCount++] = handle;
+
+    }
+
+    /*
+
+    Writes the children pushed since first as [int size][handles] and pops them.
+
+    */
+
+    private long container(final OffHeapArena arena, final int first, final int width, final long tag) {
+
+        final int count = (handleCount - first);
+
+        final long address = arena.allocate(4 + ((long) count << 3));
+
+        final ByteBuffer chunk = arena.chunk(address);
+
+        chunk.putInt((int) address, (count / width));
+
+        for (int i = 0; i < count; i++) {
+
+            chunk.putLong(((int) address + 4 + (i << 3)), handles[first + i]);
+
+        }
+
+        handleCount = first;
+
+        return ((address << 3) | tag);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package org.catalyst.json;
+
+import java.io.Reader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+/*
+
+A bounded pool of reset-able parsers. It is shared rather than thread-local, so
+it also works for virtual threads, which are too many and too short-lived for a
+per-thread parser to be reused. When the pool is empty a new parser is made;
+when it is full a returned parser is dropped.
+
+*/
+
+public final class JSONParserPool {
+
+    private final BlockingQueue<JSONParser> parsers;
+
+    public JSONParserPool() {
+
+        this(Runtime.getRuntime().availableProcessors() * 2);
+
+    }
+
+    public JSONParserPool(final int capacity) {
+
+        parsers = new ArrayBlockingQueue<>(capacity);
+
+    }
+
+    public Object parse(final String json) {
+
+        return use(jsonParser -> jsonParser.reset(json).parse());
+    }
+
+    public Object parse(final byte[] json) {
+
+        return use(jsonParser -> jsonParser.reset(json).parse());
+    }
+
+    public Object parse(final byte[] json, final int offset, final int length) {
+
+        return use(jsonParser -> jsonParser.reset(json, offset, length).parse());
+    }
+
+    public Object parse(final Reader reader) {
+
+        return use(jsonParser -> jsonParser.reset(reader).parse());
+    }
+
+    private Object use(final Function<JSONParser, Object> parse) {
+
+        JSONParser jsonParser = parsers.poll();
+
+        if (jsonParser == null) {
+
+            jsonParser = new JSONParser();
+
+        }
+
+        try {
+
+            return parse.apply(jsonParser);
+
+        } finally {
+
+            // drop the references to the caller's input before pooling
+            jsonParser.reset("");
+
+            parsers.offer(jsonParser);
+
+        }
+
+    }
+
+}
\ No newline at end of file
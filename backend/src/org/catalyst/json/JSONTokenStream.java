@@ -0,0 +1,94 @@
+package org.catalyst.json;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+
+Raw access to the lexer for consumers that build something other than a
+Map/List tree. STRING text is returned without its quotes.
+
+*/
+
+public final class JSONTokenStream {
+
+    private final JSONLexer jsonLexer;
+
+    private JSONParser.Token token;
+
+    public JSONTokenStream(final Reader reader) {
+
+        jsonLexer = JSONLexer.of(reader);
+
+    }
+
+    public JSONParser.Token next() {
+
+        try {
+
+            token = jsonLexer.nextToken();
+
+        } catch (final IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+
+        return token;
+    }
+
+    public JSONParser.Token token() {
+
+        return token;
+    }
+
+    public String text() {
+
+        if (token == JSONParser.Token.STRING) {
+
+            return jsonLexer.unquoted();
+
+        }
+
+        return jsonLexer.yytext();
+    }
+
+    /*
+
+    Position of the current token. offset() is in characters; line() and column()
+    are worked out when they are asked for.
+
+    */
+
+    public long offset() {
+
+        return jsonLexer.offset();
+    }
+
+    public int line() {
+
+        return jsonLexer.line();
+    }
+
+    public int column() {
+
+        return jsonLexer.column();
+    }
+
+    public void expect(final JSONParser.Token expected) {
+
+        if (token != expected) {
+
+            throw error(String.format("expected %s but found %s", expected, jsonLexer.yytext()));
+
+        }
+
+    }
+
+    public RuntimeException error(final String message) {
+
+        return new RuntimeException(String.format("%s [line %d, column %d]",
+                message, jsonLexer.line(), jsonLexer.column()));
+    }
+
+}
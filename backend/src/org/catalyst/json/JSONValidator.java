@@ -0,0 +1,684 @@
+package org.catalyst.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.catalyst.json.JSONParser.Token.*;
+
+/*
+
+Checks that input is a document JSONParser would accept, without building it.
+Bytes are lexed with the same rules as json-lexer.l and the tokens are run
+through the parser's grammar as a state machine (see JSONGrammar), so nothing
+is allocated per token.
+
+Only byte offsets are tracked. Line, column and the text of the offending token
+are worked out from a second pass over the input when there is an error, so the
+error message is the one JSONParser.parse() would have thrown.
+
+*/
+
+public final class JSONValidator {
+
+    public record Result(String error, long offset, int line, int column) {
+
+        public boolean valid() {
+
+            return error == null;
+        }
+
+    }
+
+    private static final Result VALID = new Result(null, -1, 0, 0);
+
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private static final long QUOTES = ('"' * ONES);
+
+    private static final long BACKSLASHES = ('\\' * ONES);
+
+    private final JSONGrammar grammar = new JSONGrammar();
+
+    private boolean inString;
+
+    private long stringStart;
+
+    // absolute offset of bytes[0] in the current scan
+    private long base;
+
+    private boolean failed;
+
+    // null: a lexical error, otherwise the token the parser expected
+    private String expected;
+
+    private long errorStart;
+
+    private long errorEnd;
+
+    public static Result validate(final byte[] bytes) {
+
+        return validate(bytes, 0, bytes.length);
+    }
+
+    public static Result validate(final byte[] bytes, final int offset, final int length) {
+
+        final JSONValidator validator = new JSONValidator();
+
+        validator.base = -offset;
+
+        validator.scan(bytes, offset, (offset + length), true);
+
+        validator.finish(length);
+
+        if (!validator.failed) {
+
+            return VALID;
+
+        }
+
+        final Locator locator = validator.locator();
+
+        locator.accept(bytes, offset, length);
+
+        return locator.result();
+    }
+
+    public static Result validate(final Path path) throws IOException {
+
+        final JSONValidator validator = new JSONValidator();
+
+        byte[] buffer = new byte[READ_SIZE];
+
+        long total = 0;
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            int carried = 0;
+
+            while (true) {
+
+                if (carried == buffer.length) {
+
+                    // one token (a very long number) fills the buffer
+                    buffer = Arrays.copyOf(buffer, (buffer.length * 2));
+
+                }
+
+                final int read = channel.read(ByteBuffer.wrap(buffer, carried, (buffer.length - carried)));
+
+                final boolean last = (read < 0);
+
+                final int end = (carried + Math.max(read, 0));
+
+                total += Math.max(read, 0);
+
+                validator.base = (total - end);
+
+                final int consumed = validator.scan(buffer, 0, end, last);
+
+                if (validator.failed || last) {
+
+                    break;
+
+                }
+
+                carried = (end - consumed);
+
+                System.arraycopy(buffer, consumed, buffer, 0, carried);
+
+            }
+
+            if (!validator.failed) {
+
+                validator.finish(total);
+
+            }
+
+            if (!validator.failed) {
+
+                return VALID;
+
+            }
+
+            final Locator locator = validator.locator();
+
+            final ByteBuffer read = ByteBuffer.wrap(buffer);
+
+            channel.position(0);
+
+            while ((locator.position < locator.end) && (channel.read(read.clear()) > 0)) {
+
+                locator.accept(buffer, 0, read.position());
+
+            }
+
+            return locator.result();
+
+        }
+
+    }
+
+    /*
+
+    Lexes bytes [from, to) and feeds each token to the grammar. Returns the index
+    of the first byte that was not consumed: a token cut off by the end of the
+    buffer is left for the next call unless last is set. Strings are the only
+    tokens that may be of any length, so they are resumed instead.
+
+    */
+
+    private int scan(final byte[] bytes, final int from, final int to, final boolean last) {
+
+        int i = from;
+
+        while ((i < to) && !failed) {
+
+            if (inString) {
+
+                i = quoteOrBackslash(bytes, i, to);
+
+                if (i == to) {
+
+                    return to;
+
+                }
+
+                if (bytes[i] == '\\') {
+
+                    final int end = escape(bytes, i, to, last);
+
+                    if (end < 0) {
+
+                        return i;
+
+                    }
+
+                    i = end;
+
+                    continue;
+
+                }
+
+                i++;
+
+                inString = false;
+
+                token(STRING, stringStart, (base + i));
+
+                continue;
+
+            }
+
+            final int b = bytes[i];
+
+            switch (b) {
+
+                case ' ', '\t', '\n', '\r', 0x0b, 0x0c -> i++;
+
+                case '{' -> token(LEFT_CURLY_BRACKET, (base + i), (base + ++i));
+
+                case '}' -> token(RIGHT_CURLY_BRACKET, (base + i), (base + ++i));
+
+                case '[' -> token(LEFT_BRACKET, (base + i), (base + ++i));
+
+                case ']' -> token(RIGHT_BRACKET, (base + i), (base + ++i));
+
+                case ':' -> token(COLON, (base + i), (base + ++i));
+
+                case ',' -> token(COMMA, (base + i), (base + ++i));
+
+                case '"' -> {
+
+                    inString = true;
+
+                    stringStart = (base + i);
+
+                    i++;
+
+                }
+
+                case 't', 'f', 'n' -> {
+
+                    final int end = literal(bytes, i, to, last);
+
+                    if (end < 0) {
+
+                        return i;
+
+                    }
+
+                    i = end;
+
+                }
+
+                default -> {
+
+                    final int end = ((b == '-') || ((b >= '0') && (b <= '9')))
+                            ? number(bytes, i, to, last)
+                            : other(bytes, i, to, last);
+
+                    if (end < 0) {
+
+                        return i;
+
+                    }
+
+                    i = end;
+
+                }
+
+            }
+
+        }
+
+        return i;
+    }
+
+    private void finish(final long length) {
+
+        if (failed) {
+
+            return;
+
+        }
+
+        if (inString) {
+
+            unexpected(stringStart, (stringStart + 1));
+
+            return;
+
+        }
+
+        token(EOF_$, length, length);
+
+    }
+
+    /*
+
+    Eight bytes at a time: a byte equal to '"' or '\\' is a zero byte after the xor,
+    and the lowest zero byte of a word is always flagged exactly.
+
+    */
+
+    static int quoteOrBackslash(final byte[] bytes, final int from, final int to) {
+
+        int i = from;
+
+        for (; (i + 8) <= to; i += 8) {
+
+            final long word = (long) LONGS.get(bytes, i);
+
+            final long quotes = (word ^ QUOTES);
+
+            final long backslashes = (word ^ BACKSLASHES);
+
+            final long zeros = ((((quotes - ONES) & ~quotes) | ((backslashes - ONES) & ~backslashes)) & HIGHS);
+
+            if (zeros != 0) {
+
+                return (i + (Long.numberOfTrailingZeros(zeros) >>> 3));
+
+            }
+
+        }
+
+        while ((i < to) && (bytes[i] != '"') && (bytes[i] != '\\')) {
+
+            i++;
+
+        }
+
+        return i;
+    }
+
+    /*
+
+    Returns the index after the escape at bytes[i], or -1 if it is cut off by the
+    end of the buffer. One cut off by the end of the input leaves the string
+    unterminated.
+
+    */
+
+    private int escape(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        final int length = StringDecoder.escape(bytes, i, to);
+
+        if (length == 0) {
+
+            return last ? to : -1;
+
+        }
+
+        if (length < 0) {
+
+            unexpected((base + i), (base + i - length));
+
+            return (i + 1);
+
+        }
+
+        return (i + length);
+    }
+
+    private int literal(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        final byte b = bytes[i];
+
+        final String text = (b == 't') ? "true" : (b == 'f') ? "false" : "null";
+
+        int j = 1;
+
+        while ((j < text.length()) && ((i + j) < to) && (bytes[i + j] == text.charAt(j))) {
+
+            j++;
+
+        }
+
+        if (j == text.length()) {
+
+            token((b == 't') ? TRUE : (b == 'f') ? FALSE : NULL, (base + i), (base + i + j));
+
+            return (i + j);
+
+        }
+
+        if (((i + j) == to) && !last) {
+
+            return -1;
+
+        }
+
+        unexpected((base + i), (base + i + 1));
+
+        return (i + 1);
+    }
+
+    /*
+
+    "-"? [0-9]+ ("." [0-9]+)? ([eE] [+-]? [0-9]+)?, longest match: an optional
+    part that is not complete is not part of the number.
+
+    */
+
+    private int number(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        int j = (bytes[i] == '-') ? (i + 1) : i;
+
+        final int digits = j;
+
+        j = digits(bytes, j, to);
+
+        if (j == to) {
+
+            return last ? numberEnd(i, j, digits) : -1;
+
+        }
+
+        if (j == digits) {
+
+            return numberEnd(i, j, digits);
+
+        }
+
+        if (bytes[j] == '.') {
+
+            if ((j + 1) == to) {
+
+                return last ? numberEnd(i, j, digits) : -1;
+
+            }
+
+            final int fraction = digits(bytes, (j + 1), to);
+
+            if ((fraction == to) && !last) {
+
+                return -1;
+
+            }
+
+            if (fraction > (j + 1)) {
+
+                j = fraction;
+
+            }
+
+        }
+
+        if ((j < to) && ((bytes[j] == 'e') || (bytes[j] == 'E'))) {
+
+            int k = (j + 1);
+
+            if ((k < to) && ((bytes[k] == '+') || (bytes[k] == '-'))) {
+
+                k++;
+
+            }
+
+            final int exponent = digits(bytes, k, to);
+
+            if ((exponent == to) && !last) {
+
+                return -1;
+
+            }
+
+            if (exponent > k) {
+
+                j = exponent;
+
+            }
+
+        }
+
+        return numberEnd(i, j, digits);
+    }
+
+    private int numberEnd(final int start, final int end, final int digits) {
+
+        if (end == digits) {
+
+            // a lone "-"
+            unexpected((base + start), (base + start + 1));
+
+            return (start + 1);
+
+        }
+
+        token(NUMBER, (base + start), (base + end));
+
+        return end;
+    }
+
+    static int digits(final byte[] bytes, final int from, final int to) {
+
+        int i = from;
+
+        while ((i < to) && (bytes[i] >= '0') && (bytes[i] <= '9')) {
+
+            i++;
+
+        }
+
+        return i;
+    }
+
+    /*
+
+    Any other character is an error, except U+0085, U+2028 and U+2029, which the
+    lexer's \R counts as whitespace.
+
+    */
+
+    private int other(final byte[] bytes, final int i, final int to, final boolean last) {
+
+        final int lead = (bytes[i] & 0xff);
+
+        final int length = (lead >= 0xf0) ? 4 : (lead >= 0xe0) ? 3 : (lead >= 0xc0) ? 2 : 1;
+
+        if (((i + length) > to) && !last) {
+
+            return -1;
+
+        }
+
+        if (((i + length) <= to) && isLineSeparator(bytes, i, length)) {
+
+            return (i + length);
+
+        }
+
+        unexpected((base + i), (base + Math.min((i + length), to)));
+
+        return (i + 1);
+    }
+
+    static boolean isLineSeparator(final byte[] bytes, final int i, final int length) {
+
+        if (length == 2) {
+
+            return ((bytes[i] & 0xff) == 0xc2) && ((bytes[i + 1] & 0xff) == 0x85);
+
+        }
+
+        return (length == 3) && ((bytes[i] & 0xff) == 0xe2) && ((bytes[i + 1] & 0xff) == 0x80)
+                && (((bytes[i + 2] & 0xff) == 0xa8) || ((bytes[i + 2] & 0xff) == 0xa9));
+    }
+
+    private void token(final JSONParser.Token token, final long start, final long end) {
+
+        if (grammar.accept(token) == JSONGrammar.ERROR) {
+
+            fail(grammar.expected(), start, end);
+
+        }
+
+    }
+
+    private void fail(final String token, final long start, final long end) {
+
+        failed = true;
+
+        expected = token;
+
+        errorStart = start;
+
+        errorEnd = end;
+
+    }
+
+    private void unexpected(final long start, final long end) {
+
+        failed = true;
+
+        expected = null;
+
+        errorStart = start;
+
+        errorEnd = end;
+
+    }
+
+    private Locator locator() {
+
+        return new Locator(expected, errorStart, errorEnd);
+    }
+
+    /*
+
+    Second pass over the input, up to the end of the offending token: counts lines
+    and columns (see LineCounter) and collects the token's text.
+
+    */
+
+    private static final class Locator {
+
+        private final String expected;
+
+        private final long start;
+
+        private final long end;
+
+        private final ByteArrayOutputStream text = new ByteArrayOutputStream();
+
+        private final LineCounter lineCounter = new LineCounter();
+
+        private long position;
+
+        private int lineAtStart;
+
+        private int columnAtStart;
+
+        private Locator(final String expected, final long start, final long end) {
+
+            this.expected = expected;
+
+            this.start = start;
+
+            this.end = end;
+
+        }
+
+        private void accept(final byte[] bytes, final int offset, final int length) {
+
+            for (int i = offset; (i < (offset + length)) && (position < end); i++, position++) {
+
+                if (position == start) {
+
+                    lineAtStart = lineCounter.line();
+
+                    columnAtStart = lineCounter.column();
+
+                }
+
+                if (position >= start) {
+
+                    text.write(bytes[i]);
+
+                }
+
+                lineCounter.count(bytes[i] & 0xff);
+
+            }
+
+        }
+
+        private Result result() {
+
+            if (position == start) {
+
+                // the error is at the end of the input
+                lineAtStart = lineCounter.line();
+
+                columnAtStart = lineCounter.column();
+
+            }
+
+            final String found = text.toString(StandardCharsets.UTF_8);
+
+            final String message = (expected == null)
+                    ? ("unexpected token: " + found)
+                    : String.format("expected %s but found %s", expected, found);
+
+            return new Result(String.format("%s [line %d, column %d]", message, (lineAtStart + 1), (columnAtStart + 1)),
+                    start, (lineAtStart + 1), (columnAtStart + 1));
+        }
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,601 @@
+package org.catalyst.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public final class JSONWriter implements Flushable, Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private static final byte[] TRUE = "true".getBytes();
+
+    private static final byte[] FALSE = "false".getBytes();
+
+    private static final byte[] NULL = "null".getBytes();
+
+    /*
+
+    ESCAPES[c] is 0 for ASCII characters that are copied verbatim, the character
+    following the backslash for the short escapes, and 'u' for the \\u00XX form.
+
+    */
+
+    private static final byte[] ESCAPES = new byte[128];
+
+    static {
+
+        for (int c = 0; c < 0x20; c++) {
+
+            ESCAPES[c] = 'u';
+
+        }
+
+        ESCAPES['"'] = '"';
+
+        ESCAPES['\\'] = '\\';
+
+        ESCAPES['\b'] = 'b';
+
+        ESCAPES['\f'] = 'f';
+
+        ESCAPES['\n'] = 'n';
+
+        ESCAPES['\r'] = 'r';
+
+        ESCAPES['\t'] = 't';
+
+    }
+
+    private OutputStream outputStream;
+
+    private byte[] buffer;
+
+    private int position;
+
+    // one bit per open container: set once the container has its first element
+    private long[] started = new long[1];
+
+    // one bit per open container: set for an object, clear for an array
+    private long[] objects = new long[1];
+
+    private int depth;
+
+    private boolean afterField;
+
+    public JSONWriter(final OutputStream outputStream) {
+
+        this(outputStream, DEFAULT_BUFFER_SIZE);
+
+    }
+
+    public JSONWriter(final OutputStream outputStream, final int bufferSize) {
+
+        this.outputStream = outputStream;
+
+        this.buffer = new byte[Math.max(bufferSize, 64)];
+
+    }
+
+    public JSONWriter() {
+
+        this(null);
+
+    }
+
+    public JSONWriter reset(final OutputStream outputStream) {
+
+        this.outputStream = outputStream;
+
+        position = 0;
+
+        depth = 0;
+
+        afterField = false;
+
+        Arrays.fill(started, 0);
+
+        Arrays.fill(objects, 0);
+
+        return this;
+    }
+
+    public byte[] toByteArray() {
+
+        return Arrays.copyOf(buffer, position);
+    }
+
+    public JSONWriter write(final Object json) {
+
+        if (json instanceof Map<?, ?> map) {
+
+            writeStartObject();
+
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+
+                writeField(String.valueOf(entry.getKey()));
+
+                write(entry.getValue());
+
+            }
+
+            writeEndObject();
+
+        } else if (json instanceof List<?> list) {
+
+            writeStartArray();
+
+            for (final Object object : list) {
+
+                write(object);
+
+            }
+
+            writeEndArray();
+
+        } else if (json instanceof String string) {
+
+            writeString(string);
+
+        } else if (json instanceof Double number) {
+
+            writeNumber(number);
+
+        } else if (json instanceof Boolean bool) {
+
+            writeBoolean(bool);
+
+        } else if (json == null) {
+
+            writeNull();
+
+        } else if ((json instanceof Long) || (json instanceof Integer)
+                || (json instanceof Short) || (json instanceof Byte)) {
+
+            writeNumber(((Number) json).longValue());
+
+        } else if (json instanceof Number number) {
+
+            writeNumber(number.doubleValue());
+
+        } else {
+
+            writeString(json.toString());
+
+        }
+
+        return this;
+    }
+
+    public JSONWriter writeStartObject() {
+
+        return open('{');
+    }
+
+    public JSONWriter writeEndObject() {
+
+        return close('}');
+    }
+
+    public JSONWriter writeStartArray() {
+
+        return open('[');
+    }
+
+    public JSONWriter writeEndArray() {
+
+        return close(']');
+    }
+
+    public JSONWriter writeField(final String name) {
+
+        if (!inObject()) {
+
+            throw new IllegalStateException("field \"" + name + "\" outside an object");
+
+        }
+
+        if (afterField) {
+
+            throw new IllegalStateException("field \"" + name + "\" after a field without a value");
+
+        }
+
+        comma();
+
+        quoted(name);
+
+        ensure(1);
+
+        buffer[position++] = ':';
+
+        afterField = true;
+
+        return this;
+    }
+
+    public JSONWriter writeField(final String name, final Object value) {
+
+        writeField(name);
+
+        return write(value);
+    }
+
+    public JSONWriter writeString(final String string) {
+
+        separate();
+
+        quoted(string);
+
+        return this;
+    }
+
+    public JSONWriter writeBoolean(final boolean bool) {
+
+        separate();
+
+        raw(bool ? TRUE : FALSE);
+
+        return this;
+    }
+
+    public JSONWriter writeNull() {
+
+        separate();
+
+        raw(NULL);
+
+        return this;
+    }
+
+    public JSONWriter writeNumber(final long number) {
+
+        separate();
+
+        ensure(ByteFormat.MAX_NUMBER_BYTES);
+
+        position = ByteFormat.digits(number, buffer, position);
+
+        return this;
+    }
+
+    public JSONWriter writeNumber(final double number) {
+
+        if (!Double.isFinite(number)) {
+
+            throw new RuntimeException("cannot write non-finite number: " + number);
+
+        }
+
+        separate();
+
+        ensure(ByteFormat.MAX_NUMBER_BYTES);
+
+        position = ByteFormat.number(number, buffer, position);
+
+        return this;
+    }
+
+    @Override
+    public void flush() {
+
+        drain();
+
+        if (outputStream != null) {
+
+            try {
+
+                outputStream.flush();
+
+            } catch (final IOException e) {
+
+                throw new UncheckedIOException(e);
+
+            }
+
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        flush();
+
+        if (outputStream != null) {
+
+            outputStream.close();
+
+        }
+
+    }
+
+    private JSONWriter open(final char bracket) {
+
+        separate();
+
+        ensure(1);
+
+        buffer[position++] = (byte) bracket;
+
+        depth++;
+
+        if ((depth >>> 6) >= started.length) {
+
+            started = Arrays.copyOf(started, (started.length * 2));
+
+            objects = Arrays.copyOf(objects, started.length);
+
+        }
+
+        started[depth >>> 6] &= ~(1L << depth);
+
+        if (bracket == '{') {
+
+            objects[depth >>> 6] |= (1L << depth);
+
+        } else {
+
+            objects[depth >>> 6] &= ~(1L << depth);
+
+        }
+
+        return this;
+    }
+
+    private JSONWriter close(final char bracket) {
+
+        if (depth == 0) {
+
+            throw new IllegalStateException("unbalanced " + bracket);
+
+        }
+
+        if (afterField) {
+
+            throw new IllegalStateException("field without a value before " + bracket);
+
+        }
+
+        if ((bracket == '}') != inObject()) {
+
+            throw new IllegalStateException(bracket + " closes " + (inObject() ? "an object" : "an array"));
+
+        }
+
+        depth--;
+
+        ensure(1);
+
+        buffer[position++] = (byte) bracket;
+
+        return this;
+    }
+
+    // before a value: an object's values follow their field
+    private void separate() {
+
+        if (afterField) {
+
+            afterField = false;
+
+            return;
+
+        }
+
+        if (inObject()) {
+
+            throw new IllegalStateException("value in an object without a field");
+
+        }
+
+        comma();
+
+    }
+
+    private void comma() {
+
+        final long bit = (1L << depth);
+
+        if ((started[depth >>> 6] & bit) != 0) {
+
+            ensure(1);
+
+            // consecutive top-level values are written one per line
+            buffer[position++] = (byte) ((depth == 0) ? '\n' : ',');
+
+        } else {
+
+            started[depth >>> 6] |= bit;
+
+        }
+
+    }
+
+    private boolean inObject() {
+
+        return (depth > 0) && ((objects[depth >>> 6] & (1L << depth)) != 0);
+    }
+
+    private void quoted(final String string) {
+
+        final int length = string.length();
+
+        // worst case is six bytes per char (\\u00XX), three for any BMP char in UTF-8
+        ensure(Math.min((length * 6) + 2, DEFAULT_BUFFER_SIZE));
+
+        buffer[position++] = '"';
+
+        int i = 0;
+
+        while (i < length) {
+
+            // fast path: plain ASCII runs are copied a byte per char
+            final int runEnd = Math.min(length, (i + (buffer.length - position)));
+
+            while (i < runEnd) {
+
+                final char c = string.charAt(i);
+
+                if ((c >= 0x80) || (ESCAPES[c] != 0)) {
+
+                    break;
+
+                }
+
+                buffer[position++] = (byte) c;
+
+                i++;
+
+            }
+
+            if (i == length) {
+
+                break;
+
+            }
+
+            ensure(12);
+
+            final char c = string.charAt(i);
+
+            if ((c < 0x80) && (ESCAPES[c] == 0)) {
+
+                // the run stopped because the buffer was full
+                continue;
+
+            }
+
+            if (c < 0x80) {
+
+                escape(c);
+
+                i++;
+
+                continue;
+
+            }
+
+            final int end = ByteFormat.character(string, i, length, buffer, position);
+
+            if (end == position) {
+
+                // lone surrogates cannot be encoded as UTF-8
+                unicodeEscape(c);
+
+                i++;
+
+            } else {
+
+                i += ((end - position) == 4) ? 2 : 1;
+
+                position = end;
+
+            }
+
+        }
+
+        ensure(1);
+
+        buffer[position++] = '"';
+
+    }
+
+    private void escape(final char c) {
+
+        final byte escape = ESCAPES[c];
+
+        if (escape == 'u') {
+
+            unicodeEscape(c);
+
+        } else {
+
+            buffer[position++] = '\\';
+
+            buffer[position++] = escape;
+
+        }
+
+    }
+
+    private void unicodeEscape(final char c) {
+
+        buffer[position++] = '\\';
+
+        buffer[position++] = 'u';
+
+        buffer[position++] = HEX[(c >> 12) & 0xf];
+
+        buffer[position++] = HEX[(c >> 8) & 0xf];
+
+        buffer[position++] = HEX[(c >> 4) & 0xf];
+
+        buffer[position++] = HEX[c & 0xf];
+
+    }
+
+    private void raw(final byte[] bytes) {
+
+        ensure(bytes.length);
+
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+
+        position += bytes.length;
+
+    }
+
+    private void ensure(final int needed) {
+
+        if ((position + needed) <= buffer.length) {
+
+            return;
+
+        }
+
+        if (outputStream != null) {
+
+            drain();
+
+            if (needed <= buffer.length) {
+
+                return;
+
+            }
+
+        }
+
+        buffer = Arrays.copyOf(buffer, Math.max((position + needed), (buffer.length * 2)));
+
+    }
+
+    private void drain() {
+
+        if ((outputStream == null) || (position == 0)) {
+
+            return;
+
+        }
+
+        try {
+
+            outputStream.write(buffer, 0, position);
+
+        } catch (final IOException e) {
+
+            throw new UncheckedIOException(e);
+
+        }
+
+        position = 0;
+
+    }
+
+}
@@ -0,0 +1,963 @@
+package org.catalyst.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+
+Parses the records of a byte stream (see RecordScanner), e.g. a multi-GB array
+of scraped records, handing each parsed record to a consumer and each one that
+does not parse to an error sink instead of failing the whole run.
+
+A malformed record whose brackets still balance costs only its own bytes: the
+scanner has found where it ends regardless. A record that was cut off leaves
+the scanner inside it, so where the next record starts has to be found again:
+
+- a '{' or '[' right after a ',' where an object expects a key cannot be part
+  of the record, so a new one starts there;
+- failing that, a record open for longer than maxRecordBytes, or at the end of
+  the input, is cut at the first ",{" after its start, strings ignored, as a
+  string may have been cut off too and left the scanner's quotes inverted.
+
+Scanning restarts at the record found, with the bytes since buffered, so the
+records after a bad one are not lost. A ']' or '}' between records that closes
+nothing, e.g. one too many at the end of a record, is reported and skipped. So
+are a missing ',' between the records of an array and a stray one, e.g.
+before its ']'; the records themselves are kept.
+
+After a bad record, records are trusted again once one is of the same kind as
+the good ones and, for objects, starts with a key good ones have started with.
+Anything else in between is taken for a piece of the bad record: it is reported
+too, and scanning goes on at the next ",{" followed by such a key. This is best
+effort: a record cut off before any good one was seen, or in a stream whose
+records share no first keys, can take the records after it along.
+
+*/
+
+public final class LenientRecordReader {
+
+    @FunctionalInterface
+    public interface ErrorSink {
+
+        // line and column of offset, counting from 1; message is the parser's, relative to the record
+        void error(long offset, long length, int line, int column, String message);
+
+    }
+
+    private static final int READ_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_MAX_RECORD_BYTES = 16 * 1024 * 1024;
+
+    private static final int MAX_FIRST_KEYS = 16;
+
+    private static final Pattern PARSER_POSITION = Pattern.compile(" \\[line (\\d+), column (\\d+)\\]$");
+
+    private final Consumer<Object> consumer;
+
+    private final ErrorSink errorSink;
+
+    private final RecordScanner scanner = new RecordScanner();
+
+    private final RecordScanner.Listener listener = new RecordScanner.Listener() {
+
+        @Override
+        public void record(final long start, final long end) {
+
+            LenientRecordReader.this.record(start, end);
+
+        }
+
+        @Override
+        public void unmatched(final long at) {
+
+            LenientRecordReader.this.unmatched(at);
+
+        }
+
+        @Override
+        public void missingComma(final long at) {
+
+            if (resyncAt < 0) {
+
+                report(at, 0, "missing ',' before record");
+
+            }
+
+        }
+
+        @Override
+        public void strayComma(final long at) {
+
+            if (resyncAt < 0) {
+
+                report(at, 1, "stray ',' between records");
+
+            }
+
+        }
+
+    };
+
+    private final JSONParser parser = new JSONParser();
+
+    private final LineCounter lineCounter = new LineCounter();
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_SIZE);
+
+    private int maxRecordBytes = DEFAULT_MAX_RECORD_BYTES;
+
+    // the bytes from bufferStart on that are still needed: the open record's, for a resync
+    private byte[] buffer = new byte[READ_SIZE];
+
+    private long bufferStart;
+
+    private int bufferLength;
+
+    // bytes up to here have been counted by lineCounter
+    private long counted;
+
+    // where scanning restarts after the current scan, -1 = nowhere
+    private long resyncAt = -1;
+
+    private byte[] scalar = new byte[64];
+
+    // the kind of the last good record, and whether one has been bad since
+    private int lastKind = -1;
+
+    private List<byte[]> firstKeys = new ArrayList<>();
+
+    private boolean recovering;
+
+    private long records;
+
+    private long errors;
+
+    public LenientRecordReader(final Consumer<Object> consumer, final ErrorSink errorSink) {
+
+        this.consumer = consumer;
+
+        this.errorSink = errorSink;
+
+    }
+
+    public LenientRecordReader maxRecordBytes(final int maxRecordBytes) {
+
+        if (maxRecordBytes <= 0) {
+
+            throw new IllegalArgumentException("maxRecordBytes must be positive: " + maxRecordBytes);
+
+        }
+
+        this.maxRecordBytes = maxRecordBytes;
+
+        return this;
+    }
+
+    public long records() {
+
+        return records;
+    }
+
+    public long errors() {
+
+        return errors;
+    }
+
+    public void reset() {
+
+        scanner.reset();
+
+        lineCounter.reset();
+
+        bufferStart = 0;
+
+        bufferLength = 0;
+
+        counted = 0;
+
+        resyncAt = -1;
+
+        lastKind = -1;
+
+        firstKeys = new ArrayList<>();
+
+        recovering = false;
+
+        records = 0;
+
+        errors = 0;
+
+    }
+
+    // reads channel to its end and finishes; returns the number of bytes read
+    public long read(final ReadableByteChannel channel) throws IOException {
+
+        long total = 0;
+
+        while (true) {
+
+            readBuffer.clear();
+
+            final int read = channel.read(readBuffer);
+
+            if (read <= 0) {
+
+                break;
+
+            }
+
+            feed(readBuffer.array(), 0, read);
+
+            total += read;
+
+        }
+
+        finish();
+
+        return total;
+    }
+
+    public void feed(final byte[] bytes, final int offset, final int length) {
+
+        if ((bufferLength + length) > buffer.length) {
+
+            buffer = Arrays.copyOf(buffer, Math.max((buffer.length * 2), (bufferLength + length)));
+
+        }
+
+        System.arraycopy(bytes, offset, buffer, bufferLength, length);
+
+        bufferLength += length;
+
+        scan(scanner.position());
+
+        compact();
+
+    }
+
+    public void finish() {
+
+        scanner.finish(listener);
+
+        // a record still open at the end was cut off
+        while (scanner.inRecord()) {
+
+            final long start = scanner.recordStart();
+
+            final long next = nextRecord(start, end(), failure(start), true);
+
+            report(start, (((next >= 0) ? next : end()) - start), "record not closed at the end of the input");
+
+            recovering = true;
+
+            if (next < 0) {
+
+                break;
+
+            }
+
+            resume(next);
+
+            scan(next);
+
+            scanner.finish(listener);
+
+        }
+
+        countTo(end());
+
+    }
+
+    private long end() {
+
+        return (bufferStart + bufferLength);
+    }
+
+    private void scan(final long from) {
+
+        long at = from;
+
+        while (true) {
+
+            resyncAt = -1;
+
+            scanner.scan(buffer, (int) (at - bufferStart), (int) (end() - at), listener);
+
+            if ((resyncAt < 0) && scanner.inRecord() && ((end() - scanner.recordStart()) > maxRecordBytes)) {
+
+                final long start = scanner.recordStart();
+
+                resyncAt = nextRecord(start, end(), failure(start), true);
+
+                report(start, (((resyncAt >= 0) ? resyncAt : end()) - start),
+                        String.format("record not closed after %d bytes", maxRecordBytes));
+
+                recovering = true;
+
+                if (resyncAt < 0) {
+
+                    // nothing to go back to: go on from here
+                    resume(end());
+
+                    return;
+
+                }
+
+            }
+
+            if (resyncAt < 0) {
+
+                return;
+
+            }
+
+            at = resyncAt;
+
+            resume(at);
+
+        }
+
+    }
+
+    private void resume(final long at) {
+
+        scanner.resume(at, Math.max(0, scanner.recordDepth()));
+
+    }
+
+    private void record(final long start, final long end) {
+
+        if (resyncAt >= 0) {
+
+            // the bytes after a resync point are scanned again
+            return;
+
+        }
+
+        final Object record;
+
+        try {
+
+            record = parse((int) (start - bufferStart), (int) (end - start));
+
+        } catch (final RuntimeException exception) {
+
+            final long next = nextRecord(start, end, errorAt(start, end), false);
+
+            report(start, (((next >= 0) ? next : end) - start), relocate(start, exception.getMessage()));
+
+            resyncAt = next;
+
+            recovering = true;
+
+            return;
+
+        }
+
+        final int from = (int) (start - bufferStart);
+
+        final int kind = kind(buffer[from]);
+
+        if (recovering && (lastKind >= 0) && ((kind != lastKind) || !knownFirstKey(from))) {
+
+            // most likely a piece of the bad record, e.g. a value of it once its quotes were off, so the
+            // scanner has lost track: go on at the next record that starts like the good ones
+            final long next = knowsFirstKeys() ? rawRecord(start, (start + 1)) : -1;
+
+            report(start, (((next >= 0) ? next : end) - start), "unexpected record after a bad one");
+
+            resyncAt = next;
+
+            return;
+
+        }
+
+        recovering = false;
+
+        lastKind = kind;
+
+        if (kind == 0) {
+
+            learnFirstKey(from);
+
+        }
+
+        records++;
+
+        consumer.accept(record);
+
+    }
+
+    private void unmatched(final long at) {
+
+        if (resyncAt >= 0) {
+
+            return;
+
+        }
+
+        report(at, 1, String.format("unmatched '%c' between records", (char) buffer[(int) (at - bufferStart)]));
+
+        recovering = true;
+
+    }
+
+    /*
+
+    The first keys of the good object records so far, as quoted bytes, while
+    there are at most MAX_FIRST_KEYS of them; records of an array usually all
+    start with the same one or few. After a bad record only records starting
+    with one of them are trusted, and looked for.
+
+    */
+
+    private boolean knownFirstKey(final int from) {
+
+        if ((buffer[from] != '{') || (firstKeys == null) || firstKeys.isEmpty()) {
+
+            return true;
+
+        }
+
+        final long key = firstKey(from);
+
+        if (key < 0) {
+
+            return false;
+
+        }
+
+        final int keyFrom = (int) (key >>> 32);
+
+        final int keyTo = (int) key;
+
+        for (final byte[] firstKey : firstKeys) {
+
+            if (Arrays.equals(buffer, keyFrom, keyTo, firstKey, 0, firstKey.length)) {
+
+                return true;
+
+            }
+
+        }
+
+        return false;
+    }
+
+    private boolean knowsFirstKeys() {
+
+        return (firstKeys != null) && !firstKeys.isEmpty();
+    }
+
+    private void learnFirstKey(final int from) {
+
+        if ((firstKeys == null) || (!firstKeys.isEmpty() && knownFirstKey(from))) {
+
+            return;
+
+        }
+
+        final long key = firstKey(from);
+
+        if (key < 0) {
+
+            return;
+
+        }
+
+        if (firstKeys.size() == MAX_FIRST_KEYS) {
+
+            // too many to tell records by
+            firstKeys = null;
+
+            return;
+
+        }
+
+        firstKeys.add(Arrays.copyOfRange(buffer, (int) (key >>> 32), (int) key));
+
+    }
+
+    // the quoted first key of the object at from, as (start << 32 | end) in buffer; -1 if there is none
+    private long firstKey(final int from) {
+
+        final int keyFrom = skipWhitespace(from + 1);
+
+        if ((keyFrom >= bufferLength) || (buffer[keyFrom] != '"')) {
+
+            return -1;
+
+        }
+
+        for (int i = (keyFrom + 1); i < bufferLength; i++) {
+
+            if (buffer[i] == '\\') {
+
+                return -1;
+
+            }
+
+            if (buffer[i] == '"') {
+
+                return (((long) keyFrom) << 32) | (i + 1);
+
+            }
+
+        }
+
+        return -1;
+    }
+
+    // 0 = object, 1 = list, 2 = scalar
+    private static int kind(final byte first) {
+
+        return (first == '{') ? 0 : (first == '[') ? 1 : 2;
+    }
+
+    private Object parse(final int offset, final int length) {
+
+        final byte first = buffer[offset];
+
+        if ((first == '{') || (first == '[')) {
+
+            return parser.reset(buffer, offset, length).parse();
+
+        }
+
+        // the parser only takes containers, so a scalar is parsed as the element of one
+        if ((length + 2) > scalar.length) {
+
+            scalar = new byte[Math.max((scalar.length * 2), (length + 2))];
+
+        }
+
+        scalar[0] = '[';
+
+        System.arraycopy(buffer, offset, scalar, 1, length);
+
+        scalar[length + 1] = ']';
+
+        final List<?> list = (List<?>) parser.reset(scalar, 0, (length + 2)).parse();
+
+        if (list.size() != 1) {
+
+            throw new RuntimeException("unexpected token: " + new String(buffer, offset, length));
+
+        }
+
+        return list.get(0);
+    }
+
+    // the byte the parser failed at in the record from start to end, from its offset in chars
+    private long errorAt(final long start, final long end) {
+
+        final int from = (int) (start - bufferStart);
+
+        final int to = (int) (end - bufferStart);
+
+        // a scalar was parsed after a '['
+        final boolean wrapped = (buffer[from] != '{') && (buffer[from] != '[');
+
+        long chars = (parser.offset() - (wrapped ? 1 : 0));
+
+        int i = from;
+
+        while ((i < to) && (chars > 0)) {
+
+            final int b = (buffer[i++] & 0xff);
+
+            if ((b & 0xc0) != 0x80) {
+
+                chars -= (b >= 0xf0) ? 2 : 1;
+
+            }
+
+        }
+
+        while ((i < to) && ((buffer[i] & 0xc0) == 0x80)) {
+
+            i++;
+
+        }
+
+        return (bufferStart + i);
+    }
+
+    /*
+
+    Where the next record starts if the one at start was cut off and failed at
+    at; -1 if it does not look cut off. The next record then shows as a ',' and
+    '{' (or '[') either right at or after at, or inside the string just before at,
+    which took the next record's first quote as its own closing one. The bytes
+    before at parsed, so where their strings are is known.
+
+    */
+
+    private long cutOffRecord(final long start, final long at) {
+
+        final int from = (int) (start - bufferStart);
+
+        final int error = (int) (at - bufferStart);
+
+        int stringStart = -1;
+
+        int stringEnd = -1;
+
+        boolean inString = false;
+
+        boolean escaped = false;
+
+        for (int i = from; i < error; i++) {
+
+            final byte b = buffer[i];
+
+            if (inString) {
+
+                if (escaped) {
+
+                    escaped = false;
+
+                } else if (b == '\\') {
+
+                    escaped = true;
+
+                } else if (b == '"') {
+
+                    inString = false;
+
+                    stringEnd = i;
+
+                }
+
+            } else if (b == '"') {
+
+                inString = true;
+
+                stringStart = i;
+
+            }
+
+        }
+
+        if (!inString && (stringEnd >= 0) && (skipWhitespace(stringEnd + 1) >= error)) {
+
+            for (int i = (stringEnd - 1); i > stringStart; i--) {
+
+                if (((buffer[i] == '{') || (buffer[i] == '[')) && afterComma(i, stringStart)) {
+
+                    return (bufferStart + i);
+
+                }
+
+            }
+
+        }
+
+        for (int i = error; i < bufferLength; i++) {
+
+            final byte b = buffer[i];
+
+            if ((b == '{') || (b == '[')) {
+
+                return afterComma(i, from) ? (bufferStart + i) : -1;
+
+            }
+
+            if ((b == '"') || (b == '}') || (b == ']')) {
+
+                return -1;
+
+            }
+
+        }
+
+        return -1;
+    }
+
+    private int skipWhitespace(final int from) {
+
+        int i = from;
+
+        while ((i < bufferLength) && isWhitespace(buffer[i])) {
+
+            i++;
+
+        }
+
+        return i;
+    }
+
+    // whether the last byte before i that is not whitespace, and after from, is a ','
+    private boolean afterComma(final int i, final int from) {
+
+        int j = (i - 1);
+
+        while ((j > from) && isWhitespace(buffer[j])) {
+
+            j--;
+
+        }
+
+        return (j > from) && (buffer[j] == ',');
+    }
+
+    private static boolean isWhitespace(final byte b) {
+
+        return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t');
+    }
+
+    /*
+
+    Where scanning goes on after the bad record from start to end, which failed
+    to parse at at. A record that the scanner never saw closed is cut at the
+    first ",{" after at if nothing else turns up.
+
+    */
+
+    private long nextRecord(final long start, final long end, final long at, final boolean open) {
+
+        final long cut = cutOffRecord(start, at);
+
+        if (cut >= 0) {
+
+            return cut;
+
+        }
+
+        final long next = structuralRecord(start, end);
+
+        // a record never closed, or a second bad one in a row when good ones are known to go by: the
+        // scanner has lost track, e.g. of which quotes open strings
+        final boolean lost = open || (recovering && knowsFirstKeys());
+
+        return ((next >= 0) || !lost) ? next : rawRecord(start, at);
+    }
+
+    // where the record from start, open up to the end of the buffer, fails to parse
+    private long failure(final long start) {
+
+        try {
+
+            parse((int) (start - bufferStart), (int) (end() - start));
+
+        } catch (final RuntimeException exception) {
+
+            return errorAt(start, end());
+
+        }
+
+        return end();
+    }
+
+    /*
+
+    The first '{' or '[' after start, before end, that follows a ',' inside an
+    object, where only a key can follow; -1 if there is none.
+
+    */
+
+    private long structuralRecord(final long start, final long end) {
+
+        final int to = (int) (end - bufferStart);
+
+        // bit set = the container at that depth is an object; deeper ones are not told apart
+        long objects = 0;
+
+        int depth = 0;
+
+        boolean inString = false;
+
+        boolean escaped = false;
+
+        byte last = 0;
+
+        for (int i = (int) (start - bufferStart); i < to; i++) {
+
+            final byte b = buffer[i];
+
+            if (inString) {
+
+                if (escaped) {
+
+                    escaped = false;
+
+                } else if (b == '\\') {
+
+                    escaped = true;
+
+                } else if (b == '"') {
+
+                    inString = false;
+
+                    last = b;
+
+                }
+
+                continue;
+
+            }
+
+            switch (b) {
+
+                case '{', '[' -> {
+
+                    final boolean inObject = (depth > 0) && (depth <= 64) && ((objects & (1L << (depth - 1))) != 0);
+
+                    if ((last == ',') && inObject) {
+
+                        return (bufferStart + i);
+
+                    }
+
+                    if (depth < 64) {
+
+                        objects = (b == '{') ? (objects | (1L << depth)) : (objects & ~(1L << depth));
+
+                    }
+
+                    depth++;
+
+                }
+
+                case '}', ']' -> depth--;
+
+                case '"' -> inString = true;
+
+                case ' ', '\n', '\r', '\t' -> {
+
+                    continue;
+
+                }
+
+                default -> { }
+
+            }
+
+            last = b;
+
+        }
+
+        return -1;
+    }
+
+    /*
+
+    The first ",{" (",[" after list records) from at on that starts like the good
+    records did, whitespace allowed, strings not told apart.
+
+    */
+
+    private long rawRecord(final long start, final long at) {
+
+        final byte open = (lastKind == 1) ? (byte) '[' : (byte) '{';
+
+        boolean afterComma = false;
+
+        for (int i = (int) (Math.max(at, (start + 1)) - bufferStart); i < bufferLength; i++) {
+
+            final byte b = buffer[i];
+
+            if (afterComma && (b == open) && knownFirstKey(i)) {
+
+                return (bufferStart + i);
+
+            }
+
+            if (b == ',') {
+
+                afterComma = true;
+
+            } else if (!isWhitespace(b)) {
+
+                afterComma = false;
+
+            }
+
+        }
+
+        return -1;
+    }
+
+    /*
+
+    The parser's " [line l, column c]" counts from the start of the record, and a
+    scalar record was parsed inside '[' ']'; moved to count from the start of
+    the input, as the sink's line and column do.
+
+    */
+
+    private String relocate(final long start, final String message) {
+
+        final Matcher matcher = (message == null) ? null : PARSER_POSITION.matcher(message);
+
+        if ((matcher == null) || !matcher.find()) {
+
+            return message;
+
+        }
+
+        countTo(start);
+
+        final int line = Integer.parseInt(matcher.group(1));
+
+        int column = Integer.parseInt(matcher.group(2));
+
+        if (line == 1) {
+
+            final byte first = buffer[(int) (start - bufferStart)];
+
+            column += (lineCounter.column() - (((first != '{') && (first != '[')) ? 1 : 0));
+
+        }
+
+        return String.format("%s [line %d, column %d]", message.substring(0, matcher.start()),
+                (lineCounter.line() + line), column);
+    }
+
+    private void report(final long start, final long length, final String message) {
+
+        countTo(start);
+
+        errors++;
+
+        errorSink.error(start, length, (lineCounter.line() + 1), (lineCounter.column() + 1), message);
+
+    }
+
+    private void countTo(final long position) {
+
+        if (position > counted) {
+
+            lineCounter.count(buffer, (int) (counted - bufferStart), (int) (position - bufferStart));
+
+            counted = position;
+
+        }
+
+    }
+
+    // drops the bytes no record needs any more, counting their lines first
+    private void compact() {
+
+        final long keep = scanner.inRecord() ? scanner.recordStart() : scanner.position();
+
+        countTo(keep);
+
+        final int drop = (int) (keep - bufferStart);
+
+        System.arraycopy(buffer, drop, buffer, 0, (bufferLength - drop));
+
+        bufferLength -= drop;
+
+        bufferStart = keep;
+
+    }
+
+}
\ No newline at end of file
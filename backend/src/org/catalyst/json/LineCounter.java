@@ -0,0 +1,158 @@
+package org.catalyst.json;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/*
+
+Counts lines and UTF-16 columns over UTF-8 bytes the way JSONLexer and
+LineIndex do: \n, VT, FF, \r, NEL, LS and PS end a line, \r\n counts once, and a
+4-byte character takes two columns. Bytes may be fed in any number of pieces.
+
+*/
+
+final class LineCounter {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private static final long SPACES = (' ' * ONES);
+
+    private int line;
+
+    private int column;
+
+    private boolean afterCarriageReturn;
+
+    private int continuations;
+
+    private int previous;
+
+    private int beforePrevious;
+
+    // 0-based
+    int line() {
+
+        return line;
+    }
+
+    int column() {
+
+        return column;
+    }
+
+    void reset() {
+
+        line = 0;
+
+        column = 0;
+
+        afterCarriageReturn = false;
+
+        continuations = 0;
+
+        previous = 0;
+
+        beforePrevious = 0;
+
+    }
+
+    // continues from a position after an ASCII byte other than \r, e.g. the end of a record
+    void reset(final int line, final int column) {
+
+        reset();
+
+        this.line = line;
+
+        this.column = column;
+
+    }
+
+    void count(final byte[] bytes, final int from, final int to) {
+
+        int i = from;
+
+        while (i < to) {
+
+            if (((i + 8) <= to) && (continuations == 0)) {
+
+                final long word = (long) LONGS.get(bytes, i);
+
+                // eight bytes from ' ' to DEL: a column each
+                if ((((word - SPACES) | word) & HIGHS) == 0) {
+
+                    column += 8;
+
+                    afterCarriageReturn = false;
+
+                    beforePrevious = (bytes[i + 6] & 0xff);
+
+                    previous = (bytes[i + 7] & 0xff);
+
+                    i += 8;
+
+                    continue;
+
+                }
+
+            }
+
+            count(bytes[i++] & 0xff);
+
+        }
+
+    }
+
+    void count(final int b) {
+
+        final boolean continuation = ((b & 0xc0) == 0x80);
+
+        if (continuation && (continuations > 0)) {
+
+            continuations--;
+
+            final boolean nextLine = ((previous == 0xc2) && (b == 0x85))
+                    || ((beforePrevious == 0xe2) && (previous == 0x80) && ((b == 0xa8) || (b == 0xa9)));
+
+            if (nextLine) {
+
+                // the lead byte was counted as a column already
+                line++;
+
+                column = 0;
+
+            }
+
+        } else if ((b == '\n') && afterCarriageReturn) {
+
+            continuations = 0;
+
+        } else if ((b == '\n') || (b == '\r') || (b == 0x0b) || (b == 0x0c)) {
+
+            continuations = 0;
+
+            line++;
+
+            column = 0;
+
+        } else {
+
+            continuations = (b >= 0xf0) ? 3 : (b >= 0xe0) ? 2 : (b >= 0xc0) ? 1 : 0;
+
+            column += (b >= 0xf0) ? 2 : 1;
+
+        }
+
+        afterCarriageReturn = (b == '\r');
+
+        beforePrevious = previous;
+
+        previous = b;
+
+    }
+
+}
\ No newline at end of file
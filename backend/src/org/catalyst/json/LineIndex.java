@@ -0,0 +1,193 @@
+package org.catalyst.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/*
+
+Sits between JSONLexer and its input and records where lines start, so the
+lexer only has to know the offset of a token. Line terminators are the ones
+matched by \R, with \r\n counting once.
+
+Each read tells us how many characters the lexer kept in its buffer (the read
+offset); anything before them can no longer be asked about, so the line starts
+up to there are folded into a count and the index stays as small as the
+lexer's buffer.
+
+*/
+
+final class LineIndex extends Reader {
+
+    private Reader reader;
+
+    // characters handed to the lexer so far
+    private long delivered;
+
+    private int foldedLines;
+
+    private long foldedLineStart;
+
+    private long[] lineStarts = new long[64];
+
+    private int count;
+
+    private long carriageReturn = Long.MIN_VALUE;
+
+    LineIndex reset(final Reader reader) {
+
+        this.reader = reader;
+
+        delivered = 0;
+
+        foldedLines = 0;
+
+        foldedLineStart = 0;
+
+        count = 0;
+
+        carriageReturn = Long.MIN_VALUE;
+
+        return this;
+    }
+
+    long delivered() {
+
+        return delivered;
+    }
+
+    /*
+
+    0-based line and column of an offset that is still in the lexer's buffer.
+
+    */
+
+    int line(final long offset) {
+
+        return (foldedLines + startsUpTo(offset));
+    }
+
+    int column(final long offset) {
+
+        final int starts = startsUpTo(offset);
+
+        return (int) (offset - ((starts == 0) ? foldedLineStart : lineStarts[starts - 1]));
+    }
+
+    @Override
+    public int read(final char[] chars, final int offset, final int length) throws IOException {
+
+        fold(delivered - offset);
+
+        final int read = reader.read(chars, offset, length);
+
+        final long base = (delivered - offset);
+
+        for (int i = offset; i < (offset + read); i++) {
+
+            final char c = chars[i];
+
+            // skip everything but \n, VT, FF, \r, NEL, LS and PS
+            if ((c > '\r') ? ((c != 0x85) && ((c | 1) != 0x2029)) : (c < '\n')) {
+
+                continue;
+
+            }
+
+            final long position = (base + i);
+
+            if ((c == '\n') && (carriageReturn == (position - 1))) {
+
+                // \r\n: the line starts after the \n, not after the \r
+                if (count > 0) {
+
+                    lineStarts[count - 1] = (position + 1);
+
+                } else {
+
+                    foldedLineStart = (position + 1);
+
+                }
+
+                continue;
+
+            }
+
+            if (c == '\r') {
+
+                carriageReturn = position;
+
+            }
+
+            if (count == lineStarts.length) {
+
+                lineStarts = Arrays.copyOf(lineStarts, (count * 2));
+
+            }
+
+            lineStarts[count++] = (position + 1);
+
+        }
+
+        delivered += Math.max(read, 0);
+
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (reader != null) {
+
+            reader.close();
+
+        }
+
+    }
+
+    private int startsUpTo(final long offset) {
+
+        int low = 0;
+
+        int high = count;
+
+        while (low < high) {
+
+            final int middle = ((low + high) >>> 1);
+
+            if (lineStarts[middle] <= offset) {
+
+                low = (middle + 1);
+
+            } else {
+
+                high = middle;
+
+            }
+
+        }
+
+        return low;
+    }
+
+    private void fold(final long keepFrom) {
+
+        final int folded = startsUpTo(keepFrom);
+
+        if (folded == 0) {
+
+            return;
+
+        }
+
+        foldedLines += folded;
+
+        foldedLineStart = lineStarts[folded - 1];
+
+        count -= folded;
+
+        System.arraycopy(lineStarts, folded, lineStarts, 0, count);
+
+    }
+
+}
\ No newline at end of file
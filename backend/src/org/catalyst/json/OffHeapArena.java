@@ -0,0 +1,191 @@
+package org.catalyst.json;
+
+import org.catalyst.io.DirectBuffers;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/*
+
+Bump allocation over direct-buffer chunks. An address is (chunk index << 32 |
+offset in chunk), as in OffHeapKeySet. Allocations larger than a chunk get a
+chunk of their own. close() hands the chunks back to the OS right away instead
+of waiting for their buffers to be collected, where DirectBuffers can.
+
+*/
+
+final class OffHeapArena implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final int PIECE_SIZE = 8 * 1024;
+
+    private ByteBuffer[] chunks = new ByteBuffer[16];
+
+    // a piece of a string as UTF-8, on its way into a chunk
+    private final byte[] scratch = new byte[3 * PIECE_SIZE];
+
+    private int chunkCount;
+
+    private ByteBuffer current;
+
+    private int used;
+
+    private long memoryBytes;
+
+    long memoryBytes() {
+
+        return memoryBytes;
+    }
+
+    // size is a long so that callers can compute it without overflowing; a direct buffer holds at most an int of bytes
+    long allocate(final long size) {
+
+        if ((size < 0) || (size > Integer.MAX_VALUE)) {
+
+            throw new RuntimeException("value too large for an off-heap document: " + size + " bytes");
+
+        }
+
+        if ((current == null) || ((current.capacity() - used) < size)) {
+
+            if (chunks == null) {
+
+                throw new RuntimeException("document is closed");
+
+            }
+
+            if (chunkCount == chunks.length) {
+
+                chunks = Arrays.copyOf(chunks, (chunkCount * 2));
+
+            }
+
+            current = ByteBuffer.allocateDirect((int) Math.max(CHUNK_SIZE, size));
+
+            chunks[chunkCount++] = current;
+
+            memoryBytes += current.capacity();
+
+            used = 0;
+
+        }
+
+        final long address = (((long) (chunkCount - 1) << 32) | used);
+
+        used += (int) size;
+
+        return address;
+    }
+
+    /*
+
+    Gives back the end of the latest allocation, e.g. the unused part of the
+    worst case reserved for a string.
+
+    */
+
+    void trim(final long address, final int size) {
+
+        used = ((int) address + size);
+
+    }
+
+    ByteBuffer chunk(final long address) {
+
+        if (chunks == null) {
+
+            throw new RuntimeException("document is closed");
+
+        }
+
+        return chunks[(int) (address >>> 32)];
+    }
+
+    /*
+
+    Stores chars as [int byte length][UTF-8 bytes]. Unpaired surrogates become
+    '?', as String.getBytes(UTF_8) does.
+
+    */
+
+    long string(final char[] chars, final int offset, final int length) {
+
+        return string(CharBuffer.wrap(chars, offset, length));
+    }
+
+    // same for a spilled string, read straight from its mapped file
+    long string(final SpilledString string) {
+
+        return string((CharSequence) string);
+    }
+
+    // encoded a piece at a time into scratch and copied into the chunk in bulk
+    private long string(final CharSequence text) {
+
+        final int length = text.length();
+
+        final long address = allocate(4 + (3L * length));
+
+        final ByteBuffer chunk = chunk(address);
+
+        final int start = ((int) address + 4);
+
+        int at = start;
+
+        int i = 0;
+
+        while (i < length) {
+
+            int count = Math.min(PIECE_SIZE, (length - i));
+
+            if (((i + count) < length) && Character.isHighSurrogate(text.charAt(i + count - 1))) {
+
+                // keep surrogate pairs in one piece
+                count--;
+
+            }
+
+            final int end = ByteFormat.encode(text, i, (i + count), scratch, 0);
+
+            chunk.put(at, scratch, 0, end);
+
+            at += end;
+
+            i += count;
+
+        }
+
+        chunk.putInt((int) address, (at - start));
+
+        trim(address, (4 + (at - start)));
+
+        return address;
+    }
+
+    @Override
+    public void close() {
+
+        if (chunks == null) {
+
+            return;
+
+        }
+
+        final ByteBuffer[] closed = chunks;
+
+        chunks = null;
+
+        current = null;
+
+        // without Unsafe, free() does nothing and the chunks are left to the garbage collector
+        for (int i = 0; i < chunkCount; i++) {
+
+            DirectBuffers.free(closed[i]);
+
+        }
+
+    }
+
+}
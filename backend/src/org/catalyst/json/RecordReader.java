@@ -0,0 +1,171 @@
+package org.catalyst.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/*
+
+Splits a byte stream into records (see RecordScanner) and hands each one over as a
+span of a buffer that is only valid for the duration of the call. Bytes of the
+record in progress are carried over between reads; everything else is dropped.
+
+*/
+
+public final class RecordReader {
+
+    @FunctionalInterface
+    public interface Handler {
+
+        void record(long start, byte[] bytes, int offset, int length);
+
+    }
+
+    private static final int READ_SIZE = 64 * 1024;
+
+    private static final JSONParserPool PARSERS = new JSONParserPool();
+
+    private final RecordScanner scanner = new RecordScanner();
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_SIZE);
+
+    private byte[] pending = new byte[READ_SIZE];
+
+    private int pendingLength;
+
+    private long pendingStart;
+
+    public static Object parse(final byte[] bytes, final int offset, final int length) {
+
+        return PARSERS.parse(bytes, offset, length);
+    }
+
+    public RecordScanner scanner() {
+
+        return scanner;
+    }
+
+    public long position() {
+
+        return scanner.position();
+    }
+
+    public void reset(final long position) {
+
+        scanner.reset(position);
+
+        pendingLength = 0;
+
+        pendingStart = position;
+
+    }
+
+    public long read(final ReadableByteChannel channel, final Handler handler) throws IOException {
+
+        long total = 0;
+
+        while (true) {
+
+            readBuffer.clear();
+
+            final int read = channel.read(readBuffer);
+
+            if (read <= 0) {
+
+                break;
+
+            }
+
+            feed(readBuffer.array(), 0, read, handler);
+
+            total += read;
+
+        }
+
+        return total;
+    }
+
+    /*
+
+    Advances over bytes without keeping them, e.g. to pick up the scanner state at
+    the end of data that was already handled. A record still open at the end is
+    never handed over, even once it completes.
+
+    */
+
+    public void skip(final byte[] bytes, final int offset, final int length) {
+
+        scanner.scan(bytes, offset, length, (start, end) -> { });
+
+        pendingLength = 0;
+
+        pendingStart = scanner.position();
+
+    }
+
+    public void feed(final byte[] bytes, final int offset, final int length, final Handler handler) {
+
+        append(bytes, offset, length);
+
+        scanner.scan(bytes, offset, length, (start, end) -> {
+
+            if (start >= pendingStart) {
+
+                handler.record(start, pending, (int) (start - pendingStart), (int) (end - start));
+
+            }
+
+        });
+
+        compact();
+
+    }
+
+    public void finish(final Handler handler) {
+
+        scanner.finish((start, end) -> {
+
+            if (start >= pendingStart) {
+
+                handler.record(start, pending, (int) (start - pendingStart), (int) (end - start));
+
+            }
+
+        });
+
+        compact();
+
+    }
+
+    private void append(final byte[] bytes, final int offset, final int length) {
+
+        if ((pendingLength + length) > pending.length) {
+
+            pending = Arrays.copyOf(pending, Math.max((pending.length * 2), (pendingLength + length)));
+
+        }
+
+        System.arraycopy(bytes, offset, pending, pendingLength, length);
+
+        pendingLength += length;
+
+    }
+
+    private void compact() {
+
+        final long keep = scanner.inRecord()
+                ? Math.max(scanner.recordStart(), pendingStart)
+                : scanner.position();
+
+        final int drop = (int) (keep - pendingStart);
+
+        System.arraycopy(pending, drop, pending, 0, (pendingLength - drop));
+
+        pendingLength -= drop;
+
+        pendingStart = keep;
+
+    }
+
+}
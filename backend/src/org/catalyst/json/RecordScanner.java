@@ -0,0 +1,344 @@
+package org.catalyst.json;
+
+public final class RecordScanner {
+
+    @FunctionalInterface
+    public interface Listener {
+
+        void record(long start, long end);
+
+        // a ']' or '}' at at that closes nothing, or a '}' closing the top-level array; it is skipped
+        default void unmatched(long at) {
+
+        }
+
+        // a record of the top-level array starting at at with no ',' since the record before it
+        default void missingComma(long at) {
+
+        }
+
+        // a ',' at at in the top-level array with no record before it, or none after it before the ']'
+        default void strayComma(long at) {
+
+        }
+
+    }
+
+    /*
+
+    A record is a top-level value, or an element of a top-level array. Only the
+    structural characters are ASCII, so the scan is safe on raw UTF-8 bytes.
+
+    */
+
+    private int depth;
+
+    private int recordDepth = -1;
+
+    private boolean inString;
+
+    private boolean escaped;
+
+    private boolean inScalar;
+
+    private long recordStart = -1;
+
+    // in a top-level array: a record has ended and no ',' has followed it yet
+    private boolean afterRecord;
+
+    // in a top-level array: the ',' after the last record, until the next one starts
+    private long commaAt = -1;
+
+    private long position;
+
+    public long position() {
+
+        return position;
+    }
+
+    public int depth() {
+
+        return depth;
+    }
+
+    // the depth records are at: 1 in a top-level array, 0 for top-level values, -1 until it is known
+    public int recordDepth() {
+
+        return recordDepth;
+    }
+
+    public boolean inRecord() {
+
+        return (recordStart >= 0);
+    }
+
+    public long recordStart() {
+
+        return recordStart;
+    }
+
+    public void reset() {
+
+        reset(0);
+
+    }
+
+    public void reset(final long position) {
+
+        depth = 0;
+
+        recordDepth = -1;
+
+        inString = false;
+
+        escaped = false;
+
+        inScalar = false;
+
+        recordStart = -1;
+
+        afterRecord = false;
+
+        commaAt = -1;
+
+        this.position = position;
+
+    }
+
+    public void resume(final long position, final int recordDepth) {
+
+        reset(position);
+
+        this.depth = recordDepth;
+
+        this.recordDepth = recordDepth;
+
+    }
+
+    public void scan(final byte[] bytes,
+                     final int offset,
+                     final int length,
+                     final Listener listener) {
+
+        final int end = (offset + length);
+
+        for (int i = offset; i < end; i++) {
+
+            final byte b = bytes[i];
+
+            final long at = (position + (i - offset));
+
+            if (inString) {
+
+                if (escaped) {
+
+                    escaped = false;
+
+                } else if (b == '\\') {
+
+                    escaped = true;
+
+                } else if (b == '"') {
+
+                    inString = false;
+
+                    if (depth == recordDepth) {
+
+                        complete(at + 1, listener);
+
+                    }
+
+                }
+
+                continue;
+
+            }
+
+            if (inScalar) {
+
+                if ((b == ',') || (b == ']') || (b == '}') || isWhitespace(b)) {
+
+                    inScalar = false;
+
+                    complete(at, listener);
+
+                } else {
+
+                    continue;
+
+                }
+
+            }
+
+            switch (b) {
+
+                case '[', '{' -> {
+
+                    if ((b == '[') && (recordDepth < 0) && (depth == 0)) {
+
+                        recordDepth = 1;
+
+                        afterRecord = false;
+
+                        commaAt = -1;
+
+                    } else {
+
+                        begin(at, listener);
+
+                    }
+
+                    depth++;
+
+                }
+
+                case ']', '}' -> {
+
+                    if ((depth == 0) || ((b == '}') && (depth == 1) && (recordDepth == 1))) {
+
+                        // taken for the stray byte it is, so the records after it keep their depth
+                        listener.unmatched(at);
+
+                        continue;
+
+                    }
+
+                    depth--;
+
+                    if (depth == recordDepth) {
+
+                        complete(at + 1, listener);
+
+                    } else if (depth < recordDepth) {
+
+                        if (commaAt >= 0) {
+
+                            listener.strayComma(commaAt);
+
+                        }
+
+                        recordDepth = -1;
+
+                    }
+
+                }
+
+                case '"' -> {
+
+                    begin(at, listener);
+
+                    inString = true;
+
+                }
+
+                case ',' -> {
+
+                    if ((depth == 1) && (recordDepth == 1)) {
+
+                        if (afterRecord) {
+
+                            afterRecord = false;
+
+                            commaAt = at;
+
+                        } else {
+
+                            listener.strayComma(at);
+
+                        }
+
+                    }
+
+                }
+
+                case ':' -> { }
+
+                default -> {
+
+                    if (!isWhitespace(b) && (depth == settledRecordDepth())) {
+
+                        begin(at, listener);
+
+                        inScalar = true;
+
+                    }
+
+                }
+
+            }
+
+        }
+
+        position += length;
+
+    }
+
+    public void finish(final Listener listener) {
+
+        if (inScalar) {
+
+            inScalar = false;
+
+            complete(position, listener);
+
+        }
+
+    }
+
+    private int settledRecordDepth() {
+
+        if (recordDepth < 0) {
+
+            recordDepth = 0;
+
+        }
+
+        return recordDepth;
+    }
+
+    private void begin(final long at, final Listener listener) {
+
+        if ((recordStart < 0) && (depth == settledRecordDepth())) {
+
+            recordStart = at;
+
+            if (recordDepth == 1) {
+
+                if (afterRecord) {
+
+                    listener.missingComma(at);
+
+                }
+
+                afterRecord = false;
+
+                commaAt = -1;
+
+            }
+
+        }
+
+    }
+
+    private void complete(final long end, final Listener listener) {
+
+        if (recordStart >= 0) {
+
+            final long start = recordStart;
+
+            recordStart = -1;
+
+            afterRecord = (recordDepth == 1);
+
+            listener.record(start, end);
+
+        }
+
+    }
+
+    private static boolean isWhitespace(final byte b) {
+
+        return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t');
+    }
+
+}
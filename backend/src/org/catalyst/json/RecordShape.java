@@ -0,0 +1,134 @@
+package org.catalyst.json;
+
+import java.util.List;
+
+/*
+
+The keys of the objects found at one place in a document, e.g. the records of
+a list, for JSONParser.learnShapes. The first objects there are parsed the
+generic way and sampled; once samples objects in a row have had the same keys
+in the same order, the parser expects those keys from then on. Checking a key
+in place is cheaper than making, hashing and matching a new String for every
+key of every record.
+
+Values under each key, and the elements of lists found here, have shapes of
+their own, so nested records are covered too. A place whose objects keep
+changing stops sampling and is left to the generic parser.
+
+*/
+
+final class RecordShape {
+
+    private final int samples;
+
+    private List<String> candidate;
+
+    private int matches;
+
+    private int restarts;
+
+    private boolean abandoned;
+
+    private String[] keys;
+
+    private char[][] chars;
+
+    private RecordShape[] children;
+
+    private RecordShape elements;
+
+    RecordShape(final int samples) {
+
+        this.samples = samples;
+
+    }
+
+    boolean learning() {
+
+        return (keys == null) && !abandoned;
+    }
+
+    // null until the shape is learned
+    String[] keys() {
+
+        return keys;
+    }
+
+    char[] chars(final int index) {
+
+        return chars[index];
+    }
+
+    // the shape of the values under keys()[index]
+    RecordShape child(final int index) {
+
+        if (children[index] == null) {
+
+            children[index] = new RecordShape(samples);
+
+        }
+
+        return children[index];
+    }
+
+    // the shape of the elements of lists found here
+    RecordShape elements() {
+
+        if (elements == null) {
+
+            elements = new RecordShape(samples);
+
+        }
+
+        return elements;
+    }
+
+    // distinct is the number of different keys, which is less when one repeats
+    void sample(final List<String> objectKeys, final int distinct) {
+
+        final boolean usable = !objectKeys.isEmpty() && (distinct == objectKeys.size());
+
+        if (!usable || !objectKeys.equals(candidate)) {
+
+            // a place whose objects keep changing is not worth checking them at; the first one counts too
+            if (++restarts > samples) {
+
+                abandoned = true;
+
+                return;
+
+            }
+
+            candidate = usable ? objectKeys : null;
+
+            matches = 0;
+
+            if (!usable) {
+
+                return;
+
+            }
+
+        }
+
+        if (++matches == samples) {
+
+            keys = candidate.toArray(new String[0]);
+
+            chars = new char[keys.length][];
+
+            for (int i = 0; i < keys.length; i++) {
+
+                chars[i] = keys[i].toCharArray();
+
+            }
+
+            children = new RecordShape[keys.length];
+
+            candidate = null;
+
+        }
+
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,209 @@
+package org.catalyst.json;
+
+import java.io.Reader;
+
+/*
+
+A Reader over a String or a UTF-8 byte array that can be pointed at new input
+without allocating, so a reset JSONParser costs nothing beyond its result.
+Malformed UTF-8 decodes to U+FFFD, as new String(bytes, UTF_8) does.
+
+*/
+
+final class ReusableReader extends Reader {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private String string;
+
+    private byte[] bytes;
+
+    private int position;
+
+    private int end;
+
+    // low surrogate of a supplementary character that did not fit in the last read
+    private char pendingLow;
+
+    ReusableReader reset(final String string) {
+
+        this.string = string;
+
+        this.bytes = null;
+
+        position = 0;
+
+        end = string.length();
+
+        pendingLow = 0;
+
+        return this;
+    }
+
+    ReusableReader reset(final byte[] bytes, final int offset, final int length) {
+
+        this.string = null;
+
+        this.bytes = bytes;
+
+        position = offset;
+
+        end = (offset + length);
+
+        pendingLow = 0;
+
+        return this;
+    }
+
+    @Override
+    public int read(final char[] chars, final int offset, final int length) {
+
+        if (length == 0) {
+
+            return 0;
+
+        }
+
+        if (string != null) {
+
+            if (position >= end) {
+
+                return -1;
+
+            }
+
+            final int count = Math.min(length, (end - position));
+
+            string.getChars(position, (position + count), chars, offset);
+
+            position += count;
+
+            return count;
+
+        }
+
+        return decode(chars, offset, length);
+    }
+
+    @Override
+    public void close() {
+
+        string = null;
+
+        bytes = null;
+
+    }
+
+    private int decode(final char[] chars, final int offset, final int length) {
+
+        int out = offset;
+
+        final int limit = (offset + length);
+
+        if (pendingLow != 0) {
+
+            chars[out++] = pendingLow;
+
+            pendingLow = 0;
+
+        }
+
+        // fast path: ASCII bytes map one to one onto chars
+        while ((out < limit) && (position < end) && (bytes[position] >= 0)) {
+
+            chars[out++] = (char) bytes[position++];
+
+        }
+
+        while ((out < limit) && (position < end)) {
+
+            final int b = bytes[position];
+
+            if (b >= 0) {
+
+                chars[out++] = (char) b;
+
+                position++;
+
+                continue;
+
+            }
+
+            final int lead = (b & 0xff);
+
+            final int count = (lead >= 0xf0) ? 3 : (lead >= 0xe0) ? 2 : (lead >= 0xc0) ? 1 : -1;
+
+            if ((count < 0) || (lead > 0xf4) || ((position + count) >= end)
+                    || !continuations(count)) {
+
+                chars[out++] = REPLACEMENT;
+
+                position++;
+
+                continue;
+
+            }
+
+            int codePoint = (lead & (0x3f >> count));
+
+            for (int i = 1; i <= count; i++) {
+
+                codePoint = ((codePoint << 6) | (bytes[position + i] & 0x3f));
+
+            }
+
+            position += (count + 1);
+
+            if (((count == 1) && (codePoint < 0x80))
+                    || ((count == 2) && ((codePoint < 0x800) || Character.isSurrogate((char) codePoint)))
+                    || ((count == 3) && ((codePoint < 0x10000) || (codePoint > Character.MAX_CODE_POINT)))) {
+
+                chars[out++] = REPLACEMENT;
+
+            } else if (count < 3) {
+
+                chars[out++] = (char) codePoint;
+
+            } else {
+
+                chars[out++] = Character.highSurrogate(codePoint);
+
+                if (out < limit) {
+
+                    chars[out++] = Character.lowSurrogate(codePoint);
+
+                } else {
+
+                    pendingLow = Character.lowSurrogate(codePoint);
+
+                }
+
+            }
+
+        }
+
+        if ((out == offset) && (position >= end)) {
+
+            return -1;
+
+        }
+
+        return (out - offset);
+    }
+
+    private boolean continuations(final int count) {
+
+        for (int i = 1; i <= count; i++) {
+
+            if ((bytes[position + i] & 0xc0) != 0x80) {
+
+                return false;
+
+            }
+
+        }
+
+        return true;
+    }
+
+}
\ No newline at end of file
@@ -0,0 +1,220 @@
+package org.catalyst.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+
+A string value too long to keep in memory (see JSONParser.spillStrings). The
+lexer writes it to a temporary file in pieces as it reads it, so its buffer
+never has to hold the whole value. The file holds UTF-16 chars and is mapped
+when the string is complete, so charAt() only pages in what is read.
+
+close() deletes the file; one never closed is deleted once it is collected.
+
+*/
+
+public final class SpilledString implements CharSequence, Closeable {
+
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Path path;
+
+    private final Cleaner.Cleanable cleanable;
+
+    private FileChannel channel;
+
+    private ByteBuffer pending = ByteBuffer.allocate(WRITE_SIZE);
+
+    private long length;
+
+    private CharBuffer chars;
+
+    private SpilledString(final Path path) throws IOException {
+
+        this.path = path;
+
+        this.cleanable = CLEANER.register(this, new Deleter(path));
+
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.READ);
+
+    }
+
+    static SpilledString create(final Path directory) throws IOException {
+
+        return new SpilledString(Files.createTempFile(directory, "json-string", ".utf16"));
+    }
+
+    public Path path() {
+
+        return path;
+    }
+
+    @Override
+    public int length() {
+
+        return (int) length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+
+        return chars.get(index);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+
+        return chars.subSequence(start, end).toString();
+    }
+
+    public void getChars(final int start, final int end, final char[] destination, final int offset) {
+
+        chars.get(start, destination, offset, (end - start));
+
+    }
+
+    /*
+
+    Streams the value out in pieces, without making a String of all of it.
+
+    */
+
+    public void writeTo(final Writer writer) throws IOException {
+
+        final char[] piece = new char[WRITE_SIZE];
+
+        final CharBuffer source = chars.duplicate();
+
+        while (source.hasRemaining()) {
+
+            final int count = Math.min(piece.length, source.remaining());
+
+            source.get(piece, 0, count);
+
+            writer.write(piece, 0, count);
+
+        }
+
+    }
+
+    @Override
+    public String toString() {
+
+        return chars.duplicate().toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        chars = null;
+
+        if (channel != null) {
+
+            channel.close();
+
+            channel = null;
+
+        }
+
+        Files.deleteIfExists(path);
+
+        cleanable.clean();
+
+    }
+
+    void write(final char[] buffer, final int offset, final int count) throws IOException {
+
+        if ((length + count) > (Integer.MAX_VALUE / 2)) {
+
+            throw new RuntimeException("string value too long to spill: more than " + (Integer.MAX_VALUE / 2) + " chars");
+
+        }
+
+        int i = offset;
+
+        int left = count;
+
+        while (left > 0) {
+
+            if (pending.remaining() < 2) {
+
+                drain();
+
+            }
+
+            final int chunk = Math.min(left, (pending.remaining() / 2));
+
+            pending.asCharBuffer().put(buffer, i, chunk);
+
+            pending.position(pending.position() + (chunk * 2));
+
+            i += chunk;
+
+            left -= chunk;
+
+        }
+
+        length += count;
+
+    }
+
+    void finish() throws IOException {
+
+        drain();
+
+        chars = channel.map(FileChannel.MapMode.READ_ONLY, 0, (length * 2)).asCharBuffer();
+
+        channel.close();
+
+        channel = null;
+
+        pending = null;
+
+    }
+
+    private void drain() throws IOException {
+
+        pending.flip();
+
+        while (pending.hasRemaining()) {
+
+            channel.write(pending);
+
+        }
+
+        pending.clear();
+
+    }
+
+    // must not refer to the SpilledString, or it would never be collected
+    private record Deleter(Path path) implements Runnable {
+
+        @Override
+        public void run() {
+
+            try {
+
+                Files.deleteIfExists(path);
+
+            } catch (final IOException exception) {
+
+                // nobody to tell: the file stays in the temporary directory
+
+            }
+
+        }
+
+    }
+
+}
\ No newline at end of file
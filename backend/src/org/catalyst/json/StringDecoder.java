@@ -0,0 +1,171 @@
+package org.catalyst.json;
+
+/*
+
+The escapes of JSON strings: a backslash followed by one of " \ / b f n r t, or
+by u and four hex digits. JSONLexer and JSONValidator check each escape while
+they look for the closing quote, so decode() only ever sees well-formed ones
+and a string without any is never passed to it.
+
+*/
+
+final class StringDecoder {
+
+    // ESCAPES[c] is the character \c stands for, 0 if \c is not a short escape
+    private static final char[] ESCAPES = new char[128];
+
+    static {
+
+        ESCAPES['"'] = '"';
+
+        ESCAPES['\\'] = '\\';
+
+        ESCAPES['/'] = '/';
+
+        ESCAPES['b'] = '\b';
+
+        ESCAPES['f'] = '\f';
+
+        ESCAPES['n'] = '\n';
+
+        ESCAPES['r'] = '\r';
+
+        ESCAPES['t'] = '\t';
+
+    }
+
+    static boolean isShortEscape(final int c) {
+
+        return (c >= 0) && (c < ESCAPES.length) && (ESCAPES[c] != 0);
+    }
+
+    static int hex(final int c) {
+
+        if ((c >= '0') && (c <= '9')) {
+
+            return (c - '0');
+
+        }
+
+        final int lower = (c | 0x20);
+
+        if ((lower >= 'a') && (lower <= 'f')) {
+
+            return (lower - 'a' + 10);
+
+        }
+
+        return -1;
+    }
+
+    /*
+
+    Checks the escape at bytes[i], a backslash in UTF-8 input. Returns its length,
+    0 if it is cut off at to, or, if it is not an escape, minus the length of the
+    unexpected token: the backslash and the next character, which for a u is all
+    of it even when a later hex digit is wrong.
+
+    */
+
+    static int escape(final byte[] bytes, final int i, final int to) {
+
+        if ((i + 1) == to) {
+
+            return 0;
+
+        }
+
+        final int c = (bytes[i + 1] & 0xff);
+
+        if (c == 'u') {
+
+            for (int j = (i + 2); j < (i + 6); j++) {
+
+                if (j == to) {
+
+                    return 0;
+
+                }
+
+                if (hex(bytes[j]) < 0) {
+
+                    return -2;
+
+                }
+
+            }
+
+            return 6;
+
+        }
+
+        if (isShortEscape(c)) {
+
+            return 2;
+
+        }
+
+        final int length = (c >= 0xf0) ? 4 : (c >= 0xe0) ? 3 : (c >= 0xc0) ? 2 : 1;
+
+        return ((i + 1 + length) > to) ? 0 : -(1 + length);
+    }
+
+    /*
+
+    Decodes source[from, to) into target, starting at offset, and returns the end
+    of what was written. The runs between escapes are copied in bulk. The output
+    is never longer than the input, so target may be source with offset <= from.
+
+    */
+
+    static int decode(final char[] source, final int from, final int to, final char[] target, final int offset) {
+
+        int i = from;
+
+        int at = offset;
+
+        while (i < to) {
+
+            int backslash = i;
+
+            while ((backslash < to) && (source[backslash] != '\\')) {
+
+                backslash++;
+
+            }
+
+            System.arraycopy(source, i, target, at, (backslash - i));
+
+            at += (backslash - i);
+
+            if (backslash == to) {
+
+                break;
+
+            }
+
+            final char c = source[backslash + 1];
+
+            if (c == 'u') {
+
+                target[at++] = (char) ((hex(source[backslash + 2]) << 12) | (hex(source[backslash + 3]) << 8)
+                        | (hex(source[backslash + 4]) << 4) | hex(source[backslash + 5]));
+
+                i = (backslash + 6);
+
+            } else {
+
+                target[at++] = ESCAPES[c];
+
+                i = (backslash + 2);
+
+            }
+
+        }
+
+        return at;
+    }
+
+    private StringDecoder() { }
+
+}
\ No newline at end of file
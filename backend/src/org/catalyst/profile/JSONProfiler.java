@@ -0,0 +1,1062 @@
+package org.catalyst.profile;
+
+import org.catalyst.json.RecordReader;
+import org.catalyst.json.RecordScanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+
+Estimates what a large file of records (see RecordScanner) holds without
+reading all of it: how many records, how large they are on average, how often
+each key appears and which types its values have.
+
+The file is cut into as many equal strata as there are windows, and one window
+at a random offset in each is memory-mapped and sampled, in parallel. A window
+starts at an arbitrary byte, so it is resynchronized first: the head of the
+file tells how records are laid out, and the first place in the window that
+starts a record the same way (after a ',' in an array or a line break between
+top-level values, with a first key seen in the head) is taken for a record
+start. The scanner is resumed there; the records that start inside the window
+are counted and parsed, a record that fails to parse meaning the guess was
+wrong and the next one is tried.
+
+Estimates come with 95% confidence bounds: the record count from the spread of
+the record density over the windows, everything else as ratios over the
+windows (records being clustered in windows). A file no larger than the windows
+together is read whole and the estimates are exact.
+
+Key paths are dotted, "[]" standing for the elements of a list, e.g.
+"items[].price"; the records themselves are at "". Compressed files cannot be
+sampled; a file holding one huge value has no records to sample.
+
+*/
+
+public final class JSONProfiler {
+
+    public enum ValueType { STRING, NUMBER, BOOLEAN, NULL, OBJECT, ARRAY }
+
+    public record Estimate(double value, double low, double high) {
+
+        private static Estimate exact(final double value) {
+
+            return new Estimate(value, value, value);
+        }
+
+    }
+
+    /*
+
+    keys is the fraction of records having each path, most frequent first;
+    valueTypes the fraction of the values at each path that are of each type.
+
+    */
+
+    public record Profile(long fileBytes,
+                          long sampledBytes,
+                          int windows,
+                          long sampledRecords,
+                          boolean exact,
+                          Estimate records,
+                          Estimate recordBytes,
+                          Map<String, Estimate> keys,
+                          Map<String, Map<ValueType, Estimate>> valueTypes,
+                          long nanos) { }
+
+    private static final int DEFAULT_WINDOWS = 256;
+
+    private static final int DEFAULT_WINDOW_BYTES = 64 * 1024;
+
+    private static final int MAX_WINDOW_BYTES = 256 * 1024 * 1024;
+
+    // how far past its window a record that starts in it is followed
+    private static final int MAX_RECORD_BYTES = 4 * 1024 * 1024;
+
+    // bytes before a window looked at for the ',' or line break before its first record
+    private static final int LOOKBEHIND = 256;
+
+    private static final int HEAD_BYTES = 1024 * 1024;
+
+    private static final int MAX_HEAD_RECORDS = 1000;
+
+    private static final int MAX_FIRST_KEYS = 16;
+
+    // paths beyond these per window (e.g. keys that are ids) are not tracked
+    private static final int MAX_PATHS = 4096;
+
+    private static final int PIECE = 16 * 1024;
+
+    private static final double Z_95 = 1.959964;
+
+    private static final ValueType[] TYPES = ValueType.values();
+
+    /*
+
+    How the records of the file are laid out, from its head: at which depth they
+    are, whether they are containers, and which keys objects start with (null
+    when they start with too many different ones to be told apart by them).
+
+    */
+
+    private record Head(int depth, boolean containers, Set<String> firstKeys) { }
+
+    /*
+
+    What one window found. paths maps a path to the number of records having
+    it, followed by the number of values at it of each ValueType.
+
+    */
+
+    private static final class Window {
+
+        private long records;
+
+        private long parsedRecords;
+
+        private long parsedBytes;
+
+        private final Map<String, long[]> paths = new HashMap<>();
+
+    }
+
+    public static Profile profile(final Path path) throws IOException {
+
+        return profile(path, DEFAULT_WINDOWS, DEFAULT_WINDOW_BYTES,
+                Runtime.getRuntime().availableProcessors(), System.nanoTime());
+    }
+
+    public static Profile profile(final Path path,
+                                  final int windows,
+                                  final int windowBytes,
+                                  final int parallelism,
+                                  final long seed) throws IOException {
+
+        if ((windows < 2) || (windowBytes <= 0) || (windowBytes > MAX_WINDOW_BYTES)) {
+
+            throw new IllegalArgumentException("need at least 2 windows of 1 to " + MAX_WINDOW_BYTES + " bytes: "
+                    + windows + " x " + windowBytes);
+
+        }
+
+        final long start = System.nanoTime();
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            final long size = channel.size();
+
+            final Head head = head(channel, path);
+
+            // a file that small is read whole, if it can be mapped at once
+            if ((size <= ((long) windows * windowBytes)) && (size <= MAX_WINDOW_BYTES)) {
+
+                final Window whole = sample(channel, size, head, 0, size, true);
+
+                return exactProfile(size, whole, (System.nanoTime() - start));
+
+            }
+
+            final long stratum = (size / windows);
+
+            // unlike Random, close seeds do not give close offsets
+            final SplittableRandom random = new SplittableRandom(seed);
+
+            final long[] froms = new long[windows];
+
+            for (int i = 0; i < windows; i++) {
+
+                final long stratumEnd = (i == (windows - 1)) ? size : ((i + 1) * stratum);
+
+                final long slack = Math.max(0, (stratumEnd - (i * stratum) - windowBytes));
+
+                froms[i] = (i * stratum) + ((slack == 0) ? 0 : (long) (random.nextDouble() * slack));
+
+            }
+
+            final ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+
+            final List<Window> sampled = new ArrayList<>(windows);
+
+            try {
+
+                final List<ForkJoinTask<Window>> tasks = new ArrayList<>(windows);
+
+                for (final long from : froms) {
+
+                    tasks.add(pool.submit(() -> sample(channel, size, head, from,
+                            Math.min(size, (from + windowBytes)), false)));
+
+                }
+
+                for (final ForkJoinTask<Window> task : tasks) {
+
+                    sampled.add(task.join());
+
+                }
+
+            } finally {
+
+                pool.shutdown();
+
+            }
+
+            return sampledProfile(size, windowBytes, sampled, (System.nanoTime() - start));
+
+        }
+
+    }
+
+    private static Head head(final FileChannel channel, final Path path) throws IOException {
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(HEAD_BYTES, channel.size()));
+
+        while (buffer.hasRemaining() && (channel.read(buffer, buffer.position()) > 0)) {
+
+            // reads until full or at the end
+
+        }
+
+        final byte[] bytes = buffer.array();
+
+        final int length = buffer.position();
+
+        if ((length >= 2) && ((bytes[0] & 0xff) == 0x1f) && ((bytes[1] & 0xff) == 0x8b)) {
+
+            throw new RuntimeException("cannot sample a compressed file: " + path);
+
+        }
+
+        final RecordScanner scanner = new RecordScanner();
+
+        final Set<String> firstKeys = new HashSet<>();
+
+        final int[] records = new int[1];
+
+        final boolean[] containers = { true };
+
+        final boolean[] keyed = { true };
+
+        // taken per record: a file that fits in the head closes its array, resetting the scanner's depth
+        final int[] depth = { -1 };
+
+        scanner.scan(bytes, 0, length, (recordStart, recordEnd) -> {
+
+            depth[0] = scanner.recordDepth();
+
+            if (records[0]++ >= MAX_HEAD_RECORDS) {
+
+                return;
+
+            }
+
+            final byte first = bytes[(int) recordStart];
+
+            containers[0] &= ((first == '{') || (first == '['));
+
+            final String key = (first == '{') ? firstKey(bytes, (int) recordStart, (int) recordEnd) : null;
+
+            if (key == null) {
+
+                keyed[0] = false;
+
+            } else {
+
+                firstKeys.add(key);
+
+            }
+
+        });
+
+        if ((records[0] == 0) || (depth[0] < 0)) {
+
+            throw new RuntimeException("no record ends in the first " + length + " bytes of " + path
+                    + "; it holds one value too large to sample, or records larger than that");
+
+        }
+
+        final boolean byKeys = keyed[0] && (firstKeys.size() <= MAX_FIRST_KEYS);
+
+        return new Head(depth[0], containers[0], byKeys ? firstKeys : null);
+    }
+
+    /*
+
+    Counts and parses the records that start in [from, to). When synced, from is
+    known to be where scanning can start (the start of the file); otherwise the
+    first record start in the window is searched for.
+
+    */
+
+    private static Window sample(final FileChannel channel,
+                                 final long size,
+                                 final Head head,
+                                 final long from,
+                                 final long to,
+                                 final boolean synced) throws IOException {
+
+        final long regionStart = synced ? from : Math.max(0, (from - LOOKBEHIND));
+
+        final long regionEnd = synced ? to : Math.min(size, (to + MAX_RECORD_BYTES));
+
+        final int windowStart = (int) (from - regionStart);
+
+        final int windowEnd = (int) (to - regionStart);
+
+        final Region region = new Region(channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                (regionEnd - regionStart)), regionStart, size, (windowEnd + (2 * LOOKBEHIND)));
+
+        int candidate = synced ? windowStart : resync(region, head, windowStart, windowStart, windowEnd);
+
+        while (candidate >= 0) {
+
+            final Window window = new Window();
+
+            final int failed = scan(region, head, window, candidate, windowEnd, synced);
+
+            if (failed < 0) {
+
+                return window;
+
+            }
+
+            candidate = resync(region, head, windowStart, (failed + 1), windowEnd);
+
+        }
+
+        // no record starts in this window, e.g. one record spans it
+        return new Window();
+    }
+
+    /*
+
+    Returns -1, or where the guess that candidate starts a record was found to be
+    wrong: a record there does not parse, or what is between two records is not
+    just a separator, e.g. the ']' of a list the guess was inside of. The records
+    are followed to the first one after the window, so the gap after the last
+    one in it is checked too.
+
+    */
+
+    private static int scan(final Region region,
+                            final Head head,
+                            final Window window,
+                            final int candidate,
+                            final int windowEnd,
+                            final boolean synced) {
+
+        final RecordScanner scanner = new RecordScanner();
+
+        final long base = region.base;
+
+        if (synced) {
+
+            scanner.reset(base + candidate);
+
+        } else {
+
+            scanner.resume((base + candidate), head.depth());
+
+        }
+
+        final int[] failed = { -1 };
+
+        final int[] lastEnd = { candidate };
+
+        final boolean[] followed = new boolean[1];
+
+        final RecordScanner.Listener listener = (recordStart, recordEnd) -> {
+
+            final int at = (int) (recordStart - base);
+
+            if ((failed[0] >= 0) || followed[0]) {
+
+                return;
+
+            }
+
+            if (!synced && !separated(region.bytes, lastEnd[0], at, head.depth())) {
+
+                failed[0] = lastEnd[0];
+
+                return;
+
+            }
+
+            lastEnd[0] = (int) (recordEnd - base);
+
+            if (at >= windowEnd) {
+
+                followed[0] = true;
+
+                return;
+
+            }
+
+            window.records++;
+
+            try {
+
+                final Object record = record(region.bytes, at, (int) (recordEnd - recordStart));
+
+                window.parsedRecords++;
+
+                window.parsedBytes += (recordEnd - recordStart);
+
+                final Set<String> seen = new HashSet<>();
+
+                walk(record, "", window, seen);
+
+                for (final String path : seen) {
+
+                    window.paths.get(path)[0]++;
+
+                }
+
+            } catch (final RuntimeException e) {
+
+                // scanning from a known start, a record that does not parse is just a bad one
+                if (!synced) {
+
+                    failed[0] = at;
+
+                }
+
+            }
+
+        };
+
+        int position = candidate;
+
+        while ((failed[0] < 0) && !followed[0]) {
+
+            final int length = region.fill(position + PIECE) - position;
+
+            if (length <= 0) {
+
+                break;
+
+            }
+
+            scanner.scan(region.bytes, position, length, listener);
+
+            position += length;
+
+            // the container of the records has ended, or the scanner has lost them
+            if (!synced && (scanner.recordDepth() != head.depth())) {
+
+                break;
+
+            }
+
+        }
+
+        if (synced) {
+
+            scanner.finish(listener);
+
+            return -1;
+
+        }
+
+        if (failed[0] >= 0) {
+
+            return failed[0];
+
+        }
+
+        if (!followed[0]) {
+
+            if (scanner.recordDepth() != head.depth()) {
+
+                // fine only at the end of the file: the ']' of the array of records
+                final boolean atEnd = (region.base + region.mapped.capacity()) == region.size;
+
+                if (!atEnd || !closing(region.bytes, lastEnd[0], position)) {
+
+                    return lastEnd[0];
+
+                }
+
+            } else if (scanner.inRecord() && (scanner.recordStart() < (base + windowEnd))) {
+
+                // a record that starts in the window but runs past MAX_RECORD_BYTES is counted, not parsed
+                window.records++;
+
+            }
+
+        }
+
+        return -1;
+    }
+
+    // whether [from, to) holds just what separates two records
+    private static boolean separated(final byte[] bytes, final int from, final int to, final int depth) {
+
+        if (from == to) {
+
+            return true;
+
+        }
+
+        int commas = 0;
+
+        for (int i = from; i < to; i++) {
+
+            if (bytes[i] == ',') {
+
+                commas++;
+
+            } else if (!isWhitespace(bytes[i])) {
+
+                return false;
+
+            }
+
+        }
+
+        return commas == ((depth > 0) ? 1 : 0);
+    }
+
+    // whether [from, to) holds just the end of the array of records
+    private static boolean closing(final byte[] bytes, final int from, final int to) {
+
+        int brackets = 0;
+
+        for (int i = from; i < to; i++) {
+
+            if (bytes[i] == ']') {
+
+                brackets++;
+
+            } else if (!isWhitespace(bytes[i])) {
+
+                return false;
+
+            }
+
+        }
+
+        return brackets <= 1;
+    }
+
+    /*
+
+    The first position in [from, windowEnd) where a record starts the way the
+    records in the head do, or -1. Between records in an array the last byte
+    before one is a ',', between top-level values a line break is.
+
+    */
+
+    private static int resync(final Region region,
+                              final Head head,
+                              final int windowStart,
+                              final int from,
+                              final int windowEnd) {
+
+        final byte separator = (byte) ((head.depth() > 0) ? ',' : '\n');
+
+        // the separator may be before the window, as long as the record starts inside it
+        final int searchFrom = (from == windowStart) ? Math.max(0, (from - LOOKBEHIND)) : from;
+
+        region.fill(windowEnd + LOOKBEHIND);
+
+        final byte[] bytes = region.bytes;
+
+        for (int i = searchFrom; i < windowEnd; i++) {
+
+            if (bytes[i] != separator) {
+
+                continue;
+
+            }
+
+            // top-level values are told from nested ones by starting a line
+            final int start = (head.depth() > 0) ? skipWhitespace(bytes, (i + 1), region.filled) : (i + 1);
+
+            if ((start < from) || (start >= windowEnd)) {
+
+                continue;
+
+            }
+
+            final byte first = bytes[start];
+
+            if (head.containers() && (first != '{') && (first != '[')) {
+
+                continue;
+
+            }
+
+            if (!head.containers() && (isWhitespace(first) || (first == ']') || (first == ','))) {
+
+                continue;
+
+            }
+
+            if ((head.firstKeys() != null) && (first == '{')) {
+
+                final String key = firstKey(bytes, start, region.filled);
+
+                if ((key == null) || !head.firstKeys().contains(key)) {
+
+                    continue;
+
+                }
+
+            }
+
+            return start;
+
+        }
+
+        return -1;
+    }
+
+    private static void walk(final Object value, final String path, final Window window, final Set<String> seen) {
+
+        long[] counts = window.paths.get(path);
+
+        if (counts == null) {
+
+            if (window.paths.size() >= MAX_PATHS) {
+
+                return;
+
+            }
+
+            counts = new long[1 + TYPES.length];
+
+            window.paths.put(path, counts);
+
+        }
+
+        seen.add(path);
+
+        final ValueType type = type(value);
+
+        counts[1 + type.ordinal()]++;
+
+        if (value instanceof Map<?, ?> map) {
+
+            final String prefix = path.isEmpty() ? "" : (path + ".");
+
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+
+                walk(entry.getValue(), (prefix + entry.getKey()), window, seen);
+
+            }
+
+        } else if (value instanceof List<?> list) {
+
+            final String elements = path + "[]";
+
+            for (final Object element : list) {
+
+                walk(element, elements, window, seen);
+
+            }
+
+        }
+
+    }
+
+    private static ValueType type(final Object value) {
+
+        if (value instanceof Map<?, ?>) {
+
+            return ValueType.OBJECT;
+
+        }
+
+        if (value instanceof List<?>) {
+
+            return ValueType.ARRAY;
+
+        }
+
+        if (value instanceof Number) {
+
+            return ValueType.NUMBER;
+
+        }
+
+        if (value instanceof Boolean) {
+
+            return ValueType.BOOLEAN;
+
+        }
+
+        return (value == null) ? ValueType.NULL : ValueType.STRING;
+    }
+
+    private static Profile exactProfile(final long size, final Window whole, final long nanos) {
+
+        final double records = whole.parsedRecords;
+
+        final Map<String, Estimate> keys = new LinkedHashMap<>();
+
+        final Map<String, Map<ValueType, Estimate>> valueTypes = new LinkedHashMap<>();
+
+        for (final String path : byFrequency(List.of(whole))) {
+
+            final long[] counts = whole.paths.get(path);
+
+            keys.put(path, Estimate.exact((records == 0) ? 0 : (counts[0] / records)));
+
+            long values = 0;
+
+            for (int t = 0; t < TYPES.length; t++) {
+
+                values += counts[1 + t];
+
+            }
+
+            final Map<ValueType, Estimate> types = new EnumMap<>(ValueType.class);
+
+            for (int t = 0; t < TYPES.length; t++) {
+
+                if (counts[1 + t] > 0) {
+
+                    types.put(TYPES[t], Estimate.exact((double) counts[1 + t] / values));
+
+                }
+
+            }
+
+            valueTypes.put(path, types);
+
+        }
+
+        return new Profile(size, size, 1, whole.parsedRecords, true, Estimate.exact(whole.records),
+                Estimate.exact((records == 0) ? 0 : (whole.parsedBytes / records)), keys, valueTypes, nanos);
+    }
+
+    private static Profile sampledProfile(final long size,
+                                          final int windowBytes,
+                                          final List<Window> windows,
+                                          final long nanos) {
+
+        final int k = windows.size();
+
+        final double sampledBytes = ((double) k * windowBytes);
+
+        // the share of the file not sampled, for the finite population correction
+        final double unsampled = Math.max(0, (1 - (sampledBytes / size)));
+
+        final double[] density = new double[k];
+
+        final double[] parsed = new double[k];
+
+        final double[] parsedBytes = new double[k];
+
+        long sampledRecords = 0;
+
+        for (int i = 0; i < k; i++) {
+
+            final Window window = windows.get(i);
+
+            density[i] = ((double) window.records / windowBytes);
+
+            parsed[i] = window.parsedRecords;
+
+            parsedBytes[i] = window.parsedBytes;
+
+            sampledRecords += window.parsedRecords;
+
+        }
+
+        double mean = 0;
+
+        for (final double d : density) {
+
+            mean += d;
+
+        }
+
+        mean /= k;
+
+        double squares = 0;
+
+        for (final double d : density) {
+
+            squares += ((d - mean) * (d - mean));
+
+        }
+
+        final double spread = (Z_95 * size * Math.sqrt((squares / (k - 1)) / k) * Math.sqrt(unsampled));
+
+        final double records = (mean * size);
+
+        final Estimate recordCount = new Estimate(records, Math.max(0, (records - spread)), (records + spread));
+
+        final Map<String, Estimate> keys = new LinkedHashMap<>();
+
+        final Map<String, Map<ValueType, Estimate>> valueTypes = new LinkedHashMap<>();
+
+        final double[] having = new double[k];
+
+        final double[] values = new double[k];
+
+        final double[] ofType = new double[k];
+
+        for (final String path : byFrequency(windows)) {
+
+            for (int i = 0; i < k; i++) {
+
+                final long[] counts = windows.get(i).paths.get(path);
+
+                having[i] = (counts == null) ? 0 : counts[0];
+
+                values[i] = 0;
+
+                for (int t = 0; (counts != null) && (t < TYPES.length); t++) {
+
+                    values[i] += counts[1 + t];
+
+                }
+
+            }
+
+            keys.put(path, ratio(having, parsed, unsampled, true));
+
+            final Map<ValueType, Estimate> types = new EnumMap<>(ValueType.class);
+
+            for (int t = 0; t < TYPES.length; t++) {
+
+                boolean any = false;
+
+                for (int i = 0; i < k; i++) {
+
+                    final long[] counts = windows.get(i).paths.get(path);
+
+                    ofType[i] = (counts == null) ? 0 : counts[1 + t];
+
+                    any |= (ofType[i] > 0);
+
+                }
+
+                if (any) {
+
+                    types.put(TYPES[t], ratio(ofType, values, unsampled, true));
+
+                }
+
+            }
+
+            valueTypes.put(path, types);
+
+        }
+
+        return new Profile(size, (long) sampledBytes, k, sampledRecords, false, recordCount,
+                ratio(parsedBytes, parsed, unsampled, false), keys, valueTypes, nanos);
+    }
+
+    /*
+
+    The ratio estimate sum(y) / sum(x) over the windows, with bounds from the
+    spread of the residuals y - R x between windows.
+
+    */
+
+    private static Estimate ratio(final double[] y,
+                                  final double[] x,
+                                  final double unsampled,
+                                  final boolean proportion) {
+
+        final int k = y.length;
+
+        double sumY = 0;
+
+        double sumX = 0;
+
+        for (int i = 0; i < k; i++) {
+
+            sumY += y[i];
+
+            sumX += x[i];
+
+        }
+
+        if (sumX == 0) {
+
+            return Estimate.exact(0);
+
+        }
+
+        final double ratio = (sumY / sumX);
+
+        double squares = 0;
+
+        for (int i = 0; i < k; i++) {
+
+            final double residual = (y[i] - (ratio * x[i]));
+
+            squares += (residual * residual);
+
+        }
+
+        final double spread = ((Z_95 * Math.sqrt((squares / (k - 1)) / k) * Math.sqrt(unsampled)) / (sumX / k));
+
+        final double high = proportion ? Math.min(1, (ratio + spread)) : (ratio + spread);
+
+        return new Estimate(ratio, Math.max(0, (ratio - spread)), high);
+    }
+
+    // the paths found, by the number of records having them, most first
+    private static List<String> byFrequency(final List<Window> windows) {
+
+        final Map<String, Long> totals = new HashMap<>();
+
+        for (final Window window : windows) {
+
+            window.paths.forEach((path, counts) -> totals.merge(path, counts[0], Long::sum));
+
+        }
+
+        final List<String> paths = new ArrayList<>(totals.keySet());
+
+        paths.sort(Comparator.comparing((String path) -> -totals.get(path)).thenComparing(Comparator.naturalOrder()));
+
+        return paths;
+    }
+
+    // the parser only takes containers, so a scalar record is parsed as the element of one
+    private static Object record(final byte[] bytes, final int offset, final int length) {
+
+        if ((bytes[offset] == '{') || (bytes[offset] == '[')) {
+
+            return RecordReader.parse(bytes, offset, length);
+
+        }
+
+        final byte[] wrapped = new byte[length + 2];
+
+        wrapped[0] = '[';
+
+        System.arraycopy(bytes, offset, wrapped, 1, length);
+
+        wrapped[length + 1] = ']';
+
+        return ((List<?>) RecordReader.parse(wrapped, 0, wrapped.length)).get(0);
+    }
+
+    // the raw bytes of the first key of the object at start, null if there is none
+    private static String firstKey(final byte[] bytes, final int start, final int end) {
+
+        final int quote = skipWhitespace(bytes, (start + 1), end);
+
+        if ((quote >= end) || (bytes[quote] != '"')) {
+
+            return null;
+
+        }
+
+        for (int i = (quote + 1); i < end; i++) {
+
+            if (bytes[i] == '"') {
+
+                return new String(bytes, (quote + 1), (i - quote - 1), StandardCharsets.ISO_8859_1);
+
+            }
+
+        }
+
+        return null;
+    }
+
+    private static int skipWhitespace(final byte[] bytes, final int from, final int end) {
+
+        int i = from;
+
+        while ((i < end) && isWhitespace(bytes[i])) {
+
+            i++;
+
+        }
+
+        return i;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+
+        return (b == ' ') || (b == '\t') || (b == '\n') || (b == '\r');
+    }
+
+    /*
+
+    A mapped part of the file, copied out as far as it has been needed: most
+    windows never look at the bytes after them that they could follow a long
+    record into.
+
+    */
+
+    private static final class Region {
+
+        private final MappedByteBuffer mapped;
+
+        private final long base;
+
+        // of the file
+        private final long size;
+
+        private byte[] bytes;
+
+        private int filled;
+
+        private Region(final MappedByteBuffer mapped, final long base, final long size, final int initialBytes) {
+
+            this.mapped = mapped;
+
+            this.base = base;
+
+            this.size = size;
+
+            this.bytes = new byte[Math.min(mapped.capacity(), initialBytes)];
+
+        }
+
+        // copies up to position (clamped to the region); returns how many bytes are there
+        private int fill(final int position) {
+
+            final int target = Math.min(position, mapped.capacity());
+
+            if (target > filled) {
+
+                if (target > bytes.length) {
+
+                    bytes = Arrays.copyOf(bytes, Math.min(mapped.capacity(), Math.max(target, (bytes.length * 2))));
+
+                }
+
+                mapped.get(filled, bytes, filled, (target - filled));
+
+                filled = target;
+
+            }
+
+            return filled;
+        }
+
+    }
+
+    private JSONProfiler() { }
+
+}
\ No newline at end of file
@@ -0,0 +1,47 @@
+package org.catalyst.scrape;
+
+import org.jsoup.nodes.Element;
+
+/*
+
+A named value pulled out of each record element: the text of the first match of
+selector, or the absolute URL in attribute when one is given (e.g. "href").
+
+*/
+
+public record Field(String name, String selector, String attribute) {
+
+    public static Field text(final String name, final String selector) {
+
+        return new Field(name, selector, null);
+    }
+
+    public static Field link(final String name, final String selector) {
+
+        return new Field(name, selector, "href");
+    }
+
+    String extract(final Element element) {
+
+        final Element match = ((selector == null) || selector.isEmpty())
+                ? element
+                : element.selectFirst(selector);
+
+        if (match == null) {
+
+            return null;
+
+        }
+
+        if (attribute == null) {
+
+            return match.text();
+
+        }
+
+        final String url = match.absUrl(attribute);
+
+        return url.isEmpty() ? match.attr(attribute) : url;
+    }
+
+}
@@ -0,0 +1,327 @@
+package org.catalyst.scrape;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public final class Scraper {
+
+    public record Summary(int pages, long records, Map<URI, String> failures) { }
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final String recordSelector;
+
+    private final List<Field> fields;
+
+    private final String followSelector;
+
+    private final int maxPerHost;
+
+    private final int maxInFlight;
+
+    private final int maxPages;
+
+    private final Consumer<Object> sink;
+
+    private final BlockingQueue<URI> frontier;
+
+    private final Set<URI> seen = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    private final Map<URI, String> failures = new ConcurrentHashMap<>();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger pages = new AtomicInteger();
+
+    private final AtomicLong records = new AtomicLong();
+
+    private final Object sinkLock = new Object();
+
+    /*
+
+    recordSelector picks the elements that become records, fields name the values
+    taken from each one, and followSelector (may be null) picks the links that are
+    added to the frontier. The sink is only ever called by one thread at a time.
+
+    */
+
+    public Scraper(final String recordSelector,
+                   final List<Field> fields,
+                   final String followSelector,
+                   final int maxPerHost,
+                   final int maxInFlight,
+                   final int frontierCapacity,
+                   final int maxPages,
+                   final Consumer<Object> sink) {
+
+        this.recordSelector = recordSelector;
+
+        this.fields = List.copyOf(fields);
+
+        this.followSelector = followSelector;
+
+        this.maxPerHost = maxPerHost;
+
+        this.maxInFlight = maxInFlight;
+
+        this.maxPages = maxPages;
+
+        this.sink = sink;
+
+        this.frontier = new ArrayBlockingQueue<>(frontierCapacity);
+
+    }
+
+    public Summary scrape(final List<URI> seeds) throws InterruptedException {
+
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+
+        try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             final HttpClient httpClient = HttpClient.newBuilder()
+                     .executor(executor)
+                     .connectTimeout(TIMEOUT)
+                     .followRedirects(HttpClient.Redirect.NORMAL)
+                     .build()) {
+
+            active.incrementAndGet();
+
+            executor.execute(() -> {
+
+                try {
+
+                    for (final URI seed : seeds) {
+
+                        enqueue(seed);
+
+                    }
+
+                } catch (final InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+
+                } finally {
+
+                    active.decrementAndGet();
+
+                }
+
+            });
+
+            while (true) {
+
+                inFlight.acquire();
+
+                final URI uri = frontier.poll(10, TimeUnit.MILLISECONDS);
+
+                if (uri == null) {
+
+                    inFlight.release();
+
+                    if ((active.get() == 0) && frontier.isEmpty()) {
+
+                        break;
+
+                    }
+
+                    continue;
+
+                }
+
+                active.incrementAndGet();
+
+                executor.execute(() -> {
+
+                    try {
+
+                        final List<URI> links = visit(httpClient, uri, inFlight);
+
+                        for (final URI link : links) {
+
+                            enqueue(link);
+
+                        }
+
+                    } catch (final InterruptedException e) {
+
+                        Thread.currentThread().interrupt();
+
+                    } finally {
+
+                        active.decrementAndGet();
+
+                    }
+
+                });
+
+            }
+
+        }
+
+        return new Summary(pages.get(), records.get(), Map.copyOf(failures));
+    }
+
+    private void enqueue(final URI uri) throws InterruptedException {
+
+        if ((seen.size() < maxPages) && seen.add(uri)) {
+
+            // blocks while the frontier is full; callers hold no in-flight permit
+            frontier.put(uri);
+
+        }
+
+    }
+
+    private List<URI> visit(final HttpClient httpClient,
+                            final URI uri,
+                            final Semaphore inFlight) throws InterruptedException {
+
+        try {
+
+            final String body = fetch(httpClient, uri);
+
+            if (body == null) {
+
+                return List.of();
+
+            }
+
+            pages.incrementAndGet();
+
+            final Document document = Jsoup.parse(body, uri.toString());
+
+            emit(document);
+
+            return links(document);
+
+        } finally {
+
+            inFlight.release();
+
+        }
+
+    }
+
+    private String fetch(final HttpClient httpClient, final URI uri) throws InterruptedException {
+
+        final Semaphore host = hosts.computeIfAbsent(String.valueOf(uri.getAuthority()),
+                authority -> new Semaphore(maxPerHost));
+
+        host.acquire();
+
+        try {
+
+            final HttpRequest request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).GET().build();
+
+            final HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+
+            if ((response.statusCode() / 100) != 2) {
+
+                failures.put(uri, "HTTP " + response.statusCode());
+
+                return null;
+
+            }
+
+            return response.body();
+
+        } catch (final IOException | IllegalArgumentException e) {
+
+            failures.put(uri, String.valueOf(e.getMessage()));
+
+            return null;
+
+        } finally {
+
+            host.release();
+
+        }
+
+    }
+
+    private void emit(final Document document) {
+
+        final List<Object> extracted = new ArrayList<>();
+
+        for (final Element element : document.select(recordSelector)) {
+
+            final Map<Object, Object> record = new HashMap<>();
+
+            for (final Field field : fields) {
+
+                record.put(field.name(), field.extract(element));
+
+            }
+
+            extracted.add(record);
+
+        }
+
+        synchronized (sinkLock) {
+
+            extracted.forEach(sink);
+
+        }
+
+        records.addAndGet(extracted.size());
+
+    }
+
+    private List<URI> links(final Document document) {
+
+        if (followSelector == null) {
+
+            return List.of();
+
+        }
+
+        final List<URI> links = new ArrayList<>();
+
+        for (final Element element : document.select(followSelector)) {
+
+            final String href = element.absUrl("href");
+
+            if (href.startsWith("http://") || href.startsWith("https://")) {
+
+                try {
+
+                    links.add(URI.create(href));
+
+                } catch (final IllegalArgumentException e) {
+
+                    // not a URI we can fetch; skip it
+
+                }
+
+            }
+
+        }
+
+        return links;
+    }
+
+}
@@ -0,0 +1,307 @@
+package org.catalyst.test;
+
+import org.catalyst.follow.JSONFollower;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.stream.Stream;
+
+public final class FollowTestMain {
+
+    private static final long POLL_MILLIS = 20;
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    public static void main(final String[] args)
+            throws IOException, InterruptedException {
+
+        final Path root = Files.createTempDirectory("follow");
+
+        try {
+
+            rotateInDirectory(Files.createDirectory(root.resolve("directory")));
+
+            rotateSingleFile(Files.createDirectory(root.resolve("single")));
+
+            skipMalformed(Files.createDirectory(root.resolve("malformed")));
+
+            cancelPublisher(Files.createDirectory(root.resolve("publisher")));
+
+            System.out.println("ok");
+
+        } finally {
+
+            try (final Stream<Path> files = Files.walk(root)) {
+
+                for (final Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+
+                    Files.deleteIfExists(file);
+
+                }
+
+            }
+
+        }
+
+    }
+
+    // data.json renamed to data.json.1 keeps its tail; nothing of it is emitted twice
+    private static void rotateInDirectory(final Path directory) throws IOException, InterruptedException {
+
+        final Path data = directory.resolve("data.json");
+
+        append(data, 1, 2, 3);
+
+        final Queue<Object> records = new ConcurrentLinkedQueue<>();
+
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        try (final JSONFollower follower = follower(directory, records, errors)) {
+
+            final Thread thread = start(follower);
+
+            await(records, 3);
+
+            append(data, 4);
+
+            Files.move(data, directory.resolve("data.json.1"));
+
+            append(data, 5);
+
+            await(records, 5);
+
+            Thread.sleep(10 * POLL_MILLIS);
+
+            check(ids(records).equals(List.of(1, 2, 3, 4, 5)), "directory rotation: " + records);
+
+            check(errors.isEmpty(), "directory rotation errors: " + errors);
+
+            follower.close();
+
+            thread.join(TIMEOUT_MILLIS);
+
+            check(!thread.isAlive(), "directory follower still running");
+
+        }
+
+    }
+
+    // what was appended just before the rename is read from the old file before the new one
+    private static void rotateSingleFile(final Path directory) throws IOException, InterruptedException {
+
+        final Path data = directory.resolve("data.json");
+
+        append(data, 1, 2);
+
+        final Queue<Object> records = new ConcurrentLinkedQueue<>();
+
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        try (final JSONFollower follower = follower(data, records, errors)) {
+
+            final Thread thread = start(follower);
+
+            await(records, 2);
+
+            for (int round = 0; round < 3; round++) {
+
+                final int id = (3 + (round * 3));
+
+                append(data, id, (id + 1));
+
+                Files.move(data, directory.resolve("data.json." + round));
+
+                append(data, (id + 2));
+
+                await(records, (id + 2));
+
+            }
+
+            Thread.sleep(10 * POLL_MILLIS);
+
+            check(ids(records).equals(List.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11)), "single-file rotation: " + records);
+
+            check(errors.isEmpty(), "single-file rotation errors: " + errors);
+
+            follower.close();
+
+            thread.join(TIMEOUT_MILLIS);
+
+        }
+
+    }
+
+    private static void skipMalformed(final Path directory) throws IOException, InterruptedException {
+
+        final Path data = directory.resolve("data.json");
+
+        Files.writeString(data, "{\"id\": 1}\n{\"id\": }\n{\"id\": 2}\n");
+
+        final Queue<Object> records = new ConcurrentLinkedQueue<>();
+
+        final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+        try (final JSONFollower follower = follower(data, records, errors)) {
+
+            final Thread thread = start(follower);
+
+            await(records, 2);
+
+            Files.writeString(data, "{\"id\": [1,]}\n{\"id\": 3}\n", StandardOpenOption.APPEND);
+
+            await(records, 3);
+
+            check(ids(records).equals(List.of(1, 2, 3)), "malformed: " + records);
+
+            check(errors.size() == 2, "malformed errors: " + errors);
+
+            follower.close();
+
+            thread.join(TIMEOUT_MILLIS);
+
+        }
+
+    }
+
+    // cancelling the only subscription stops the follower thread and closes the publisher
+    private static void cancelPublisher(final Path directory) throws IOException, InterruptedException {
+
+        final Path data = directory.resolve("data.json");
+
+        append(data, 1);
+
+        final SubmissionPublisher<Object> publisher = JSONFollower.publisher(data);
+
+        final Queue<Object> records = new ConcurrentLinkedQueue<>();
+
+        final Flow.Subscription[] subscription = new Flow.Subscription[1];
+
+        publisher.subscribe(new Flow.Subscriber<>() {
+
+            @Override
+            public void onSubscribe(final Flow.Subscription value) {
+
+                subscription[0] = value;
+
+                value.request(Long.MAX_VALUE);
+
+            }
+
+            @Override
+            public void onNext(final Object item) {
+
+                records.add(item);
+
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+
+            }
+
+            @Override
+            public void onComplete() {
+
+            }
+
+        });
+
+        await(records, 1);
+
+        subscription[0].cancel();
+
+        final long deadline = (System.currentTimeMillis() + TIMEOUT_MILLIS);
+
+        while (!publisher.isClosed() && (System.currentTimeMillis() < deadline)) {
+
+            Thread.sleep(POLL_MILLIS);
+
+        }
+
+        check(publisher.isClosed(), "publisher still open after cancel");
+
+        check(Thread.getAllStackTraces().keySet().stream().noneMatch(thread -> thread.getName().equals("json-follower")),
+                "follower thread still running after cancel");
+
+    }
+
+    private static JSONFollower follower(final Path path, final Queue<Object> records, final Queue<String> errors) {
+
+        return new JSONFollower(path, records::add,
+                (file, offset, length, message) -> errors.add(file.getFileName() + " at " + offset + ": " + message),
+                true, POLL_MILLIS);
+    }
+
+    private static Thread start(final JSONFollower follower) {
+
+        final Thread thread = new Thread(follower, "follow-test");
+
+        thread.start();
+
+        return thread;
+    }
+
+    private static void append(final Path file, final int... ids) throws IOException {
+
+        final StringBuilder text = new StringBuilder();
+
+        for (final int id : ids) {
+
+            text.append("{\"id\": ").append(id).append("}\n");
+
+        }
+
+        Files.writeString(file, text, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+    }
+
+    private static void await(final Queue<Object> records, final int count) throws InterruptedException {
+
+        final long deadline = (System.currentTimeMillis() + TIMEOUT_MILLIS);
+
+        while ((records.size() < count) && (System.currentTimeMillis() < deadline)) {
+
+            Thread.sleep(POLL_MILLIS);
+
+        }
+
+    }
+
+    private static List<Integer> ids(final Queue<Object> records) {
+
+        final List<Integer> ids = new ArrayList<>();
+
+        for (final Object record : records) {
+
+            ids.add(((Number) ((Map<?, ?>) record).get("id")).intValue());
+
+        }
+
+        return ids;
+    }
+
+    private static void check(final boolean condition, final String message) {
+
+        if (!condition) {
+
+            System.err.println("FAILED " + message);
+
+            System.exit(1);
+
+        }
+
+    }
+
+    private FollowTestMain() { }
+
+}
\ No newline at end of file
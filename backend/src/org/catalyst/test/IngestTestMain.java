@@ -0,0 +1,206 @@
+package org.catalyst.test;
+
+import org.catalyst.ingest.IngestServer;
+import org.catalyst.json.JSONParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+public final class IngestTestMain {
+
+    private static final int MAX_REQUEST_BYTES = 4096;
+
+    public static void main(final String[] args)
+            throws IOException, InterruptedException {
+
+        final Queue<Object> records = new ConcurrentLinkedQueue<>();
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // a record with "block" holds its in-flight slot until release
+        final IngestServer ingestServer = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), record -> {
+
+            if ((record instanceof Map<?, ?> map) && map.containsKey("block")) {
+
+                try {
+
+                    release.await();
+
+                } catch (final InterruptedException e) {
+
+                    Thread.currentThread().interrupt();
+
+                }
+
+            }
+
+            records.add(record);
+
+        }).maxRequestBytes(MAX_REQUEST_BYTES).maxInFlightRecords(1).acquireTimeoutMillis(200).start();
+
+        final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        try {
+
+            final URI ingest = URI.create("http://localhost:" + ingestServer.port() + "/ingest");
+
+            HttpResponse<String> response = post(httpClient, ingest, utf8("[{\"id\": 1}, {\"id\": 2}, 3]"), false);
+
+            check((response.statusCode() == 200) && response.body().equals("{\"records\":3}"), "plain: " + describe(response));
+
+            response = post(httpClient, ingest, gzip(utf8("{\"id\": 4}\n{\"id\": 5}\n")), true);
+
+            check((response.statusCode() == 200) && response.body().equals("{\"records\":2}"), "gzip: " + describe(response));
+
+            response = post(httpClient, ingest, new byte[16 * MAX_REQUEST_BYTES], false);
+
+            check(response.statusCode() == 413, "Content-Length over the limit: " + describe(response));
+
+            // small on the wire, over the limit once inflated
+            response = post(httpClient, ingest, gzip(utf8("[{\"pad\": \"" + "x".repeat(16 * MAX_REQUEST_BYTES) + "\"}]")), true);
+
+            check((response.statusCode() == 413) && response.body().endsWith("\"records\":0}"), "inflated over the limit: " + describe(response));
+
+            response = post(httpClient, ingest, utf8("[{\"id\": }]"), false);
+
+            check(response.statusCode() == 400, "malformed: " + describe(response));
+
+            final byte[] gzipped = gzip(utf8("{\"id\": 7}\n".repeat(64)));
+
+            response = post(httpClient, ingest, Arrays.copyOf(gzipped, (gzipped.length / 2)), true);
+
+            check((response.statusCode() == 400) && response.body().contains("unreadable body"), "truncated gzip: " + describe(response));
+
+            final byte[] corrupt = gzipped.clone();
+
+            Arrays.fill(corrupt, 10, corrupt.length, (byte) 0xff);
+
+            response = post(httpClient, ingest, corrupt, true);
+
+            check((response.statusCode() == 400) && response.body().contains("unreadable body"), "corrupt gzip: " + describe(response));
+
+            response = httpClient.send(HttpRequest.newBuilder(ingest).GET().build(), HttpResponse.BodyHandlers.ofString());
+
+            check((response.statusCode() == 405) && response.headers().firstValue("Allow").orElse("").equals("POST"),
+                    "GET: " + describe(response));
+
+            final CompletableFuture<HttpResponse<String>> blocked = httpClient.sendAsync(
+                    request(ingest, utf8("[{\"block\": true}]"), false), HttpResponse.BodyHandlers.ofString());
+
+            while (ingestServer.stats().inFlightRecords() == 0) {
+
+                Thread.sleep(10);
+
+            }
+
+            response = post(httpClient, ingest, utf8("[{\"id\": 6}]"), false);
+
+            check((response.statusCode() == 503) && response.headers().firstValue("Retry-After").isPresent(),
+                    "sink busy: " + describe(response));
+
+            release.countDown();
+
+            response = blocked.join();
+
+            check((response.statusCode() == 200) && response.body().equals("{\"records\":1}"), "released: " + describe(response));
+
+            response = httpClient.send(HttpRequest.newBuilder(URI.create("http://localhost:" + ingestServer.port() + "/stats"))
+                    .GET().build(), HttpResponse.BodyHandlers.ofString());
+
+            final Map<?, ?> stats = (Map<?, ?>) new JSONParser(new StringReader(response.body())).parse();
+
+            check((response.statusCode() == 200)
+                    && stats.get("requests").equals(10.0)
+                    && stats.get("records").equals(6.0)
+                    && stats.get("rejected").equals(3.0)
+                    && stats.get("failed").equals(4.0)
+                    && stats.get("inFlightRecords").equals(0.0), "stats: " + describe(response));
+
+            check(records.size() == 6, "records: " + records);
+
+            System.out.println("ok " + ingestServer.stats());
+
+        } finally {
+
+            release.countDown();
+
+            ingestServer.close();
+
+        }
+
+    }
+
+    private static HttpResponse<String> post(final HttpClient httpClient,
+                                             final URI uri,
+                                             final byte[] body,
+                                             final boolean gzipped) throws IOException, InterruptedException {
+
+        return httpClient.send(request(uri, body, gzipped), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest request(final URI uri, final byte[] body, final boolean gzipped) {
+
+        final HttpRequest.Builder builder = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofByteArray(body));
+
+        if (gzipped) {
+
+            builder.header("Content-Encoding", "gzip");
+
+        }
+
+        return builder.build();
+    }
+
+    private static byte[] utf8(final String text) {
+
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(final byte[] bytes) throws IOException {
+
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+        try (final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+
+            gzipOutputStream.write(bytes);
+
+        }
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private static String describe(final HttpResponse<String> response) {
+
+        return response.statusCode() + " " + response.headers().map() + " " + response.body();
+    }
+
+    private static void check(final boolean condition, final String message) {
+
+        if (!condition) {
+
+            System.err.println("FAILED " + message);
+
+            System.exit(1);
+
+        }
+
+    }
+
+    private IngestTestMain() { }
+
+}
\ No newline at end of file
@@ -0,0 +1,107 @@
+package org.catalyst.test;
+
+import com.sun.net.httpserver.HttpServer;
+import org.catalyst.scrape.Field;
+import org.catalyst.scrape.Scraper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public final class ScrapeTestMain {
+
+    private static final String PAGE = """
+            <html><body>
+            <div class="card"><a class="name" href="/star/%1$s-a">%1$s A</a></div>
+            <div class="card"><a class="name" href="/star/%1$s-b">%1$s B</a></div>
+            <a class="next" href="%2$s">next</a>
+            <a class="next" href="/missing">missing</a>
+            </body></html>
+            """;
+
+    public static void main(final String[] args)
+            throws IOException, InterruptedException {
+
+        final HttpServer httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        for (int page = 1; page <= 3; page++) {
+
+            final byte[] body = String.format(PAGE, "page" + page, "/page" + ((page % 3) + 1))
+                    .getBytes(StandardCharsets.UTF_8);
+
+            httpServer.createContext("/page" + page, exchange -> {
+
+                exchange.sendResponseHeaders(200, body.length);
+
+                try (final OutputStream outputStream = exchange.getResponseBody()) {
+
+                    outputStream.write(body);
+
+                }
+
+            });
+
+        }
+
+        httpServer.createContext("/missing", exchange -> {
+
+            exchange.sendResponseHeaders(404, -1);
+
+            exchange.close();
+
+        });
+
+        httpServer.start();
+
+        try {
+
+            final URI seed = URI.create("http://localhost:" + httpServer.getAddress().getPort() + "/page1");
+
+            final List<Object> records = new ArrayList<>();
+
+            final Scraper scraper = new Scraper("div.card",
+                    List.of(Field.text("Field1_text", "a.name"), Field.link("Field1_links", "a.name")),
+                    "a.next", 2, 8, 4, 100, records::add);
+
+            final Scraper.Summary summary = scraper.scrape(List.of(seed));
+
+            check(summary.pages() == 3, "pages: " + summary.pages());
+
+            check(records.size() == 6, "records: " + records.size());
+
+            check(summary.failures().size() == 1, "failures: " + summary.failures());
+
+            check(records.contains(Map.of("Field1_text", "page2 B",
+                    "Field1_links", seed.resolve("/star/page2-b").toString())), "records: " + records);
+
+            System.out.println("ok " + summary);
+
+        } finally {
+
+            httpServer.stop(0);
+
+        }
+
+    }
+
+    private static void check(final boolean condition, final String message) {
+
+        if (!condition) {
+
+            System.err.println("FAILED " + message);
+
+            System.exit(1);
+
+        }
+
+    }
+
+    private ScrapeTestMain() { }
+
+}
\ No newline at end of file
@@ -1,25 +1,121 @@
 package org.catalyst.test;
 
+import org.catalyst.batch.BatchIngester;
+import org.catalyst.diff.SnapshotDiff;
+import org.catalyst.extract.ExportColumn;
 import org.catalyst.extract.Extractor;
+import org.catalyst.extract.TableExporter;
+import org.catalyst.follow.JSONFollower;
+import org.catalyst.ingest.IngestServer;
+import org.catalyst.io.CompressedInput;
+import org.catalyst.json.CheckpointedReader;
 import org.catalyst.json.JSONParser;
+import org.catalyst.json.JSONValidator;
+import org.catalyst.json.JSONWriter;
+import org.catalyst.json.LenientRecordReader;
+import org.catalyst.json.RecordReader;
+import org.catalyst.profile.JSONProfiler;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public final class TestMain {
 
     public static void main(final String[] args)
-            throws FileNotFoundException {
+            throws IOException {
         
+        if ((args.length == 2) && args[0].equals("--follow")) {
+
+            new JSONFollower(Path.of(args[1]), Extractor::extract).run();
+
+            return;
+
+        }
+
+        if ((args.length == 2) && args[0].equals("--batch")) {
+
+            batch(Path.of(args[1]));
+
+            return;
+
+        }
+
+        if ((args.length == 2) && args[0].equals("--validate")) {
+
+            final JSONValidator.Result result = JSONValidator.validate(Path.of(args[1]));
+
+            System.out.println(result.valid() ? "valid" : result.error());
+
+            System.exit(result.valid() ? 0 : 1);
+
+        }
+
+        if ((args.length == 2) && args[0].equals("--resumable")) {
+
+            resumable(Path.of(args[1]));
+
+            return;
+
+        }
+
+        if ((args.length == 2) && args[0].equals("--lenient")) {
+
+            lenient(Path.of(args[1]));
+
+            return;
+
+        }
+
+        if ((args.length == 4) && args[0].equals("--export")) {
+
+            export(TableExporter.Format.valueOf(args[1].toUpperCase(Locale.ROOT)), Path.of(args[2]), args[3]);
+
+            return;
+
+        }
+
+        if ((args.length == 2) && args[0].equals("--serve")) {
+
+            serve(Integer.parseInt(args[1]));
+
+            return;
+
+        }
+
+        if ((args.length == 2) && args[0].equals("--profile")) {
+
+            profile(Path.of(args[1]));
+
+            return;
+
+        }
+
+        if ((args.length == 4) && args[0].equals("--diff")) {
+
+            diff(Path.of(args[1]), Path.of(args[2]), args[3]);
+
+            return;
+
+        }
+
         if (args.length != 1) {
 
-            System.err.println("usage: jsonPath");
+            System.err.println("usage: [--follow | --batch | --validate | --resumable | --lenient | --profile] jsonPath | --diff beforePath afterPath keyField"
+                    + " | --export csv|tsv jsonPath path,path... | --serve port");
             
             System.exit(1);
             
         }
         
-        final JSONParser jsonParser = new JSONParser(new FileReader(args[0]));
+        final JSONParser jsonParser = new JSONParser(CompressedInput.reader(Path.of(args[0])));
 
         final Object json = jsonParser.parse();
         
@@ -27,6 +123,291 @@ public final class TestMain {
         
     }
     
+    /*
+
+    Extracts every .json / .json.gz file under directory. Each file's output is
+    printed in one piece when the file is done; timings and failures go to stderr.
+
+    */
+
+    private static void batch(final Path directory)
+            throws IOException {
+
+        final BatchIngester.Summary<String> summary = BatchIngester.run(directory, (path, json) -> {
+
+            final StringBuilder output = new StringBuilder();
+
+            Extractor.extract(json, line -> output.append(line).append(System.lineSeparator()));
+
+            return output.toString();
+
+        }, result -> {
+
+            if (result.failed()) {
+
+                System.err.printf("FAILED %s: %s%n", result.path(), result.failure());
+
+                return;
+
+            }
+
+            System.out.print(result.result());
+
+            System.err.printf("%10.1f ms %12d bytes  %s%n", (result.nanos() / 1e6), result.bytes(), result.path());
+
+        });
+
+        final double seconds = (summary.nanos() / 1e9);
+
+        System.err.printf("%d files, %d failed, %.1f MB in %.2f s (%.1f MB/s)%n", summary.results().size(),
+                summary.failures(), (summary.bytes() / 1e6), seconds, (summary.bytes() / 1e6 / seconds));
+
+    }
+
+    /*
+
+    Prints the changes from before to after, one JSON object per line with the
+    change, the key and the before and/or after record. Totals go to stderr.
+
+    */
+
+    private static void diff(final Path before, final Path after, final String keyField)
+            throws IOException {
+
+        final long start = System.nanoTime();
+
+        final JSONWriter jsonWriter = new JSONWriter(System.out);
+
+        final SnapshotDiff.Stats stats = SnapshotDiff.diff(before, after, keyField, (change, key, beforeRecord, afterRecord) -> {
+
+            jsonWriter.writeStartObject()
+                    .writeField("change", change.toString().toLowerCase())
+                    .writeField("key", key);
+
+            if (beforeRecord != null) {
+
+                jsonWriter.writeField("before", beforeRecord);
+
+            }
+
+            if (afterRecord != null) {
+
+                jsonWriter.writeField("after", afterRecord);
+
+            }
+
+            jsonWriter.writeEndObject();
+
+        });
+
+        jsonWriter.flush();
+
+        if ((stats.added() + stats.removed() + stats.changed()) > 0) {
+
+            System.out.println();
+
+        }
+
+        System.err.printf("%d added, %d removed, %d changed, %d unchanged, %d unkeyed, %d runs spilled in %.2f s%n",
+                stats.added(), stats.removed(), stats.changed(), stats.unchanged(), stats.unkeyed(),
+                stats.spilledRuns(), ((System.nanoTime() - start) / 1e9));
+
+    }
+    
+    /*
+
+    Extracts the records of jsonPath one at a time, checkpointing next to it, so
+    a run that was killed picks up where the last checkpoint left off.
+
+    */
+
+    private static void resumable(final Path path)
+            throws IOException {
+
+        final CheckpointedReader checkpointedReader = new CheckpointedReader(path);
+
+        final long records = checkpointedReader.read((start, bytes, offset, length) -> {
+
+            // the parser only takes containers; scalars are printed as they are
+            if ((bytes[offset] != '{') && (bytes[offset] != '[')) {
+
+                Extractor.extract(new String(bytes, offset, length, StandardCharsets.UTF_8));
+
+                return;
+
+            }
+
+            try {
+
+                Extractor.extract(RecordReader.parse(bytes, offset, length));
+
+            } catch (final RuntimeException exception) {
+
+                throw new RuntimeException(String.format("%s in the record at [line %d, column %d]",
+                        exception.getMessage(), checkpointedReader.line(), checkpointedReader.column()), exception);
+
+            }
+
+        });
+
+        final CheckpointedReader.Checkpoint resumedFrom = checkpointedReader.resumedFrom();
+
+        if (resumedFrom != null) {
+
+            System.err.printf("resumed at byte %d (line %d) after %d records%n",
+                    resumedFrom.offset(), (resumedFrom.line() + 1), resumedFrom.records());
+
+        }
+
+        System.err.printf("%d records%n", records);
+
+    }
+
+    /*
+
+    Extracts the records of jsonPath, reporting the ones that do not parse
+    instead of stopping at the first.
+
+    */
+
+    private static void lenient(final Path path)
+            throws IOException {
+
+        final LenientRecordReader lenientRecordReader = new LenientRecordReader(Extractor::extract,
+                (offset, length, line, column, message) -> System.err.printf(
+                        "skipped %d bytes at [line %d, column %d]: %s%n", length, line, column, message));
+
+        try (final ReadableByteChannel channel = Channels.newChannel(CompressedInput.open(path))) {
+
+            lenientRecordReader.read(channel);
+
+        }
+
+        System.err.printf("%d records, %d skipped%n", lenientRecordReader.records(), lenientRecordReader.errors());
+
+    }
+
+    /*
+
+    Writes the records of jsonPath to standard output as a table, a column per
+    dotted path, e.g. "id,user.name,tags.0".
+
+    */
+
+    private static void export(final TableExporter.Format format, final Path path, final String paths)
+            throws IOException {
+
+        final List<ExportColumn> columns = new ArrayList<>();
+
+        for (final String column : paths.split(",")) {
+
+            columns.add(ExportColumn.of(column.trim(), column.trim(), ExportColumn.FLATTENED));
+
+        }
+
+        final TableExporter tableExporter = Extractor.table(columns, format, System.out).writeHeader();
+
+        try (final ReadableByteChannel channel = Channels.newChannel(CompressedInput.open(path))) {
+
+            final RecordReader recordReader = new RecordReader();
+
+            // the parser only takes containers, and a scalar has no paths anyway: an empty row
+            final RecordReader.Handler handler = (start, bytes, offset, length) ->
+                    tableExporter.export(((bytes[offset] == '{') || (bytes[offset] == '['))
+                            ? RecordReader.parse(bytes, offset, length)
+                            : null);
+
+            recordReader.read(channel, handler);
+
+            recordReader.finish(handler);
+
+        }
+
+        tableExporter.flush();
+
+        System.err.printf("%d rows%n", tableExporter.rows());
+
+    }
+
+    /*
+
+    Estimates the record count, record size and key paths of jsonPath from
+    random windows of it, with 95% bounds; a small file is read whole.
+
+    */
+
+    private static void profile(final Path path)
+            throws IOException {
+
+        final JSONProfiler.Profile profile = JSONProfiler.profile(path);
+
+        System.out.printf("records: %s%n", estimate(profile.records(), "%.0f"));
+
+        System.out.printf("bytes per record: %s%n", estimate(profile.recordBytes(), "%.1f"));
+
+        System.out.printf("%s %d of %d bytes (%.1f%%), %d windows, %d records, %d ms%n",
+                profile.exact() ? "read" : "sampled", profile.sampledBytes(), profile.fileBytes(),
+                (100.0 * profile.sampledBytes()) / Math.max(1, profile.fileBytes()),
+                profile.windows(), profile.sampledRecords(), profile.nanos() / 1_000_000);
+
+        for (final Map.Entry<String, JSONProfiler.Estimate> key : profile.keys().entrySet()) {
+
+            final StringBuilder types = new StringBuilder();
+
+            for (final Map.Entry<JSONProfiler.ValueType, JSONProfiler.Estimate> type
+                    : profile.valueTypes().get(key.getKey()).entrySet()) {
+
+                types.append(' ').append(type.getKey().name().toLowerCase(Locale.ROOT))
+                        .append(' ').append(estimate(type.getValue(), "%.3f"));
+
+            }
+
+            System.out.printf("%s: %s;%s%n", key.getKey().isEmpty() ? "(record)" : key.getKey(),
+                    estimate(key.getValue(), "%.3f"), types);
+
+        }
+
+    }
+
+    private static String estimate(final JSONProfiler.Estimate estimate, final String format) {
+
+        final String value = String.format(Locale.ROOT, format, estimate.value());
+
+        if (estimate.low() == estimate.high()) {
+
+            return value;
+        }
+
+        return value + " [" + String.format(Locale.ROOT, format, estimate.low())
+                + ", " + String.format(Locale.ROOT, format, estimate.high()) + "]";
+    }
+
+    /*
+
+    Takes batches of records POSTed to /ingest on port and extracts them, a
+    record at a time; GET /stats shows the counters. Runs until killed.
+
+    */
+
+    private static void serve(final int port)
+            throws IOException {
+
+        final Object printLock = new Object();
+
+        final IngestServer ingestServer = new IngestServer(new InetSocketAddress(port), record -> {
+
+            synchronized (printLock) {
+
+                Extractor.extract(record);
+
+            }
+
+        }).start();
+
+        System.err.printf("listening on port %d%n", ingestServer.port());
+
+    }
+
     private TestMain() { }
     
 }
\ No newline at end of file